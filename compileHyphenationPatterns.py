@@ -0,0 +1,84 @@
+#!/usr/bin/python
+
+# Compiles data/hyphenationPatterns/*.pattern into packed tries
+# read by org.geometerplus.zlibrary.text.hyphenation.ZLTextHyphenationTrie
+
+import os, sys, struct;
+import xml.etree.ElementTree as ElementTree;
+
+MAGIC = 0x5A4C4854
+VERSION = 1
+
+def parse_pattern(text):
+	symbols = []
+	values = [0]
+	for ch in text:
+		if '0' <= ch <= '9':
+			values[-1] = ord(ch) - ord('0')
+		else:
+			symbols.append(ch)
+			values.append(0)
+	return symbols, values
+
+def build_trie(patterns):
+	root = [{}, None]
+	for text in patterns:
+		symbols, values = parse_pattern(text)
+		if len(symbols) == 0:
+			continue
+		node = root
+		for ch in symbols:
+			node = node[0].setdefault(ch, [{}, None])
+		node[1] = values
+
+	nodes = [root]
+	symbols = [u'\0']
+	index = 0
+	while index < len(nodes):
+		children = nodes[index][0]
+		for ch in sorted(children.keys()):
+			symbols.append(ch)
+			nodes.append(children[ch])
+		index += 1
+
+	first_child = []
+	children_number = []
+	values_offset = []
+	values = []
+	next_child = 1
+	for node in nodes:
+		first_child.append(next_child)
+		children_number.append(len(node[0]))
+		next_child += len(node[0])
+		if node[1] is not None:
+			values_offset.append(len(values))
+			values.extend(node[1])
+		else:
+			values_offset.append(-1)
+	return symbols, first_child, children_number, values_offset, values
+
+def compile_file(source_file, target_file):
+	patterns = [element.text for element in ElementTree.parse(source_file).iter('pattern') if element.text]
+	symbols, first_child, children_number, values_offset, values = build_trie(patterns)
+	count = len(symbols)
+	out = open(target_file, 'wb')
+	try:
+		out.write(struct.pack('>iiii', MAGIC, VERSION, count, len(values)))
+		out.write(struct.pack('>%dH' % count, *[ord(ch) for ch in symbols]))
+		out.write(struct.pack('>%di' % count, *first_child))
+		out.write(struct.pack('>%dH' % count, *children_number))
+		out.write(struct.pack('>%di' % count, *values_offset))
+		out.write(struct.pack('>%db' % len(values), *values))
+	finally:
+		out.close()
+
+def compile_dir(source_dir, target_name):
+	for file in os.listdir(source_dir):
+		if file.endswith('.pattern'):
+			compile_file(source_dir + os.sep + file, target_name(file[:-len('.pattern')] + '.trie'))
+
+if __name__ == '__main__':
+	if len(sys.argv) != 3:
+		print('usage: ' + sys.argv[0] + ' <patterns directory> <output directory>')
+		sys.exit(1)
+	compile_dir(sys.argv[1], lambda name: sys.argv[2] + os.sep + name)
@@ -1,6 +1,7 @@
 #!/usr/bin/python
 
 import os, sys, shutil;
+import compileHyphenationPatterns;
 
 raw_res_dir = "res/raw"
 drawable_res_dir = "res/drawable"
@@ -32,6 +33,10 @@ def process_data_dir(prefix, dir, res_dir, replace_dot = 1):
 clean_res_dir(raw_res_dir)
 clean_res_dir(drawable_res_dir)
 process_data_dir("data__", data_dir, raw_res_dir)
+compileHyphenationPatterns.compile_dir(
+	data_dir + os.sep + "hyphenationPatterns",
+	lambda name: raw_res_dir + os.sep + ("data__hyphenationpatterns__" + name).lower().replace('-', '_').replace('.', '_')
+)
 shutil.copyfile("icons/fbreader.png", drawable_res_dir + "/fbreader.png")
 process_data_dir("", tree_icons_dir, drawable_res_dir, 0)
 process_data_dir("", menu_icons_dir, drawable_res_dir, 0)
@@ -16,16 +16,40 @@ public abstract class Decompressor {
     protected Decompressor() {
     }
 
-    private static Queue<DeflatingDecompressor> ourDeflators = new LinkedList<DeflatingDecompressor>();
+	/**
+	 * Prepares a pooled decompressor for the next entry;
+	 * only the deflating implementations are pooled.
+	 */
+	void reset(MyBufferedInputStream is, LocalFileHeader header) throws IOException {
+		throw new ZipException("Decompressor cannot be reused");
+	}
+
+    private static Queue<Decompressor> ourDeflators = new LinkedList<Decompressor>();
 
     static void storeDecompressor(Decompressor decompressor) {
-        if (decompressor instanceof DeflatingDecompressor) {
+        if (decompressor instanceof DeflatingDecompressor || decompressor instanceof InflaterDecompressor) {
             synchronized (ourDeflators) {
-                ourDeflators.add((DeflatingDecompressor)decompressor);
+                ourDeflators.add(decompressor);
             }
         }
     }
 
+	private static Boolean ourNativeInflaterIsAvailable;
+
+	static synchronized boolean nativeInflaterIsAvailable() {
+		if (ourNativeInflaterIsAvailable == null) {
+			try {
+				System.loadLibrary("DeflatingDecompressor");
+				ourNativeInflaterIsAvailable = true;
+			} catch (UnsatisfiedLinkError e) {
+				ourNativeInflaterIsAvailable = false;
+			} catch (SecurityException e) {
+				ourNativeInflaterIsAvailable = false;
+			}
+		}
+		return ourNativeInflaterIsAvailable;
+	}
+
     public static Decompressor init(MyBufferedInputStream is, LocalFileHeader header) throws IOException {
         switch (header.CompressionMethod) {
         case 0:
@@ -33,12 +57,14 @@ public abstract class Decompressor {
         case 8:
             synchronized (ourDeflators) {
                 if (!ourDeflators.isEmpty()) {
-                    DeflatingDecompressor decompressor = ourDeflators.poll();
+                    Decompressor decompressor = ourDeflators.poll();
                     decompressor.reset(is, header);
                     return decompressor;
                 }
             }
-            return new DeflatingDecompressor(is, header);
+            return nativeInflaterIsAvailable()
+				? new DeflatingDecompressor(is, header)
+				: new InflaterDecompressor(is, header);
         default:
             throw new ZipException("Unsupported method of compression");
         }
@@ -29,6 +29,7 @@ public class DeflatingDecompressor extends Decompressor {
         reset(inputStream, header);
     }
 
+	@Override
     void reset(MyBufferedInputStream inputStream, LocalFileHeader header) throws IOException {
 		if (myInflatingInProgress) {
 			endInflating();
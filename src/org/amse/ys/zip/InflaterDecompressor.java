@@ -0,0 +1,161 @@
+package org.amse.ys.zip;
+
+import java.io.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Pure java replacement for DeflatingDecompressor,
+ * used when the native library is not available (e.g. on a desktop JVM).
+ */
+public class InflaterDecompressor extends Decompressor {
+	private static int ourInBufferSize = 8192;
+	private static int ourOutBufferSize = 32768;
+
+	public static void setBufferSizes(int inBufferSize, int outBufferSize) {
+		if (inBufferSize <= 0 || outBufferSize <= 0) {
+			throw new IllegalArgumentException("Buffer sizes must be positive");
+		}
+		ourInBufferSize = inBufferSize;
+		ourOutBufferSize = outBufferSize;
+	}
+
+	private final Inflater myInflater = new Inflater(true);
+
+	private MyBufferedInputStream myStream;
+	private int myCompressedAvailable;
+	private int myAvailable;
+
+	private final byte[] myInBuffer;
+	private final byte[] myOutBuffer;
+	private int myOutBufferOffset;
+	private int myOutBufferLength;
+
+	private boolean myInflatingInProgress;
+
+	public InflaterDecompressor(MyBufferedInputStream inputStream, LocalFileHeader header) throws IOException {
+		super();
+		myInBuffer = new byte[ourInBufferSize];
+		myOutBuffer = new byte[ourOutBufferSize];
+		reset(inputStream, header);
+	}
+
+	@Override
+	void reset(MyBufferedInputStream inputStream, LocalFileHeader header) throws IOException {
+		myInflater.reset();
+
+		myStream = inputStream;
+		myCompressedAvailable = header.CompressedSize;
+		if (myCompressedAvailable <= 0) {
+			myCompressedAvailable = Integer.MAX_VALUE;
+		}
+		myAvailable = header.UncompressedSize;
+		if (myAvailable <= 0) {
+			myAvailable = Integer.MAX_VALUE;
+		}
+
+		myOutBufferOffset = 0;
+		myOutBufferLength = 0;
+
+		myInflatingInProgress = true;
+	}
+
+	@Override
+	public int available() {
+		return myAvailable;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (myAvailable <= 0) {
+			return -1;
+		}
+		if (len > myAvailable) {
+			len = myAvailable;
+		}
+		for (int toFill = len; toFill > 0; ) {
+			if (myOutBufferLength == 0) {
+				fillOutBuffer();
+			}
+			if (myOutBufferLength == 0) {
+				if (myInflatingInProgress) {
+					throw new IOException("cannot read from zip");
+				} else {
+					len -= toFill;
+					break;
+				}
+			}
+			final int ready = (toFill < myOutBufferLength) ? toFill : myOutBufferLength;
+			if (b != null) {
+				System.arraycopy(myOutBuffer, myOutBufferOffset, b, off, ready);
+			}
+			off += ready;
+			myOutBufferOffset += ready;
+			toFill -= ready;
+			myOutBufferLength -= ready;
+		}
+		if (len == 0) {
+			myAvailable = 0;
+			return -1;
+		}
+		myAvailable -= len;
+		return len;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (myAvailable <= 0) {
+			return -1;
+		}
+		if (myOutBufferLength == 0) {
+			fillOutBuffer();
+		}
+		if (myOutBufferLength == 0) {
+			if (myInflatingInProgress) {
+				throw new IOException("cannot read from zip");
+			} else {
+				myAvailable = 0;
+				return -1;
+			}
+		}
+		--myAvailable;
+		--myOutBufferLength;
+		return myOutBuffer[myOutBufferOffset++] & 0xFF;
+	}
+
+	private void fillOutBuffer() throws IOException {
+		if (!myInflatingInProgress) {
+			return;
+		}
+
+		try {
+			while (myOutBufferLength == 0) {
+				if (myInflater.needsInput()) {
+					final int toRead = (myCompressedAvailable < myInBuffer.length) ? myCompressedAvailable : myInBuffer.length;
+					final int inLength = myStream.read(myInBuffer, 0, toRead);
+					if (inLength <= 0) {
+						break;
+					}
+					if (inLength < toRead) {
+						myCompressedAvailable = 0;
+					} else {
+						myCompressedAvailable -= toRead;
+					}
+					myInflater.setInput(myInBuffer, 0, inLength);
+				}
+				myOutBufferOffset = 0;
+				myOutBufferLength = myInflater.inflate(myOutBuffer);
+				if (myInflater.finished()) {
+					myInflatingInProgress = false;
+					myStream.backSkip(myInflater.getRemaining());
+					break;
+				}
+				if (myOutBufferLength == 0 && myInflater.needsDictionary()) {
+					throw new ZipException("Preset dictionaries are not supported");
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid deflate data: " + e.getMessage());
+		}
+	}
+}
@@ -28,6 +28,8 @@ public class LocalFileHeader {
 
 	public String FileName;
 	int DataOffset;
+	// known for headers read from central directory; DataOffset is -1 there until resolved
+	int LocalHeaderOffset;
 
     LocalFileHeader() {
     }
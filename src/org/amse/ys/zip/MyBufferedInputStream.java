@@ -1,6 +1,7 @@
 package org.amse.ys.zip;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 
 final class MyBufferedInputStream extends InputStream {
     private final ZipFile.InputStreamHolder myStreamHolder;
@@ -117,6 +118,18 @@ final class MyBufferedInputStream extends InputStream {
 		if (n <= 0) {
 			return;
 		}
+		if (myFileInputStream instanceof FileInputStream) {
+			// seek instead of reopening the file and skipping from its start
+			final FileChannel channel = ((FileInputStream)myFileInputStream).getChannel();
+			final long position = channel.position() - myBytesReady - n;
+			if (position >= 0) {
+				channel.position(position);
+				myBytesReady = 0;
+				myPositionInBuffer = 0;
+				myCurrentPosition -= n;
+				return;
+			}
+		}
         myFileInputStream.close();
         myFileInputStream = myStreamHolder.getInputStream();
         myBytesReady = 0;
@@ -8,23 +8,34 @@ public class NoCompressionDecompressor extends Decompressor {
     private int myCurrentPosition;
 
     public NoCompressionDecompressor(MyBufferedInputStream is, LocalFileHeader header) {
+        this(is, header, 0);
+    }
+
+	/**
+	 * is must be positioned at the given offset of the entry data
+	 */
+    NoCompressionDecompressor(MyBufferedInputStream is, LocalFileHeader header, int offset) {
         super();
         myHeader = header;
         myStream = is;
+		myCurrentPosition = offset;
     }
 
     public int read(byte b[], int off, int len) throws IOException {
-        int i = 0;
-        for (; i < len; ++i) {
-            int value = read();
-            if (value == -1) {
-                break;
-            }
-			if (b != null) {
-            	b[off + i] = (byte)value;
-			}
-        }
-        return (i > 0) ? i : -1;
+		final int count = Math.min(len, myHeader.CompressedSize - myCurrentPosition);
+		if (count <= 0) {
+			return -1;
+		}
+		if (b == null) {
+			myStream.skip(count);
+			myCurrentPosition += count;
+			return count;
+		}
+		final int ready = myStream.read(b, off, count);
+		if (ready > 0) {
+			myCurrentPosition += ready;
+		}
+		return ready;
     }
 
     public int read() throws IOException {
@@ -20,20 +20,191 @@ public final class ZipFile {
 		}
 	}
 
+	private static final class CentralDirectory {
+		final long FileLength;
+		final long LastModified;
+		final LinkedHashMap<String,LocalFileHeader> Headers;
+
+		CentralDirectory(long fileLength, long lastModified, LinkedHashMap<String,LocalFileHeader> headers) {
+			FileLength = fileLength;
+			LastModified = lastModified;
+			Headers = headers;
+		}
+	}
+
+	private static final int CACHED_DIRECTORIES_NUMBER = 8;
+	private static final LinkedHashMap<String,CentralDirectory> ourCentralDirectories =
+		new LinkedHashMap<String,CentralDirectory>(CACHED_DIRECTORIES_NUMBER, 0.75f, true) {
+			private static final long serialVersionUID = -2304196325174935633L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,CentralDirectory> eldest) {
+				return size() > CACHED_DIRECTORIES_NUMBER;
+			}
+		};
+
     private final InputStreamHolder myStreamHolder;
+	// not null for physical files only; such archives are indexed by central directory
+	private final String myFilePath;
     private final LinkedHashMap<String,LocalFileHeader> myFileHeaders = new LinkedHashMap<String,LocalFileHeader>();
 
     private boolean myAllFilesAreRead;
+	private boolean myCentralDirectoryIsChecked;
 
     public ZipFile(String filePath) {
-		this(new FileInputStreamHolder(filePath));
+		myStreamHolder = new FileInputStreamHolder(filePath);
+		myFilePath = filePath;
     }
 
     public ZipFile(InputStreamHolder streamHolder) {
         myStreamHolder = streamHolder;
+		myFilePath = null;
     }
 
+	private static int read2Bytes(byte[] data, int offset) {
+		return (data[offset] & 0xFF) + ((data[offset + 1] & 0xFF) << 8);
+	}
+
+	private static int read4Bytes(byte[] data, int offset) {
+		return read2Bytes(data, offset) + (read2Bytes(data, offset + 2) << 16);
+	}
+
+	/**
+	 * Reads the central directory of a physical file;
+	 * returns null if the archive is damaged or uses ZIP64.
+	 */
+	private static LinkedHashMap<String,LocalFileHeader> readCentralDirectory(RandomAccessFile file) throws IOException {
+		final long fileLength = file.length();
+		final int tailLength = (int)Math.min(fileLength, 22 + 0xFFFF);
+		final byte[] tail = new byte[tailLength];
+		file.seek(fileLength - tailLength);
+		file.readFully(tail);
+
+		int end = tailLength - 22;
+		for (; end >= 0; --end) {
+			if (read4Bytes(tail, end) == LocalFileHeader.END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				break;
+			}
+		}
+		if (end < 0) {
+			return null;
+		}
+		final int entriesNumber = read2Bytes(tail, end + 10);
+		final long directorySize = read4Bytes(tail, end + 12) & 0xFFFFFFFFL;
+		final long directoryOffset = read4Bytes(tail, end + 16) & 0xFFFFFFFFL;
+		if ((entriesNumber == 0xFFFF) ||
+			(directoryOffset + directorySize > fileLength - tailLength + end)) {
+			return null;
+		}
+
+		final byte[] directory = new byte[(int)directorySize];
+		file.seek(directoryOffset);
+		file.readFully(directory);
+
+		final LinkedHashMap<String,LocalFileHeader> headers = new LinkedHashMap<String,LocalFileHeader>();
+		int offset = 0;
+		for (int i = 0; i < entriesNumber; ++i) {
+			if ((offset + 46 > directory.length) ||
+				(read4Bytes(directory, offset) != LocalFileHeader.FOLDER_HEADER_SIGNATURE)) {
+				return null;
+			}
+			final LocalFileHeader header = new LocalFileHeader();
+			header.Signature = LocalFileHeader.FILE_HEADER_SIGNATURE;
+			header.Version = read2Bytes(directory, offset + 6);
+			header.Flags = read2Bytes(directory, offset + 8);
+			header.CompressionMethod = read2Bytes(directory, offset + 10);
+			header.ModificationTime = read2Bytes(directory, offset + 12);
+			header.ModificationDate = read2Bytes(directory, offset + 14);
+			header.CRC32 = read4Bytes(directory, offset + 16);
+			header.CompressedSize = read4Bytes(directory, offset + 20);
+			header.UncompressedSize = read4Bytes(directory, offset + 24);
+			if (header.CompressionMethod == 0 && header.CompressedSize != header.UncompressedSize) {
+				header.CompressedSize = header.UncompressedSize;
+			}
+			header.NameLength = read2Bytes(directory, offset + 28);
+			header.ExtraLength = read2Bytes(directory, offset + 30);
+			final int commentLength = read2Bytes(directory, offset + 32);
+			header.LocalHeaderOffset = read4Bytes(directory, offset + 42);
+			header.DataOffset = -1;
+			offset += 46;
+			if (offset + header.NameLength > directory.length) {
+				return null;
+			}
+			final char[] name = new char[header.NameLength];
+			for (int j = 0; j < name.length; ++j) {
+				name[j] = (char)(directory[offset + j] & 0xFF);
+			}
+			header.FileName = new String(name);
+			headers.put(header.FileName, header);
+			offset += header.NameLength + header.ExtraLength + commentLength;
+		}
+		return headers;
+	}
+
+	private synchronized void checkCentralDirectory() {
+		if (myCentralDirectoryIsChecked) {
+			return;
+		}
+		myCentralDirectoryIsChecked = true;
+		if (myFilePath == null) {
+			return;
+		}
+
+		final File file = new File(myFilePath);
+		final long fileLength = file.length();
+		final long lastModified = file.lastModified();
+		CentralDirectory directory;
+		synchronized (ourCentralDirectories) {
+			directory = ourCentralDirectories.get(myFilePath);
+		}
+		if ((directory == null) ||
+			(directory.FileLength != fileLength) ||
+			(directory.LastModified != lastModified)) {
+			LinkedHashMap<String,LocalFileHeader> headers = null;
+			try {
+				final RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try {
+					headers = readCentralDirectory(raf);
+				} finally {
+					raf.close();
+				}
+			} catch (IOException e) {
+			}
+			if (headers == null) {
+				// damaged archive; local headers will be scanned
+				return;
+			}
+			directory = new CentralDirectory(fileLength, lastModified, headers);
+			synchronized (ourCentralDirectories) {
+				ourCentralDirectories.put(myFilePath, directory);
+			}
+		}
+		myFileHeaders.clear();
+		myFileHeaders.putAll(directory.Headers);
+		myAllFilesAreRead = true;
+	}
+
+	private LocalFileHeader resolveDataOffset(LocalFileHeader header) throws IOException {
+		if (header.DataOffset < 0) {
+			final MyBufferedInputStream baseStream = getBaseStream();
+			try {
+				baseStream.setPosition(header.LocalHeaderOffset);
+				if (baseStream.read4Bytes() != LocalFileHeader.FILE_HEADER_SIGNATURE) {
+					throw new ZipException("Invalid local header of " + header.FileName);
+				}
+				baseStream.skip(22);
+				final int nameLength = baseStream.read2Bytes();
+				final int extraLength = baseStream.read2Bytes();
+				header.DataOffset = header.LocalHeaderOffset + 30 + nameLength + extraLength;
+			} finally {
+				storeBaseStream(baseStream);
+			}
+		}
+		return header;
+	}
+
     public Collection<LocalFileHeader> headers() {
+		checkCentralDirectory();
         try {
             readAllHeaders();
         } catch (IOException e) {
@@ -120,11 +291,79 @@ public final class ZipFile {
 		return createZipInputStream(getHeader(entryName));
     }
 
+	private static final int PARKED_STREAMS_NUMBER = 4;
+	// deflated entry streams left open by positional reads; a read further
+	// in the same entry resumes inflating instead of restarting from 0
+	private final LinkedList<ZipInputStream> myParkedStreams = new LinkedList<ZipInputStream>();
+
+	synchronized boolean parkStream(ZipInputStream stream) {
+		if (stream.isParked()) {
+			return true;
+		}
+		stream.setParked(true);
+		myParkedStreams.addFirst(stream);
+		if (myParkedStreams.size() > PARKED_STREAMS_NUMBER) {
+			myParkedStreams.removeLast().release();
+		}
+		return true;
+	}
+
+	private synchronized ZipInputStream unparkStream(LocalFileHeader header, int offset) {
+		for (Iterator<ZipInputStream> it = myParkedStreams.iterator(); it.hasNext(); ) {
+			final ZipInputStream stream = it.next();
+			if ((stream.header() == header) && (stream.position() <= offset)) {
+				it.remove();
+				stream.setParked(false);
+				return stream;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Releases the parked streams; call it when the ZipFile is dropped
+	 */
+	public synchronized void releaseParkedStreams() {
+		for (ZipInputStream stream : myParkedStreams) {
+			stream.setParked(false);
+			stream.release();
+		}
+		myParkedStreams.clear();
+	}
+
+	public InputStream getInputStream(String entryName, int offset) throws IOException {
+		return getInputStream(entryName, offset, true);
+	}
+
+	/**
+	 * Opens the entry at offset: stored entries are seeked directly,
+	 * deflated ones resume a parked stream if there is one before offset;
+	 * a stream opened with parkable set is parked on close
+	 */
+	public InputStream getInputStream(String entryName, int offset, boolean parkable) throws IOException {
+		final LocalFileHeader header = getHeader(entryName);
+		if (header.CompressionMethod == 0) {
+			return new ZipInputStream(this, header, offset);
+		}
+		ZipInputStream stream = parkable ? unparkStream(header, offset) : null;
+		if (stream == null) {
+			stream = createZipInputStream(header);
+		}
+		final int toSkip = offset - stream.position();
+		if (stream.skip(toSkip) != toSkip) {
+			stream.release();
+			throw new ZipException("Offset " + offset + " is out of entry " + entryName);
+		}
+		stream.setParkable(parkable);
+		return stream;
+	}
+
     public LocalFileHeader getHeader(String entryName) throws IOException {
+		checkCentralDirectory();
         if (!myFileHeaders.isEmpty()) {
             LocalFileHeader header = myFileHeaders.get(entryName);
             if (header != null) {
-                return header;
+                return resolveDataOffset(header);
             }
             if (myAllFilesAreRead) {
 				throw new ZipException("Entry " + entryName + " is not found");
@@ -4,16 +4,54 @@ import java.io.*;
 
 class ZipInputStream extends InputStream {
 	private final ZipFile myParent;
+	private final LocalFileHeader myHeader;
     private final MyBufferedInputStream myBaseStream;
     private final Decompressor myDecompressor;
 	private boolean myIsClosed;
+	// offset of the next byte in the entry
+	private int myPosition;
+	// if set, close() gives the stream back to the parent to be resumed later
+	private boolean myIsParkable;
+	// set while the stream lies in the parent's parked list
+	private boolean myIsParked;
 
     public ZipInputStream(ZipFile parent, LocalFileHeader header) throws IOException {
+		this(parent, header, 0);
+    }
+
+	/**
+	 * Only stored entries can be opened at non-zero offset
+	 */
+	ZipInputStream(ZipFile parent, LocalFileHeader header, int offset) throws IOException {
 		myParent = parent;
+		myHeader = header;
         myBaseStream = parent.getBaseStream();
-        myBaseStream.setPosition(header.DataOffset);
-        myDecompressor = Decompressor.init(myBaseStream, header);
-    }
+        myBaseStream.setPosition(header.DataOffset + offset);
+        myDecompressor = (offset == 0)
+			? Decompressor.init(myBaseStream, header)
+			: new NoCompressionDecompressor(myBaseStream, header, offset);
+		myPosition = offset;
+	}
+
+	LocalFileHeader header() {
+		return myHeader;
+	}
+
+	int position() {
+		return myPosition;
+	}
+
+	void setParkable(boolean parkable) {
+		myIsParkable = parkable;
+	}
+
+	boolean isParked() {
+		return myIsParked;
+	}
+
+	void setParked(boolean parked) {
+		myIsParked = parked;
+	}
 
 	@Override
     public int available() throws IOException {
@@ -31,19 +69,50 @@ class ZipInputStream extends InputStream {
             return 0;
         }
 
-        return myDecompressor.read(b, off, len);
+        final int count = myDecompressor.read(b, off, len);
+		if (count > 0) {
+			myPosition += count;
+		}
+		return count;
     }
 
 	@Override
     public int read() throws IOException {
-        return myDecompressor.read();
+        final int value = myDecompressor.read();
+		if (value != -1) {
+			++myPosition;
+		}
+		return value;
     }
 
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			final int count = myDecompressor.read(null, 0, (int)Math.min(n - skipped, 8192));
+			if (count <= 0) {
+				break;
+			}
+			skipped += count;
+		}
+		myPosition += skipped;
+		return skipped;
+	}
+
     public void close() throws IOException {
+		if (!myIsClosed && !myIsParked) {
+			if (myIsParkable && myParent.parkStream(this)) {
+				return;
+			}
+			release();
+		}
+    }
+
+	void release() {
 		if (!myIsClosed) {
 			myIsClosed = true;
 			myParent.storeBaseStream(myBaseStream);
 			Decompressor.storeDecompressor(myDecompressor);
 		}
-    }
+	}
 }
@@ -317,11 +317,17 @@ public final class FBReader extends ZLAndroidActivity {
 		final ZLTextView textView = (ZLTextView) ZLApplication.Instance().getCurrentView();
 		final int page = textView.computeCurrentPage();
 		final int pagesNumber = textView.computePageNumber();
+		final int paginationProgress = textView.getPaginationProgress();
 
 		if (slider.getMax() != (pagesNumber - 1)
 				|| slider.getProgress() != (page - 1)) {
 			slider.setMax(pagesNumber - 1);
 			slider.setProgress(page - 1);
+		}
+		if (paginationProgress < 100) {
+			// page numbers are estimated until the exact pagination is complete
+			text.setText("~" + makeProgressText(page, pagesNumber) + " (" + paginationProgress + "%)");
+		} else {
 			text.setText(makeProgressText(page, pagesNumber));
 		}
 	}
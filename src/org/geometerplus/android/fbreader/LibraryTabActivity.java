@@ -21,6 +21,8 @@ package org.geometerplus.android.fbreader;
 
 import android.app.*;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
 import android.view.*;
 import android.widget.*;
 import android.content.DialogInterface;
@@ -43,6 +45,20 @@ public class LibraryTabActivity extends TabActivity implements MenuItem.OnMenuIt
 	private final ZLResource myResource = ZLResource.resource("libraryView");
 	private Book myCurrentBook;
 
+	// the library is scanned in background and shown as it is read
+	private final Handler myLibraryChangeHandler = new Handler() {
+		public void handleMessage(Message message) {
+			if (Library.Instance().flushChanges()) {
+				invalidateViews();
+			}
+		}
+	};
+	private final Library.ChangeListener myLibraryChangeListener = new Library.ChangeListener() {
+		public void onLibraryChanged() {
+			myLibraryChangeHandler.sendEmptyMessage(0);
+		}
+	};
+
 	private ListView createTab(String tag, int viewId, int iconId) {
 		final TabHost host = getTabHost();
 		final String label = myResource.getResource(tag).getValue();
@@ -76,6 +92,7 @@ public class LibraryTabActivity extends TabActivity implements MenuItem.OnMenuIt
 		final TabHost host = getTabHost();
 		LayoutInflater.from(this).inflate(R.layout.library, host.getTabContentView(), true);
 
+		Library.Instance().addChangeListener(myLibraryChangeListener);
 		createDefaultTabs();
 
 		host.setCurrentTabByTag(mySelectedTabOption.getValue());
@@ -112,6 +129,7 @@ public class LibraryTabActivity extends TabActivity implements MenuItem.OnMenuIt
 
 	@Override
 	public void onDestroy() {
+		Library.Instance().removeChangeListener(myLibraryChangeListener);
 		Library.Instance().clear();
 		super.onDestroy();
 	}
@@ -271,23 +289,26 @@ public class LibraryTabActivity extends TabActivity implements MenuItem.OnMenuIt
 			myMode = removeMode;
 		}
 
-		private void invalidateView(View v) {
-			ZLTreeAdapter adapter = (ZLTreeAdapter)((ListView)v).getAdapter();
-			if (adapter != null) {
-				adapter.resetTree();
-			}
-		}
-
 		public void onClick(DialogInterface dialog, int which) {
 			Library.Instance().removeBook(myBook, myMode);
+			invalidateViews();
+		}
+	}
 
-			invalidateView(findViewById(R.id.by_author));
-			invalidateView(findViewById(R.id.by_tag));
-			invalidateView(findViewById(R.id.recent));
-			invalidateView(findViewById(R.id.search_results));
+	private void invalidateView(View v) {
+		ZLTreeAdapter adapter = (ZLTreeAdapter)((ListView)v).getAdapter();
+		if (adapter != null) {
+			adapter.resetTree();
 		}
 	}
 
+	private void invalidateViews() {
+		invalidateView(findViewById(R.id.by_author));
+		invalidateView(findViewById(R.id.by_tag));
+		invalidateView(findViewById(R.id.recent));
+		invalidateView(findViewById(R.id.search_results));
+	}
+
 	private void tryToDeleteBook(Book book) {
 		final ZLResource dialogResource = ZLResource.resource("dialog");
 		final ZLResource buttonResource = dialogResource.getResource("button");
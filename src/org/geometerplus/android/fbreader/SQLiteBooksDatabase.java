@@ -46,19 +46,44 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		migrate();
 	}
 
-	protected void executeAsATransaction(Runnable actions) {
+	// the library is scanned in background while the reader saves books and positions:
+	// all access goes through synchronized methods, since the statements and
+	// id caches below are shared; a transaction holds the lock until it ends
+	protected synchronized void executeAsATransaction(Runnable actions) {
 		myDatabase.beginTransaction();
+		boolean committed = false;
 		try {
-			actions.run();
-			myDatabase.setTransactionSuccessful();
+			try {
+				actions.run();
+				myDatabase.setTransactionSuccessful();
+			} finally {
+				myDatabase.endTransaction();
+			}
+			committed = true;
 		} finally {
-			myDatabase.endTransaction();
+			if (!committed) {
+				// rows inserted by the rolled back transaction are gone,
+				// so their ids must not stay in the caches
+				resetIdCaches();
+			}
 		}
 	}
 
+	private void resetIdCaches() {
+		myTagCacheIsInitialized = false;
+		myIdByTag.clear();
+		myTagById.clear();
+		myAuthorCacheIsInitialized = false;
+		myIdByAuthor.clear();
+		myAuthorById.clear();
+		mySeriesCacheIsInitialized = false;
+		myIdBySeries.clear();
+		mySeriesById.clear();
+	}
+
 	private void migrate() {
 		final int version = myDatabase.getVersion();
-		final int currentVersion = 10;
+		final int currentVersion = 11;
 		if (version >= currentVersion) {
 			return;
 		}
@@ -87,6 +112,8 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 						updateTables8();
 					case 9:
 						updateTables9();
+					case 10:
+						updateTables10();
 				}
 				myDatabase.setTransactionSuccessful();
 				myDatabase.endTransaction();
@@ -120,7 +147,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		return new Date(cursor.getLong(index));
 	}
 
-	protected Book loadBook(long bookId) {
+	protected synchronized Book loadBook(long bookId) {
 		Book book = null;
 		final Cursor cursor = myDatabase.rawQuery("SELECT file_id,title,encoding,language FROM Books WHERE book_id = " + bookId, null);
 		if (cursor.moveToNext()) {
@@ -132,7 +159,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		return book;
 	}
 
-	protected Book loadBookByFile(long fileId, ZLFile file) {
+	protected synchronized Book loadBookByFile(long fileId, ZLFile file) {
 		if (fileId == -1) {
 			return null;
 		}
@@ -169,8 +196,48 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		cursor.close();
 	}
 
+	private boolean myAuthorCacheIsInitialized;
+	private final HashMap<Author,Long> myIdByAuthor = new HashMap<Author,Long>();
+	private final HashMap<Long,Author> myAuthorById = new HashMap<Long,Author>();
+
+	private void initAuthorCache() {
+		if (myAuthorCacheIsInitialized) {
+			return;
+		}
+		myAuthorCacheIsInitialized = true;
+
+		final Cursor cursor = myDatabase.rawQuery("SELECT author_id,name,sort_key FROM Authors", null);
+		while (cursor.moveToNext()) {
+			final long id = cursor.getLong(0);
+			final Author author = new Author(cursor.getString(1), cursor.getString(2));
+			myIdByAuthor.put(author, id);
+			myAuthorById.put(id, author);
+		}
+		cursor.close();
+	}
+
+	private boolean mySeriesCacheIsInitialized;
+	private final HashMap<String,Long> myIdBySeries = new HashMap<String,Long>();
+	private final HashMap<Long,String> mySeriesById = new HashMap<Long,String>();
+
+	private void initSeriesCache() {
+		if (mySeriesCacheIsInitialized) {
+			return;
+		}
+		mySeriesCacheIsInitialized = true;
+
+		final Cursor cursor = myDatabase.rawQuery("SELECT series_id,name FROM Series", null);
+		while (cursor.moveToNext()) {
+			final long id = cursor.getLong(0);
+			final String name = cursor.getString(1);
+			myIdBySeries.put(name, id);
+			mySeriesById.put(id, name);
+		}
+		cursor.close();
+	}
+
 	@Override
-	protected Map<Long,Book> listBooks(FileInfoSet infos) {
+	protected synchronized Map<Long,Book> listBooks(FileInfoSet infos) {
 		Cursor cursor = myDatabase.rawQuery(
 			"SELECT book_id,file_id,title,encoding,language FROM Books", null
 		);
@@ -192,14 +259,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 
 		initTagCache();
 
-		cursor = myDatabase.rawQuery(
-			"SELECT author_id,name,sort_key FROM Authors", null
-		);
-		final HashMap<Long,Author> authorById = new HashMap<Long,Author>(cursor.getCount());
-		while (cursor.moveToNext()) {
-			authorById.put(cursor.getLong(0), new Author(cursor.getString(1), cursor.getString(2)));
-		}
-		cursor.close();
+		initAuthorCache();
 
 		cursor = myDatabase.rawQuery(
 			"SELECT book_id,author_id FROM BookAuthor ORDER BY author_index", null
@@ -207,7 +267,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		while (cursor.moveToNext()) {
 			Book book = booksById.get(cursor.getLong(0));
 			if (book != null) {
-				Author author = authorById.get(cursor.getLong(1));
+				Author author = myAuthorById.get(cursor.getLong(1));
 				if (author != null) {
 					addAuthor(book, author);
 				}
@@ -224,14 +284,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		}
 		cursor.close();
 
-		cursor = myDatabase.rawQuery(
-			"SELECT series_id,name FROM Series", null
-		);
-		final HashMap<Long,String> seriesById = new HashMap<Long,String>(cursor.getCount());
-		while (cursor.moveToNext()) {
-			seriesById.put(cursor.getLong(0), cursor.getString(1));
-		}
-		cursor.close();
+		initSeriesCache();
 
 		cursor = myDatabase.rawQuery(
 			"SELECT book_id,series_id,book_index FROM BookSeries", null
@@ -239,7 +292,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		while (cursor.moveToNext()) {
 			Book book = booksById.get(cursor.getLong(0));
 			if (book != null) {
-				String series = seriesById.get(cursor.getLong(1));
+				String series = mySeriesById.get(cursor.getLong(1));
 				if (series != null) {
 					setSeriesInfo(book, series, cursor.getLong(2));
 				}
@@ -250,7 +303,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	private SQLiteStatement myUpdateBookInfoStatement;
-	protected void updateBookInfo(long bookId, long fileId, String encoding, String language, String title) {
+	protected synchronized void updateBookInfo(long bookId, long fileId, String encoding, String language, String title) {
 		if (myUpdateBookInfoStatement == null) {
 			myUpdateBookInfoStatement = myDatabase.compileStatement(
 				"UPDATE Books SET file_id = ?, encoding = ?, language = ?, title = ? WHERE book_id = ?"
@@ -265,7 +318,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	private SQLiteStatement myInsertBookInfoStatement;
-	protected long insertBookInfo(ZLFile file, String encoding, String language, String title) {
+	protected synchronized long insertBookInfo(long fileId, String encoding, String language, String title) {
 		if (myInsertBookInfoStatement == null) {
 			myInsertBookInfoStatement = myDatabase.compileStatement(
 				"INSERT INTO Books (encoding,language,title,file_id) VALUES (?,?,?,?)"
@@ -274,13 +327,12 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		bindString(myInsertBookInfoStatement, 1, encoding);
 		bindString(myInsertBookInfoStatement, 2, language);
 		myInsertBookInfoStatement.bindString(3, title);
-		final FileInfoSet infoSet = new FileInfoSet(file);
-		myInsertBookInfoStatement.bindLong(4, infoSet.getId(file));
+		myInsertBookInfoStatement.bindLong(4, fileId);
 		return myInsertBookInfoStatement.executeInsert();
 	}
 
 	private SQLiteStatement myDeleteBookAuthorsStatement;
-	protected void deleteAllBookAuthors(long bookId) {
+	protected synchronized void deleteAllBookAuthors(long bookId) {
 		if (myDeleteBookAuthorsStatement == null) {
 			myDeleteBookAuthorsStatement = myDatabase.compileStatement(
 				"DELETE FROM BookAuthor WHERE book_id = ?"
@@ -290,14 +342,10 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		myDeleteBookAuthorsStatement.execute();
 	}
 
-	private SQLiteStatement myGetAuthorIdStatement;
 	private SQLiteStatement myInsertAuthorStatement;
 	private SQLiteStatement myInsertBookAuthorStatement;
-	protected void saveBookAuthorInfo(long bookId, long index, Author author) {
-		if (myGetAuthorIdStatement == null) {
-			myGetAuthorIdStatement = myDatabase.compileStatement(
-				"SELECT author_id FROM Authors WHERE name = ? AND sort_key = ?"
-			);
+	protected synchronized void saveBookAuthorInfo(long bookId, long index, Author author) {
+		if (myInsertAuthorStatement == null) {
 			myInsertAuthorStatement = myDatabase.compileStatement(
 				"INSERT INTO Authors (name,sort_key) VALUES (?,?)"
 			);
@@ -306,15 +354,14 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 			);
 		}
 
-		long authorId;
-		try {
-			myGetAuthorIdStatement.bindString(1, author.DisplayName);
-			myGetAuthorIdStatement.bindString(2, author.SortKey);
-			authorId = myGetAuthorIdStatement.simpleQueryForLong();
-		} catch (SQLException e) {
+		initAuthorCache();
+		Long authorId = myIdByAuthor.get(author);
+		if (authorId == null) {
 			myInsertAuthorStatement.bindString(1, author.DisplayName);
 			myInsertAuthorStatement.bindString(2, author.SortKey);
 			authorId = myInsertAuthorStatement.executeInsert();
+			myIdByAuthor.put(author, authorId);
+			myAuthorById.put(authorId, author);
 		}
 		myInsertBookAuthorStatement.bindLong(1, bookId);
 		myInsertBookAuthorStatement.bindLong(2, authorId);
@@ -322,7 +369,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		myInsertBookAuthorStatement.execute();
 	}
 
-	protected List<Author> loadAuthors(long bookId) {
+	protected synchronized List<Author> loadAuthors(long bookId) {
 		final Cursor cursor = myDatabase.rawQuery("SELECT Authors.name,Authors.sort_key FROM BookAuthor INNER JOIN Authors ON Authors.author_id = BookAuthor.author_id WHERE BookAuthor.book_id = ?", new String[] { "" + bookId });
 		if (!cursor.moveToNext()) {
 			return null;
@@ -335,48 +382,35 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		return list;
 	}
 
-	private SQLiteStatement myGetTagIdStatement;
 	private SQLiteStatement myCreateTagIdStatement;
 	private long getTagId(Tag tag) {
-		if (myGetTagIdStatement == null) {
-			myGetTagIdStatement = myDatabase.compileStatement(
-				"SELECT tag_id FROM Tags WHERE parent_id = ? AND name = ?"
-			);
-			myCreateTagIdStatement = myDatabase.compileStatement(
-				"INSERT INTO Tags (parent_id,name) VALUES (?,?)"
-			);
-		}	
+		initTagCache();
 		{
 			final Long id = myIdByTag.get(tag);
 			if (id != null) {
 				return id;
 			}
 		}
+		if (myCreateTagIdStatement == null) {
+			myCreateTagIdStatement = myDatabase.compileStatement(
+				"INSERT INTO Tags (parent_id,name) VALUES (?,?)"
+			);
+		}
+		// the cache contains all the stored tags, so a missing tag is a new one
 		if (tag.Parent != null) {
-			myGetTagIdStatement.bindLong(1, getTagId(tag.Parent));
+			myCreateTagIdStatement.bindLong(1, getTagId(tag.Parent));
 		} else {
-			myGetTagIdStatement.bindNull(1);
-		}
-		myGetTagIdStatement.bindString(2, tag.Name);
-		long id;
-		try {
-			id = myGetTagIdStatement.simpleQueryForLong();
-		} catch (SQLException e) {
-			if (tag.Parent != null) {
-				myCreateTagIdStatement.bindLong(1, getTagId(tag.Parent));
-			} else {
-				myCreateTagIdStatement.bindNull(1);
-			}
-			myCreateTagIdStatement.bindString(2, tag.Name);
-			id = myCreateTagIdStatement.executeInsert();
+			myCreateTagIdStatement.bindNull(1);
 		}
+		myCreateTagIdStatement.bindString(2, tag.Name);
+		final long id = myCreateTagIdStatement.executeInsert();
 		myIdByTag.put(tag, id);
 		myTagById.put(id, tag);
 		return id;
 	}
 
 	private SQLiteStatement myDeleteBookTagsStatement;
-	protected void deleteAllBookTags(long bookId) {
+	protected synchronized void deleteAllBookTags(long bookId) {
 		if (myDeleteBookTagsStatement == null) {
 			myDeleteBookTagsStatement = myDatabase.compileStatement(
 				"DELETE FROM BookTag WHERE book_id = ?"
@@ -387,7 +421,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	private SQLiteStatement myInsertBookTagStatement;
-	protected void saveBookTagInfo(long bookId, Tag tag) {
+	protected synchronized void saveBookTagInfo(long bookId, Tag tag) {
 		if (myInsertBookTagStatement == null) {
 			myInsertBookTagStatement = myDatabase.compileStatement(
 				"INSERT INTO BookTag (book_id,tag_id) VALUES (?,?)"
@@ -413,7 +447,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		return tag;
 	}
 
-	protected List<Tag> loadTags(long bookId) {
+	protected synchronized List<Tag> loadTags(long bookId) {
 		final Cursor cursor = myDatabase.rawQuery("SELECT Tags.tag_id FROM BookTag INNER JOIN Tags ON Tags.tag_id = BookTag.tag_id WHERE BookTag.book_id = ?", new String[] { "" + bookId });
 		if (!cursor.moveToNext()) {
 			return null;
@@ -426,15 +460,11 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		return list;
 	}
 
-	private SQLiteStatement myGetSeriesIdStatement;
 	private SQLiteStatement myInsertSeriesStatement;
 	private SQLiteStatement myInsertBookSeriesStatement;
 	private SQLiteStatement myDeleteBookSeriesStatement;
-	protected void saveBookSeriesInfo(long bookId, SeriesInfo seriesInfo) {
-		if (myGetSeriesIdStatement == null) {
-			myGetSeriesIdStatement = myDatabase.compileStatement(
-				"SELECT series_id FROM Series WHERE name = ?"
-			);
+	protected synchronized void saveBookSeriesInfo(long bookId, SeriesInfo seriesInfo) {
+		if (myInsertSeriesStatement == null) {
 			myInsertSeriesStatement = myDatabase.compileStatement(
 				"INSERT INTO Series (name) VALUES (?)"
 			);
@@ -450,13 +480,13 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 			myDeleteBookSeriesStatement.bindLong(1, bookId);
 			myDeleteBookSeriesStatement.execute();
 		} else {
-			long seriesId;
-			try {
-				myGetSeriesIdStatement.bindString(1, seriesInfo.Name);
-				seriesId = myGetSeriesIdStatement.simpleQueryForLong();
-			} catch (SQLException e) {
+			initSeriesCache();
+			Long seriesId = myIdBySeries.get(seriesInfo.Name);
+			if (seriesId == null) {
 				myInsertSeriesStatement.bindString(1, seriesInfo.Name);
 				seriesId = myInsertSeriesStatement.executeInsert();
+				myIdBySeries.put(seriesInfo.Name, seriesId);
+				mySeriesById.put(seriesId, seriesInfo.Name);
 			}
 			myInsertBookSeriesStatement.bindLong(1, bookId);
 			myInsertBookSeriesStatement.bindLong(2, seriesId);
@@ -465,7 +495,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		}
 	}
 
-	protected SeriesInfo loadSeriesInfo(long bookId) {
+	protected synchronized SeriesInfo loadSeriesInfo(long bookId) {
 		final Cursor cursor = myDatabase.rawQuery("SELECT Series.name,BookSeries.book_index FROM BookSeries INNER JOIN Series ON Series.series_id = BookSeries.series_id WHERE BookSeries.book_id = ?", new String[] { "" + bookId });
 		SeriesInfo info = null;
 		if (cursor.moveToNext()) {
@@ -476,7 +506,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	private SQLiteStatement myRemoveFileInfoStatement;
-	protected void removeFileInfo(long fileId) {
+	protected synchronized void removeFileInfo(long fileId) {
 		if (fileId == -1) {
 			return;
 		}
@@ -491,20 +521,20 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 
 	private SQLiteStatement myInsertFileInfoStatement;
 	private SQLiteStatement myUpdateFileInfoStatement;
-	protected void saveFileInfo(FileInfo fileInfo) {
+	protected synchronized void saveFileInfo(FileInfo fileInfo) {
 		final long id = fileInfo.Id;
 		SQLiteStatement statement;
 		if (id == -1) {
 			if (myInsertFileInfoStatement == null) {
 				myInsertFileInfoStatement = myDatabase.compileStatement(
-					"INSERT OR REPLACE INTO Files (name,parent_id,size) VALUES (?,?,?)"
+					"INSERT OR REPLACE INTO Files (name,parent_id,size,modification_time) VALUES (?,?,?,?)"
 				);
 			}
 			statement = myInsertFileInfoStatement;
 		} else {
 			if (myUpdateFileInfoStatement == null) {
 				myUpdateFileInfoStatement = myDatabase.compileStatement(
-					"UPDATE Files SET name = ?, parent_id = ?, size = ? WHERE file_id = ?"
+					"UPDATE Files SET name = ?, parent_id = ?, size = ?, modification_time = ? WHERE file_id = ?"
 				);
 			}
 			statement = myUpdateFileInfoStatement;
@@ -522,17 +552,23 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		} else {
 			statement.bindNull(3);
 		}
+		final long modificationTime = fileInfo.ModificationTime;
+		if (modificationTime != -1) {
+			statement.bindLong(4, modificationTime);
+		} else {
+			statement.bindNull(4);
+		}
 		if (id == -1) {
 			fileInfo.Id = statement.executeInsert();
 		} else {
-			statement.bindLong(4, id);
+			statement.bindLong(5, id);
 			statement.execute();
 		}
 	}
 
-	protected Collection<FileInfo> loadFileInfos() {
+	protected synchronized Collection<FileInfo> loadFileInfos() {
 		Cursor cursor = myDatabase.rawQuery(
-			"SELECT file_id,name,parent_id,size FROM Files", null
+			"SELECT file_id,name,parent_id,size,modification_time FROM Files", null
 		);
 		HashMap<Long,FileInfo> infosById = new HashMap<Long,FileInfo>(cursor.getCount());
 		while (cursor.moveToNext()) {
@@ -544,13 +580,16 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 			if (!cursor.isNull(3)) {
 				info.FileSize = cursor.getLong(3);
 			}
+			if (!cursor.isNull(4)) {
+				info.ModificationTime = cursor.getLong(4);
+			}
 			infosById.put(id, info);
 		}
 		cursor.close();
 		return infosById.values();
 	}
 
-	protected Collection<FileInfo> loadFileInfos(ZLFile file) {
+	protected synchronized Collection<FileInfo> loadFileInfos(ZLFile file) {
 		final LinkedList<ZLFile> fileStack = new LinkedList<ZLFile>();
 		for (; file != null; file = file.getParent()) {
 			fileStack.addFirst(file);
@@ -563,8 +602,8 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 			parameters[0] = f.getName(false);
 			final Cursor cursor = myDatabase.rawQuery(
 				(current == null) ?
-					"SELECT file_id,size FROM Files WHERE name = ?" :
-					"SELECT file_id,size FROM Files WHERE parent_id = " + current.Id + " AND name = ?",
+					"SELECT file_id,size,modification_time FROM Files WHERE name = ?" :
+					"SELECT file_id,size,modification_time FROM Files WHERE parent_id = " + current.Id + " AND name = ?",
 				parameters
 			);
 			if (cursor.moveToNext()) {
@@ -572,6 +611,9 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 				if (!cursor.isNull(1)) {
 					current.FileSize = cursor.getLong(1);
 				}
+				if (!cursor.isNull(2)) {
+					current.ModificationTime = cursor.getLong(2);
+				}
 				infos.add(current);
 				cursor.close();
 			} else {
@@ -583,17 +625,20 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		return infos;
 	}
 
-	protected Collection<FileInfo> loadFileInfos(long fileId) {
+	protected synchronized Collection<FileInfo> loadFileInfos(long fileId) {
 		final ArrayList<FileInfo> infos = new ArrayList<FileInfo>();
 		while (fileId != -1) {
 			final Cursor cursor = myDatabase.rawQuery(
-				"SELECT name,size,parent_id FROM Files WHERE file_id = " + fileId, null
+				"SELECT name,size,parent_id,modification_time FROM Files WHERE file_id = " + fileId, null
 			);
 			if (cursor.moveToNext()) {
 				FileInfo info = createFileInfo(fileId, cursor.getString(0), null);
 				if (!cursor.isNull(1)) {
 					info.FileSize = cursor.getLong(1);
 				}
+				if (!cursor.isNull(3)) {
+					info.ModificationTime = cursor.getLong(3);
+				}
 				infos.add(0, info);
 				fileId = cursor.isNull(2) ? -1 : cursor.getLong(2);
 			} else {
@@ -605,13 +650,14 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 			final FileInfo oldInfo = infos.get(i);
 			final FileInfo newInfo = createFileInfo(oldInfo.Id, oldInfo.Name, infos.get(i - 1));
 			newInfo.FileSize = oldInfo.FileSize;
+			newInfo.ModificationTime = oldInfo.ModificationTime;
 			infos.set(i, newInfo);
 		}
 		return infos;
 	}
 
 	private SQLiteStatement mySaveRecentBookStatement;
-	protected void saveRecentBookIds(final List<Long> ids) {
+	protected synchronized void saveRecentBookIds(final List<Long> ids) {
 		if (mySaveRecentBookStatement == null) {
 			mySaveRecentBookStatement = myDatabase.compileStatement(
 				"INSERT INTO RecentBooks (book_id) VALUES (?)"
@@ -628,7 +674,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		});
 	}
 
-	protected List<Long> listRecentBookIds() {
+	protected synchronized List<Long> listRecentBookIds() {
 		final Cursor cursor = myDatabase.rawQuery(
 			"SELECT book_id FROM RecentBooks ORDER BY book_index", null
 		);
@@ -640,7 +686,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		return ids;
 	}
 
-	protected List<Bookmark> listBookmarks(long bookId) {
+	protected synchronized List<Bookmark> listBookmarks(long bookId) {
 		LinkedList<Bookmark> list = new LinkedList<Bookmark>();
 		Cursor cursor = myDatabase.rawQuery(
 			"SELECT Bookmarks.bookmark_id,Bookmarks.book_id,Books.title,Bookmarks.bookmark_text,Bookmarks.creation_time,Bookmarks.modification_time,Bookmarks.access_time,Bookmarks.access_counter,Bookmarks.model_id,Bookmarks.paragraph,Bookmarks.word,Bookmarks.char FROM Bookmarks INNER JOIN Books ON Books.book_id = Bookmarks.book_id WHERE book_id = ?", new String[] { "" + bookId }
@@ -665,7 +711,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		return list;
 	}
 
-	protected List<Bookmark> listAllBookmarks() {
+	protected synchronized List<Bookmark> listAllBookmarks() {
 		LinkedList<Bookmark> list = new LinkedList<Bookmark>();
 		myDatabase.execSQL("DELETE FROM Bookmarks WHERE book_id = -1");
 		Cursor cursor = myDatabase.rawQuery(
@@ -693,7 +739,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 
 	private SQLiteStatement myInsertBookmarkStatement;
 	private SQLiteStatement myUpdateBookmarkStatement;
-	protected long saveBookmark(Bookmark bookmark) {
+	protected synchronized long saveBookmark(Bookmark bookmark) {
 		SQLiteStatement statement;
 		if (bookmark.getId() == -1) {
 			if (myInsertBookmarkStatement == null) {
@@ -733,7 +779,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	private SQLiteStatement myDeleteBookmarkStatement;
-	protected void deleteBookmark(Bookmark bookmark) {
+	protected synchronized void deleteBookmark(Bookmark bookmark) {
 		if (myDeleteBookmarkStatement == null) {
 			myDeleteBookmarkStatement = myDatabase.compileStatement(
 				"DELETE FROM Bookmarks WHERE bookmark_id = ?"
@@ -743,7 +789,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 		myDeleteBookmarkStatement.execute();
 	}
 
-	protected ZLTextPosition getStoredPosition(long bookId) {
+	protected synchronized ZLTextPosition getStoredPosition(long bookId) {
 		ZLTextPosition position = null;
 		Cursor cursor = myDatabase.rawQuery(
 			"SELECT paragraph,word,char FROM BookState WHERE book_id = " + bookId, null
@@ -760,7 +806,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	private SQLiteStatement myStorePositionStatement;
-	protected void storePosition(long bookId, ZLTextPosition position) {
+	protected synchronized void storePosition(long bookId, ZLTextPosition position) {
 		if (myStorePositionStatement == null) {
 			myStorePositionStatement = myDatabase.compileStatement(
 				"INSERT OR REPLACE INTO BookState (book_id,paragraph,word,char) VALUES (?,?,?,?)"
@@ -774,7 +820,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	private SQLiteStatement myInsertIntoBookListStatement;
-	protected boolean insertIntoBookList(long bookId) {
+	protected synchronized boolean insertIntoBookList(long bookId) {
 		if (myInsertIntoBookListStatement == null) {
 			myInsertIntoBookListStatement = myDatabase.compileStatement(
 				"INSERT OR IGNORE INTO BookList(book_id) VALUES (?)"
@@ -786,7 +832,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	private SQLiteStatement myDeleteFromBookListStatement;
-	protected boolean deleteFromBookList(long bookId) {
+	protected synchronized boolean deleteFromBookList(long bookId) {
 		if (myDeleteFromBookListStatement == null) {
 			myDeleteFromBookListStatement = myDatabase.compileStatement(
 				"DELETE FROM BookList WHERE book_id = ?"
@@ -798,7 +844,7 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	}
 
 	private SQLiteStatement myCheckBookListStatement;
-	protected boolean checkBookList(long bookId) {
+	protected synchronized boolean checkBookList(long bookId) {
 		if (myCheckBookListStatement == null) {
 			myCheckBookListStatement = myDatabase.compileStatement(
 				"SELECT COUNT(*) FROM BookList WHERE book_id = ?"
@@ -1065,4 +1111,8 @@ final class SQLiteBooksDatabase extends BooksDatabase {
 	private void updateTables9() {
 		myDatabase.execSQL("CREATE INDEX BookList_BookIndex ON BookList (book_id)");
 	}
+
+	private void updateTables10() {
+		myDatabase.execSQL("ALTER TABLE Files ADD COLUMN modification_time INTEGER");
+	}
 }
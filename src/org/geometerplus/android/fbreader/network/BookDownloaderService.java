@@ -21,7 +21,6 @@ package org.geometerplus.android.fbreader.network;
 
 import java.util.*;
 import java.io.*;
-import java.net.URLConnection;
 
 import android.os.IBinder;
 import android.os.Handler;
@@ -284,62 +283,34 @@ public class BookDownloaderService extends Service {
 			}
 		};
 
-		final ZLNetworkRequest request = new ZLNetworkRequest(urlString, sslCertificate) {
+		final ZLNetworkDownload download = new ZLNetworkDownload(urlString, sslCertificate, file, new ZLNetworkDownload.Listener() {
+			private final int myUpdateIntervalMillis = 1000; // FIXME: remove hardcoded time constant
+			private long myProgressTime;
+			private boolean myIsIndeterminate;
 
-			public String handleStream(URLConnection connection, InputStream inputStream) throws IOException {
-				final int updateIntervalMillis = 1000; // FIXME: remove hardcoded time constant
-
-				final int fileLength = connection.getContentLength();
-				int downloadedPart = 0;
-				long progressTime = System.currentTimeMillis() + updateIntervalMillis;
-				if (fileLength <= 0) {
-					progressHandler.sendEmptyMessage(-1);
-				}
-				OutputStream outStream;
-				try {
-					outStream = new FileOutputStream(file);
-				} catch (FileNotFoundException ex) {
-					return ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_CREATE_FILE, file.getPath());
-				}
-				try {
-					final byte[] buffer = new byte[8192];
-					while (true) {
-						final int size = inputStream.read(buffer);
-						if (size <= 0) {
-							break;
-						}
-						downloadedPart += size;
-						if (fileLength > 0) {
-							final long currentTime = System.currentTimeMillis();
-							if (currentTime > progressTime) {
-								progressTime = currentTime + updateIntervalMillis;
-								progressHandler.sendEmptyMessage(downloadedPart * 100 / fileLength);
-							}
-							/*if (downloadedPart * 100 / fileLength > 95) {
-								throw new IOException("debug exception");
-							}*/
-						}
-						outStream.write(buffer, 0, size);
-						/*try {
-							Thread.currentThread().sleep(200);
-						} catch (InterruptedException ex) {
-						}*/
+			public synchronized void onProgress(long downloaded, long total) {
+				if (total <= 0) {
+					if (!myIsIndeterminate) {
+						myIsIndeterminate = true;
+						progressHandler.sendEmptyMessage(-1);
 					}
-				} finally {
-					outStream.close();
+					return;
+				}
+				final long currentTime = System.currentTimeMillis();
+				if (currentTime > myProgressTime) {
+					myProgressTime = currentTime + myUpdateIntervalMillis;
+					progressHandler.sendEmptyMessage((int)(downloaded * 100 / total));
 				}
-				return null;
 			}
-		};
+		});
+		download.SegmentsNumber = 2;
 
 		final Thread downloader = new Thread(new Runnable() {
 			public void run() {
-				final String err = ZLNetworkManager.Instance().perform(request);
+				// an unfinished download is kept and resumed next time
+				final String err = download.run();
 				// TODO: show error message to User
 				final boolean success = (err == null);
-				if (!success) {
-					file.delete();
-				}
 				downloadFinishHandler.sendEmptyMessage(success ? 1 : 0);
 			}
 		});
@@ -19,8 +19,10 @@
 
 package org.geometerplus.fbreader.bookmodel;
 
+import java.io.*;
 import java.util.*;
 
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.image.*;
 
 import org.geometerplus.zlibrary.text.model.*;
@@ -35,24 +37,46 @@ public final class BookModel {
 		if (plugin == null) {
 			return null;
 		}
-		BookModel model = new BookModel(book);
+		final BookModelCache cache = BookModelCache.forBook(book);
+		if (cache != null) {
+			final BookModel cached = cache.load();
+			if (cached != null) {
+				cached.startSearchIndexing(cache.Directory);
+				return cached;
+			}
+		}
+		BookModel model = new BookModel(book, (cache != null) ? cache.Directory : Paths.cacheDirectory());
 		//android.os.Debug.startMethodTracing("bookReadingLT", 1 << 25);
 		//final boolean code = plugin.readModel(model);
 		//android.os.Debug.stopMethodTracing();
 		//if (code) {
 		if (plugin.readModel(model)) {
+			if (cache != null && model.isCacheable()) {
+				cache.store(model);
+			}
+			model.startSearchIndexing((cache != null) ? cache.Directory : null);
 			return model;
 		}
 		return null;
 	}
 
+	/*
+	 * Returns the directory the model of the book is cached in, or null if
+	 * the book cannot be cached; the directory may not exist yet.
+	 */
+	public static String cacheDirectoryForBook(Book book) {
+		final BookModelCache cache = BookModelCache.forBook(book);
+		return (cache != null) ? cache.Directory : null;
+	}
+
 	private final ZLImageMap myImageMap = new ZLImageMap(); 
 	
 	public final Book Book;
 	public final ZLTextModel BookTextModel;
 	public final TOCTree TOCTree = new TOCTree();
 
-	private final HashMap<String,ZLTextModel> myFootnotes = new HashMap<String,ZLTextModel>();
+	private final String myCacheDirectory;
+	private final LinkedHashMap<String,ZLTextModel> myFootnotes = new LinkedHashMap<String,ZLTextModel>();
 
 	public static final class Label {
 		public final String ModelId;
@@ -68,27 +92,385 @@ public final class BookModel {
 	//	return Constants.CACHE_DIRECTORY + "/links" + index + ".cache";
 	//}
 
-	private BookModel(Book book) {
+	private BookModel(Book book, String cacheDirectory) {
 		Book = book;
-		BookTextModel = new ZLTextWritablePlainModel(null, book.getLanguage(), 1024, 65536, Paths.cacheDirectory(), "cache", myImageMap);
+		myCacheDirectory = cacheDirectory;
+		BookTextModel = new ZLTextWritablePlainModel(null, book.getLanguage(), 1024, 65536, cacheDirectory, "cache", myImageMap);
+		myInternalHyperlinks = new MappedCharStorage(32768, cacheDirectory, "links");
 		//for (int i = 0; i < 50; ++i) {
 		//	new File(linksFileName(i)).delete();
 		//}
 	}
 
+	BookModel(Book book, String cacheDirectory, DataInputStream stream) throws IOException {
+		Book = book;
+		myCacheDirectory = cacheDirectory;
+		ZLTextPlainModel textModel = null;
+		CharStorage hyperlinks = null;
+		try {
+			textModel = new ZLTextPlainModel(stream, 65536, cacheDirectory, "cache", myImageMap);
+			BookTextModel = textModel;
+			final int footnotesNumber = stream.readInt();
+			for (int i = 0; i < footnotesNumber; ++i) {
+				final ZLTextModel model = new ZLTextPlainModel(stream, 512, cacheDirectory, "cache" + i, myImageMap);
+				myFootnotes.put(model.getId(), model);
+			}
+			readTOC(stream, TOCTree);
+			hyperlinks = MappedCharStorage.open(32768, cacheDirectory, "links");
+			myInternalHyperlinks = hyperlinks;
+			readLabelIndex(stream);
+			readImages(stream);
+		} catch (IOException e) {
+			closeStorages(textModel, hyperlinks);
+			throw e;
+		} catch (RuntimeException e) {
+			closeStorages(textModel, hyperlinks);
+			throw e;
+		}
+	}
+
+	// releases files opened by a partially read model
+	private void closeStorages(ZLTextPlainModel textModel, CharStorage hyperlinks) {
+		if (textModel != null) {
+			textModel.close();
+		}
+		for (ZLTextModel model : myFootnotes.values()) {
+			((ZLTextPlainModel)model).close();
+		}
+		if (hyperlinks != null) {
+			hyperlinks.clear();
+		}
+	}
+
+	/*
+	 * Only ZLSingleImage objects can be written to the cache; a model with
+	 * any other images would be restored without them.
+	 */
+	boolean isCacheable() {
+		for (ZLImage image : myImageMap.values()) {
+			if (!(image instanceof ZLSingleImage)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void writeTo(DataOutputStream stream) throws IOException {
+		((ZLTextPlainModel)BookTextModel).writeIndex(stream);
+		stream.writeInt(myFootnotes.size());
+		for (ZLTextModel model : myFootnotes.values()) {
+			((ZLTextPlainModel)model).writeIndex(stream);
+		}
+		writeTOC(stream, TOCTree);
+		myInternalHyperlinks.freezeLastBlock();
+		writeLabelIndex(stream);
+		writeImages(stream);
+	}
+
+	private void readTOC(DataInputStream stream, TOCTree tree) throws IOException {
+		tree.setText(readString(stream));
+		final int paragraphIndex = stream.readInt();
+		if (paragraphIndex != -1) {
+			final String modelId = readString(stream);
+			final ZLTextModel model = (modelId != null) ? myFootnotes.get(modelId) : BookTextModel;
+			if (model == null) {
+				throw new IOException("Unknown model in TOC: " + modelId);
+			}
+			tree.setReference(model, paragraphIndex);
+		}
+		final int subTreesNumber = stream.readInt();
+		for (int i = 0; i < subTreesNumber; ++i) {
+			readTOC(stream, new TOCTree(tree));
+		}
+	}
+
+	private void writeTOC(DataOutputStream stream, TOCTree tree) throws IOException {
+		writeString(stream, tree.getText());
+		final TOCTree.Reference reference = tree.getReference();
+		if (reference != null) {
+			stream.writeInt(reference.ParagraphIndex);
+			writeString(stream, reference.Model.getId());
+		} else {
+			stream.writeInt(-1);
+		}
+		final List<TOCTree> subTrees = tree.subTrees();
+		stream.writeInt(subTrees.size());
+		for (TOCTree subTree : subTrees) {
+			writeTOC(stream, subTree);
+		}
+	}
+
+	private void readImages(DataInputStream stream) throws IOException {
+		final ZLFile imagesFile = ZLFile.createFileByPath(myCacheDirectory + "/images");
+		final int imagesNumber = stream.readInt();
+		for (int i = 0; i < imagesNumber; ++i) {
+			final String id = stream.readUTF();
+			final String mimeType = readString(stream);
+			final ZLFile file = stream.readBoolean() ? ZLFile.createFileByPath(stream.readUTF()) : imagesFile;
+			final int offset = stream.readInt();
+			final int length = stream.readInt();
+			myImageMap.put(id, new ZLFileImage(mimeType, file, offset, length));
+		}
+	}
+
+	/*
+	 * File images are stored as references to the book file;
+	 * any other images are decoded once into the 'images' file of the cache.
+	 */
+	private void writeImages(DataOutputStream stream) throws IOException {
+		if (!isCacheable()) {
+			throw new IOException("Model contains images that cannot be cached");
+		}
+		stream.writeInt(myImageMap.size());
+
+		final OutputStream imagesStream = new FileOutputStream(myCacheDirectory + "/images");
+		try {
+			int imagesOffset = 0;
+			for (Map.Entry<String,ZLImage> entry : myImageMap.entrySet()) {
+				final ZLImage image = entry.getValue();
+				stream.writeUTF(entry.getKey());
+				writeString(stream, ((ZLSingleImage)image).mimeType());
+				if (image instanceof ZLFileImage) {
+					final ZLFileImage fileImage = (ZLFileImage)image;
+					stream.writeBoolean(true);
+					stream.writeUTF(fileImage.getFile().getPath());
+					stream.writeInt(fileImage.getOffset());
+					stream.writeInt(fileImage.getLength());
+				} else {
+					final byte[] data = ((ZLSingleImage)image).byteData();
+					if (data == null) {
+						throw new IOException("Cannot read image " + entry.getKey());
+					}
+					imagesStream.write(data);
+					stream.writeBoolean(false);
+					stream.writeInt(imagesOffset);
+					stream.writeInt(data.length);
+					imagesOffset += data.length;
+				}
+			}
+		} finally {
+			imagesStream.close();
+		}
+	}
+
+	private static String readString(DataInputStream stream) throws IOException {
+		return stream.readBoolean() ? stream.readUTF() : null;
+	}
+
+	private static void writeString(DataOutputStream stream, String str) throws IOException {
+		stream.writeBoolean(str != null);
+		if (str != null) {
+			stream.writeUTF(str);
+		}
+	}
+
+	/*
+	 * Loads or builds the search index of the book text on a background thread;
+	 * until it is ready, search scans every paragraph. The index is stored
+	 * in the model cache directory, if there is one for this book.
+	 */
+	private final class SearchIndexer extends Thread {
+		private final ZLTextPlainModel myTextModel;
+		private final File myFile;
+		private volatile boolean myIsCancelled;
+
+		SearchIndexer(ZLTextPlainModel textModel, File file) {
+			super("BookModel.SearchIndexer");
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+			myTextModel = textModel;
+			myFile = file;
+		}
+
+		void cancel() {
+			myIsCancelled = true;
+		}
+
+		public void run() {
+			ZLTextSearchIndex index = (myFile != null) ? loadSearchIndex(myFile, myTextModel) : null;
+			if (index == null) {
+				final ZLTextSearchIndex.Builder builder = new ZLTextSearchIndex.Builder(myTextModel);
+				while (!builder.isComplete()) {
+					if (myIsCancelled) {
+						return;
+					}
+					builder.addNextParagraph();
+				}
+				index = builder.build();
+				if (myFile != null && !myIsCancelled) {
+					saveSearchIndex(myFile, index);
+				}
+			}
+			if (!myIsCancelled) {
+				myTextModel.setSearchIndex(index);
+			}
+		}
+	}
+
+	private SearchIndexer mySearchIndexer;
+
+	private synchronized void startSearchIndexing(String directory) {
+		if (mySearchIndexer != null || !(BookTextModel instanceof ZLTextPlainModel)) {
+			return;
+		}
+		mySearchIndexer = new SearchIndexer(
+			(ZLTextPlainModel)BookTextModel,
+			(directory != null) ? new File(directory, "search") : null
+		);
+		mySearchIndexer.start();
+	}
+
+	/*
+	 * Stops building the search index; called when the model is no longer used.
+	 */
+	public synchronized void stopSearchIndexing() {
+		if (mySearchIndexer != null) {
+			mySearchIndexer.cancel();
+		}
+	}
+
+	private static ZLTextSearchIndex loadSearchIndex(File file, ZLTextModel model) {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			final DataInputStream stream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file))
+			);
+			try {
+				return ZLTextSearchIndex.read(stream, model);
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static void saveSearchIndex(File file, ZLTextSearchIndex index) {
+		try {
+			final DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file))
+			);
+			try {
+				index.write(stream);
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			file.delete();
+		}
+	}
+
+	public String getCacheDirectory() {
+		return myCacheDirectory;
+	}
+
 	public ZLTextModel getFootnoteModel(String id) {
 		ZLTextModel model = myFootnotes.get(id);
 		if (model == null) {
-			model = new ZLTextWritablePlainModel(id, Book.getLanguage(), 8, 512, Paths.cacheDirectory(), "cache" + myFootnotes.size(), myImageMap); 
+			model = new ZLTextWritablePlainModel(id, Book.getLanguage(), 8, 512, myCacheDirectory, "cache" + myFootnotes.size(), myImageMap); 
 			myFootnotes.put(id, model); 
 		}
 		return model;
 	}
 	
-	private final CharStorage myInternalHyperlinks = new CachedCharStorage(32768, Paths.cacheDirectory(), "links");
+	private final CharStorage myInternalHyperlinks;
 	private char[] myCurrentLinkBlock;
 	private int myCurrentLinkBlockOffset;
 
+	/*
+	 * Open addressing index of hyperlink labels: label hash code ->
+	 * (block + 1, offset) of the label record in myInternalHyperlinks;
+	 * block value 0 marks an empty slot.
+	 */
+	private int[] myLabelHashes = new int[64];
+	private int[] myLabelBlocks = new int[64];
+	private int[] myLabelOffsets = new int[64];
+	private int myLabelsNumber;
+
+	private static int labelSlot(int hash, int mask) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	private static boolean labelEquals(char[] block, int offset, String id) {
+		final int len = id.length();
+		if (block[offset] != len) {
+			return false;
+		}
+		++offset;
+		for (int i = 0; i < len; ++i) {
+			if (block[offset + i] != id.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Returns the slot of the label, or the empty slot where it would be inserted.
+	 */
+	private int findLabelSlot(String id, int hash) {
+		final int mask = myLabelBlocks.length - 1;
+		for (int slot = labelSlot(hash, mask); ; slot = (slot + 1) & mask) {
+			final int block = myLabelBlocks[slot];
+			if ((block == 0) ||
+				((myLabelHashes[slot] == hash) &&
+				 labelEquals(myInternalHyperlinks.block(block - 1), myLabelOffsets[slot], id))) {
+				return slot;
+			}
+		}
+	}
+
+	private void growLabelIndex() {
+		final int[] hashes = myLabelHashes;
+		final int[] blocks = myLabelBlocks;
+		final int[] offsets = myLabelOffsets;
+		final int capacity = 2 * blocks.length;
+		final int mask = capacity - 1;
+		myLabelHashes = new int[capacity];
+		myLabelBlocks = new int[capacity];
+		myLabelOffsets = new int[capacity];
+		for (int i = 0; i < blocks.length; ++i) {
+			if (blocks[i] != 0) {
+				int slot = labelSlot(hashes[i], mask);
+				while (myLabelBlocks[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				myLabelHashes[slot] = hashes[i];
+				myLabelBlocks[slot] = blocks[i];
+				myLabelOffsets[slot] = offsets[i];
+			}
+		}
+	}
+
+	private void readLabelIndex(DataInputStream stream) throws IOException {
+		final int capacity = stream.readInt();
+		if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)) {
+			throw new IOException("Invalid label index capacity: " + capacity);
+		}
+		myLabelsNumber = stream.readInt();
+		myLabelHashes = new int[capacity];
+		myLabelBlocks = new int[capacity];
+		myLabelOffsets = new int[capacity];
+		for (int i = 0; i < capacity; ++i) {
+			myLabelHashes[i] = stream.readInt();
+			myLabelBlocks[i] = stream.readInt();
+			myLabelOffsets[i] = stream.readInt();
+		}
+	}
+
+	private void writeLabelIndex(DataOutputStream stream) throws IOException {
+		final int capacity = myLabelBlocks.length;
+		stream.writeInt(capacity);
+		stream.writeInt(myLabelsNumber);
+		for (int i = 0; i < capacity; ++i) {
+			stream.writeInt(myLabelHashes[i]);
+			stream.writeInt(myLabelBlocks[i]);
+			stream.writeInt(myLabelOffsets[i]);
+		}
+	}
+
 	void addHyperlinkLabel(String label, ZLTextModel model, int paragraphNumber) {
 		final String modelId = model.getId();
 		final int labelLength = label.length();
@@ -125,6 +507,7 @@ public final class BookModel {
 			myCurrentLinkBlock = block;
 			offset = 0;
 		}
+		final int recordOffset = offset;
 		block[offset++] = (char)labelLength;
 		label.getChars(0, labelLength, block, offset);
 		offset += labelLength;
@@ -136,64 +519,35 @@ public final class BookModel {
 		block[offset++] = (char)(paragraphNumber >> 16);
 		block[offset++] = (char)paragraphNumber;
 		myCurrentLinkBlockOffset = offset;
-	}
 
-	public Label getLabel(String id) {
-		final int len = id.length();
-		final int size = myInternalHyperlinks.size();
-		/*
-		try {
-			final File file = new File(linksFileName(id.hashCode() % 50));
-			if (!file.exists()) {
-				return null;
-			}
-			final char[] block = new char[(int)file.length()];
-			final InputStreamReader reader =
-				new InputStreamReader(
-					new FileInputStream(file),
-					"UTF-16LE"
-				);
-			reader.read(block);
-			reader.close();
-			for (int offset = 0; offset < block.length; ) {
-				final int labelLength = (int)block[offset++];
-				if (labelLength == 0) {
-					break;
-				}
-				final int idLength = (int)block[offset + labelLength];
-				if ((labelLength != len) || !id.equals(new String(block, offset, labelLength))) {
-					offset += labelLength + idLength + 3;
-					continue;
-				}
-				offset += labelLength + 1;
-				final String modelId = (idLength > 0) ? new String(block, offset, idLength) : null;
-				offset += idLength;
-				final int paragraphNumber = (((int)block[offset++]) << 16) + (int)block[offset];
-				return new Label(modelId, paragraphNumber);
+		// the first record of a label wins, as in a sequential scan
+		final int hash = label.hashCode();
+		final int slot = findLabelSlot(label, hash);
+		if (myLabelBlocks[slot] == 0) {
+			myLabelHashes[slot] = hash;
+			myLabelBlocks[slot] = myInternalHyperlinks.size();
+			myLabelOffsets[slot] = recordOffset;
+			if (2 * ++myLabelsNumber > myLabelBlocks.length) {
+				growLabelIndex();
 			}
-		} catch (IOException e) {
 		}
-		*/
-		for (int i = 0; i < size; ++i) {
-			final char[] block = myInternalHyperlinks.block(i);
-			for (int offset = 0; offset < block.length; ) {
-				final int labelLength = (int)block[offset++];
-				if (labelLength == 0) {
-					break;
-				}
-				final int idLength = (int)block[offset + labelLength];
-				if ((labelLength != len) || !id.equals(new String(block, offset, labelLength))) {
-					offset += labelLength + idLength + 3;
-					continue;
-				}
-				offset += labelLength + 1;
-				final String modelId = (idLength > 0) ? new String(block, offset, idLength) : null;
-				offset += idLength;
-				final int paragraphNumber = (((int)block[offset++]) << 16) + (int)block[offset];
-				return new Label(modelId, paragraphNumber);
-			}
+	}
+
+	public Label getLabel(String id) {
+		final int slot = findLabelSlot(id, id.hashCode());
+		final int blockIndex = myLabelBlocks[slot];
+		if (blockIndex == 0) {
+			return null;
 		}
-		return null;
+		final char[] block = myInternalHyperlinks.block(blockIndex - 1);
+		int offset = myLabelOffsets[slot];
+		final int labelLength = (int)block[offset++];
+		offset += labelLength;
+		final int idLength = (int)block[offset++];
+		final String modelId = (idLength > 0) ? new String(block, offset, idLength) : null;
+		offset += idLength;
+		final int paragraphNumber = (((int)block[offset++]) << 16) + (int)block[offset];
+		return new Label(modelId, paragraphNumber);
 	}
 	
 	void addImage(String id, ZLImage image) {
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.fbreader.bookmodel;
+
+import java.io.*;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.filesystem.*;
+import org.geometerplus.zlibrary.core.options.ZLIntegerRangeOption;
+
+import org.geometerplus.fbreader.library.Book;
+import org.geometerplus.fbreader.Paths;
+
+/*
+ * Keeps parsed models in <cache>/models/<key>/: text blocks and hyperlink
+ * labels in MappedCharStorage files, everything else in the 'model' file,
+ * which is written last and marks the directory as complete.
+ */
+final class BookModelCache {
+	private static final int MAGIC = 0x464D4443;
+	private static final int VERSION = 2;
+
+	static final ZLIntegerRangeOption SizeLimitOption =
+		new ZLIntegerRangeOption("Cache", "ModelCacheSizeMB", 1, 1024, 64);
+
+	private static String modelsDirectory() {
+		return Paths.cacheDirectory() + "/models";
+	}
+
+	static BookModelCache forBook(Book book) {
+		final ZLPhysicalFile physicalFile = book.File.getPhysicalFile();
+		if ((physicalFile == null) || !physicalFile.exists()) {
+			return null;
+		}
+		return new BookModelCache(book, book.File.size(), physicalFile.lastModified());
+	}
+
+	private final Book myBook;
+	private final String myPath;
+	private final long mySize;
+	private final long myModificationTime;
+	final String Directory;
+
+	private BookModelCache(Book book, long size, long modificationTime) {
+		myBook = book;
+		myPath = book.File.getPath();
+		mySize = size;
+		myModificationTime = modificationTime;
+		final String key = myPath + ':' + size + ':' + modificationTime;
+		Directory = modelsDirectory() + '/' + Integer.toHexString(key.hashCode());
+	}
+
+	private File descriptor() {
+		return new File(Directory, "model");
+	}
+
+	BookModel load() {
+		final File descriptor = descriptor();
+		if (!descriptor.exists()) {
+			return null;
+		}
+		try {
+			final DataInputStream stream =
+				new DataInputStream(new BufferedInputStream(new FileInputStream(descriptor)));
+			try {
+				if ((stream.readInt() == MAGIC) &&
+					(stream.readInt() == VERSION) &&
+					myPath.equals(stream.readUTF()) &&
+					(stream.readLong() == mySize) &&
+					(stream.readLong() == myModificationTime)) {
+					final BookModel model = new BookModel(myBook, Directory, stream);
+					descriptor.setLastModified(System.currentTimeMillis());
+					return model;
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+		} catch (RuntimeException e) {
+		}
+		// stale or broken entry; the directory will be overwritten by the parser
+		descriptor.delete();
+		return null;
+	}
+
+	void store(BookModel model) {
+		final File descriptor = descriptor();
+		final File temporary = new File(Directory, "model.tmp");
+		try {
+			final DataOutputStream stream =
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				stream.writeInt(MAGIC);
+				stream.writeInt(VERSION);
+				stream.writeUTF(myPath);
+				stream.writeLong(mySize);
+				stream.writeLong(myModificationTime);
+				model.writeTo(stream);
+			} finally {
+				stream.close();
+			}
+			if (!temporary.renameTo(descriptor)) {
+				temporary.delete();
+			}
+		} catch (IOException e) {
+			temporary.delete();
+		} catch (RuntimeException e) {
+			temporary.delete();
+		}
+		evict();
+	}
+
+	private static long directorySize(File directory) {
+		long size = 0;
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				size += f.length();
+			}
+		}
+		return size;
+	}
+
+	private static void deleteDirectory(File directory) {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/*
+	 * Removes least recently opened models until the cache fits SizeLimitOption;
+	 * the model of this book is never removed.
+	 */
+	private void evict() {
+		final File[] directories = new File(modelsDirectory()).listFiles();
+		if (directories == null) {
+			return;
+		}
+		final HashMap<File,Long> accessTimes = new HashMap<File,Long>();
+		long totalSize = 0;
+		for (File d : directories) {
+			final File descriptor = new File(d, "model");
+			accessTimes.put(d, descriptor.exists() ? descriptor.lastModified() : d.lastModified());
+			totalSize += directorySize(d);
+		}
+		Arrays.sort(directories, new Comparator<File>() {
+			public int compare(File d0, File d1) {
+				final long t0 = accessTimes.get(d0);
+				final long t1 = accessTimes.get(d1);
+				return (t0 < t1) ? -1 : ((t0 == t1) ? 0 : 1);
+			}
+		});
+		final long limit = SizeLimitOption.getValue() * 1024L * 1024L;
+		final File current = new File(Directory);
+		for (File d : directories) {
+			if (totalSize <= limit) {
+				break;
+			}
+			if (d.equals(current)) {
+				continue;
+			}
+			totalSize -= directorySize(d);
+			deleteDirectory(d);
+		}
+	}
+}
@@ -62,10 +62,16 @@ public class BookReader {
 		myByteDecoder = decoder;
 	}
 	
+	private static final int MAX_RETAINED_TEXT_BUFFER_LENGTH = 65536;
+
 	private final void flushTextBufferToParagraph() {
 		if (myTextBufferLength > 0) {
 			myCurrentTextModel.addText(myTextBuffer, 0, myTextBufferLength);
 			myTextBufferLength = 0;
+			// a single huge paragraph should not keep its buffer for the whole book
+			if (myTextBuffer.length > MAX_RETAINED_TEXT_BUFFER_LENGTH) {
+				myTextBuffer = new char[4096];
+			}
 			if (myByteDecoder != null) {
 				myByteDecoder.reset();
 			}
@@ -199,9 +205,7 @@ public class BookReader {
 		} else {
 			final int oldLength = myTextBufferLength;
 			final int newLength = oldLength + length;
-			if (myTextBuffer.length < newLength) {
-				myTextBuffer = ZLArrayUtils.createCopy(myTextBuffer, oldLength, newLength);
-			}
+			myTextBuffer = ZLArrayUtils.ensureCapacity(myTextBuffer, oldLength, newLength);
 			System.arraycopy(data, offset, myTextBuffer, oldLength, length);
 			myTextBufferLength = newLength;
 			if (myInsideTitle) {
@@ -223,9 +227,7 @@ public class BookReader {
 		myTextParagraphIsNonEmpty = true;
 
 		final int oldLength = myTextBufferLength;
-		if (myTextBuffer.length < oldLength + length) {
-			myTextBuffer = ZLArrayUtils.createCopy(myTextBuffer, oldLength, oldLength + length);
-		}
+		myTextBuffer = ZLArrayUtils.ensureCapacity(myTextBuffer, oldLength, oldLength + length);
 		final CharBuffer cb = CharBuffer.wrap(myTextBuffer, myTextBufferLength, length);
 
 		if (myUnderflowLength > 0) {
@@ -218,6 +218,7 @@ public final class FBReader extends ZLApplication {
 
 			if (Model != null) {
 				Model.Book.storePosition(BookTextView.getStartCursor());
+				Model.stopSearchIndexing();
 			}
 			BookTextView.setModel(null);
 			FootnoteView.setModel(null);
@@ -25,6 +25,7 @@ import org.geometerplus.zlibrary.core.library.ZLibrary;
 import org.geometerplus.zlibrary.text.model.ZLTextModel;
 import org.geometerplus.zlibrary.text.view.*;
 
+import org.geometerplus.fbreader.bookmodel.BookModel;
 import org.geometerplus.fbreader.bookmodel.FBHyperlinkType;
 
 public final class FBView extends ZLTextView {
@@ -208,6 +209,12 @@ public final class FBView extends ZLTextView {
 		return false;
 	}
 
+	@Override
+	protected String getPaginationDirectory() {
+		final BookModel model = myReader.Model;
+		return (model != null) ? model.getCacheDirectory() : null;
+	}
+
 	@Override
 	public int getLeftMargin() {
 		return myReader.LeftMarginOption.getValue();
@@ -33,21 +33,17 @@ class ShowLibraryAction extends FBAction {
 	public void run() {
 		final ZLAndroidDialogManager dialogManager =
 			(ZLAndroidDialogManager)ZLAndroidDialogManager.Instance();
-		Runnable action = new Runnable() {
-			public void run() {
-				Library library = Library.Instance();
-				library.clear();
-				library.synchronize();
-				// TODO: select current book (author?)
-				/*
-				if (myBookModel != null) {
-					CollectionView.selectBook(myBookModel.Description);
-				}
-				*/
-				//setView(CollectionView);
-				dialogManager.runActivity(LibraryTabActivity.class);
-			}
-		};
-		dialogManager.wait("loadingBookList", action);
+		Library library = Library.Instance();
+		library.clear();
+		// does not wait: the library view is filled while the books are read
+		library.synchronize();
+		// TODO: select current book (author?)
+		/*
+		if (myBookModel != null) {
+			CollectionView.selectBook(myBookModel.Description);
+		}
+		*/
+		//setView(CollectionView);
+		dialogManager.runActivity(LibraryTabActivity.class);
 	}
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.formats.fb2;
+
+import java.io.IOException;
+
+import org.geometerplus.zlibrary.core.image.*;
+import org.geometerplus.zlibrary.core.util.ZLBase64Decoder;
+
+/*
+ * Decodes the content of a <binary> element as the parser delivers it;
+ * the decoded image goes to a ZLImageStore and is read back lazily,
+ * or is kept in memory if there is no store directory.
+ */
+final class Base64ImageDecoder {
+	final String Id;
+	private final String myMimeType;
+	private final ZLBase64Decoder myDecoder = new ZLBase64Decoder(8192);
+
+	Base64ImageDecoder(String id, String mimeType) {
+		Id = id;
+		myMimeType = mimeType;
+	}
+
+	void addData(char[] data, int offset, int length) {
+		myDecoder.decode(data, offset, length);
+	}
+
+	ZLImage close(String storeDirectory) {
+		final int length = myDecoder.finish();
+		if (length == 0) {
+			return null;
+		}
+		if (storeDirectory == null) {
+			final byte[] data = new byte[length];
+			System.arraycopy(myDecoder.data(), 0, data, 0, length);
+			return new ZLSingleImage(myMimeType) {
+				public byte[] byteData() {
+					return data;
+				}
+			};
+		}
+		try {
+			return ZLImageStore.forDirectory(storeDirectory).store(myMimeType, myDecoder.data(), length);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
@@ -30,14 +30,25 @@ import org.geometerplus.fbreader.constants.XMLNamespace;
 
 public class FB2CoverReader extends ZLXMLReaderAdapter {
 
+	private final String myStoreDirectory;
 	private boolean myReadCoverPage;
 	private String myImageReference;
-	private Base64EncodedImage myImage;
+	private Base64ImageDecoder myImageDecoder;
+	private ZLImage myImage;
 
 
+	/*
+	 * The cover is stored in storeDirectory; if it is null, the cover is kept in memory.
+	 */
+	public FB2CoverReader(String storeDirectory) {
+		myStoreDirectory = storeDirectory;
+	}
+
 	public ZLImage readCover(ZLFile file) {
 		myReadCoverPage = false;
 		myImageReference = null;
+		myImageDecoder = null;
+		myImage = null;
 		read(file);
 		return myImage;
 	}
@@ -83,8 +94,7 @@ public class FB2CoverReader extends ZLXMLReaderAdapter {
 				final String id = attributes.getValue("id");
 				final String contentType = attributes.getValue("content-type");
 				if (id != null && contentType != null && myImageReference.equals(id)) {
-					// FIXME: make different Base64EncodedImage constructor to use another cache for covers
-					myImage = new Base64EncodedImage((contentType != null) ? contentType : "image/auto");
+					myImageDecoder = new Base64ImageDecoder(id, contentType);
 				}
 			}
 			break;
@@ -104,8 +114,9 @@ public class FB2CoverReader extends ZLXMLReaderAdapter {
 			}
 			break;
 		case FB2Tag.BINARY:
-			if (myImage != null) {
-				myImage.close();
+			if (myImageDecoder != null) {
+				myImage = myImageDecoder.close(myStoreDirectory);
+				myImageDecoder = null;
 				return true;
 			}
 			break;
@@ -115,8 +126,8 @@ public class FB2CoverReader extends ZLXMLReaderAdapter {
 
 	@Override
 	public void characterDataHandler(char[] data, int start, int length) {
-		if (length > 0 && myImage != null) {
-			myImage.addData(data, start, length);
+		if (length > 0 && myImageDecoder != null) {
+			myImageDecoder.addData(data, start, length);
 		}
 	}
 }
@@ -43,6 +43,7 @@ public class FB2Plugin extends FormatPlugin {
 
 	@Override
 	public ZLImage readCover(Book book) {
-		return new FB2CoverReader().readCover(book.File);
+		// the cover shares the store of the model images and is evicted with them
+		return new FB2CoverReader(BookModel.cacheDirectoryForBook(book)).readCover(book.File);
 	}
 }
@@ -24,6 +24,7 @@ import java.util.*;
 import org.geometerplus.zlibrary.core.library.ZLibrary;
 import org.geometerplus.fbreader.bookmodel.*;
 import org.geometerplus.zlibrary.core.xml.*;
+import org.geometerplus.zlibrary.core.image.ZLImage;
 import org.geometerplus.zlibrary.core.util.*;
 import org.geometerplus.zlibrary.text.model.ZLTextParagraph;
 
@@ -37,7 +38,7 @@ public final class FB2Reader extends BookReader implements ZLXMLReader {
 	
 	private byte myHyperlinkType;
 	
-	private Base64EncodedImage myCurrentImage;
+	private Base64ImageDecoder myCurrentImage;
 	private boolean myInsideCoverpage = false;
 	private String myCoverImageReference;
 	private int myParagraphsBeforeBodyNumber = Integer.MAX_VALUE;
@@ -53,7 +54,6 @@ public final class FB2Reader extends BookReader implements ZLXMLReader {
 	}
 
 	boolean readBook() {
-		Base64EncodedImage.resetCounter();
 		return ZLXMLProcessor.read(this, Model.Book.File);
 	}
 
@@ -71,7 +71,7 @@ public final class FB2Reader extends BookReader implements ZLXMLReader {
 		if (length == 0) {
 			return;
 		}
-		final Base64EncodedImage image = myCurrentImage;
+		final Base64ImageDecoder image = myCurrentImage;
 		if (image != null) {
 			image.addData(ch, start, length);
 		} else {
@@ -83,7 +83,7 @@ public final class FB2Reader extends BookReader implements ZLXMLReader {
 		if (length == 0) {
 			return;
 		}
-		final Base64EncodedImage image = myCurrentImage;
+		final Base64ImageDecoder image = myCurrentImage;
 		if (image != null) {
 			image.addData(ch, start, length);
 		} else {
@@ -185,7 +185,10 @@ public final class FB2Reader extends BookReader implements ZLXMLReader {
 			
 			case FB2Tag.BINARY:
 				if (myCurrentImage != null) {
-					myCurrentImage.close();
+					final ZLImage image = myCurrentImage.close(Model.getCacheDirectory());
+					if (image != null) {
+						addImage(myCurrentImage.Id, image);
+					}
 					myCurrentImage = null;
 				}
 				break;	
@@ -372,8 +375,7 @@ public final class FB2Reader extends BookReader implements ZLXMLReader {
 				String contentType = attributes.getValue("content-type");
 				String imgId = attributes.getValue("id");
 				if ((contentType != null) && (id != null)) {
-					myCurrentImage = new Base64EncodedImage(contentType);
-					addImage(imgId, myCurrentImage);
+					myCurrentImage = new Base64ImageDecoder(imgId, contentType);
 				}
 				break;	
 				
@@ -40,14 +40,14 @@ public class DocCompressedFileImage extends ZLSingleImage {
 
 	public byte[] byteData() {
 		try {
-			final InputStream stream = myFile.getInputStream();
-			if (stream == null) {
-				return new byte[0];
-			}
-
-			stream.skip(myOffset);
+			final InputStream stream = myFile.getInputStream(myOffset);
+			final int size;
 			byte [] targetBuffer = new byte[65535];
-			final int size = DocDecompressor.decompress(stream, targetBuffer, myCompressedSize);
+			try {
+				size = DocDecompressor.decompress(stream, targetBuffer, myCompressedSize);
+			} finally {
+				stream.close();
+			}
 			if (size > 0 && size != 65535) {
 				byte [] buffer = new byte[size];
 				System.arraycopy(targetBuffer, 0, buffer, 0, size);
@@ -20,10 +20,10 @@
 package org.geometerplus.fbreader.formats.plucker;
 
 import java.io.IOException;
-import java.io.InputStream;
 
 import org.geometerplus.zlibrary.core.image.ZLSingleImage;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
 
 public class PluckerFileImage extends ZLSingleImage {
 	private final ZLFile myFile;
@@ -39,15 +39,9 @@ public class PluckerFileImage extends ZLSingleImage {
 
 	public byte[] byteData() {
 		try {
-			final InputStream stream = myFile.getInputStream();
-			if (stream == null) {
-				return new byte[0];
-			}
-
-			stream.skip(myOffset);
-			byte [] buffer = new byte[mySize];
-			stream.read(buffer, 0, mySize);
-			return buffer;
+			final byte[] buffer = new byte[mySize];
+			final int size = myFile.read(myOffset, buffer, 0, mySize);
+			return (size == mySize) ? buffer : ZLArrayUtils.createCopy(buffer, size, size);
 		} catch (IOException e) {}
 		
 		return new byte[0];
@@ -20,7 +20,6 @@
 package org.geometerplus.fbreader.formats.plucker;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -42,20 +41,14 @@ public class ZCompressedFileImage extends ZLSingleImage {
 
 	public byte[] byteData() {
 		try {
-			final InputStream stream = myFile.getInputStream();
-			if (stream == null) {
-				return new byte[0];
-			}
-			
 			final ArrayList<byte[]> data = new ArrayList<byte[]>();
 			byte[] buffer;
 			int sizeOfBufferData;
 
-			stream.skip(myOffset);
 			byte [] targetBuffer = new byte[myCompressedSize];
-			stream.read(targetBuffer, 0, myCompressedSize);
+			final int compressedSize = myFile.read(myOffset, targetBuffer, 0, myCompressedSize);
 			Inflater decompressor = new Inflater();
-			decompressor.setInput(targetBuffer, 0, myCompressedSize);
+			decompressor.setInput(targetBuffer, 0, compressedSize);
 			do {
 				buffer = new byte[4096];
 				sizeOfBufferData = decompressor.inflate(buffer);
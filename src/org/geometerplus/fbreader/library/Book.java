@@ -99,7 +99,14 @@ public class Book {
 	private List<Tag> myTags;
 	private SeriesInfo mySeriesInfo;
 
-	private boolean myIsSaved;
+	private static final int INFO_CHANGED = 1 << 0;
+	private static final int AUTHORS_CHANGED = 1 << 1;
+	private static final int TAGS_CHANGED = 1 << 2;
+	private static final int SERIES_CHANGED = 1 << 3;
+	private static final int ALL_CHANGED = INFO_CHANGED | AUTHORS_CHANGED | TAGS_CHANGED | SERIES_CHANGED;
+
+	// parts that differ from the database content
+	private int myChanges;
 
 	Book(long id, ZLFile file, String title, String encoding, String language) {
 		myId = id;
@@ -107,12 +114,12 @@ public class Book {
 		myTitle = title;
 		myEncoding = encoding;
 		myLanguage = language;
-		myIsSaved = true;
 	}
 
 	Book(ZLFile file) {
 		myId = -1;
 		File = file;
+		myChanges = ALL_CHANGED;
 	}
 
 	boolean readMetaInfo() {
@@ -137,7 +144,7 @@ public class Book {
 		myAuthors = database.loadAuthors(myId);
 		myTags = database.loadTags(myId);
 		mySeriesInfo = database.loadSeriesInfo(myId);
-		myIsSaved = true;
+		myChanges = 0;
 	}
 
 	public List<Author> authors() {
@@ -158,10 +165,10 @@ public class Book {
 		if (myAuthors == null) {
 			myAuthors = new ArrayList<Author>();
 			myAuthors.add(author);
-			myIsSaved = false;
+			myChanges |= AUTHORS_CHANGED;
 		} else if (!myAuthors.contains(author)) {
 			myAuthors.add(author);
-			myIsSaved = false;
+			myChanges |= AUTHORS_CHANGED;
 		}
 	}
 
@@ -205,7 +212,7 @@ public class Book {
 	public void setTitle(String title) {
 		if (!ZLMiscUtil.equals(myTitle, title)) {
 			myTitle = title;
-			myIsSaved = false;
+			myChanges |= INFO_CHANGED;
 		}
 	}
 
@@ -221,14 +228,14 @@ public class Book {
 		if (mySeriesInfo == null) {
 			if (name != null) {
 				mySeriesInfo = new SeriesInfo(name, index);
-				myIsSaved = false;
+				myChanges |= SERIES_CHANGED;
 			}
 		} else if (name == null) {
 			mySeriesInfo = null;
-			myIsSaved = false;
+			myChanges |= SERIES_CHANGED;
 		} else if (!mySeriesInfo.Name.equals(name) || (mySeriesInfo.Index != index)) {
 			mySeriesInfo = new SeriesInfo(name, index);
-			myIsSaved = false;
+			myChanges |= SERIES_CHANGED;
 		}
 	}
 
@@ -239,7 +246,7 @@ public class Book {
 	public void setLanguage(String language) {
 		if (!ZLMiscUtil.equals(myLanguage, language)) {
 			myLanguage = language;
-			myIsSaved = false;
+			myChanges |= INFO_CHANGED;
 		}
 	}
 
@@ -250,7 +257,7 @@ public class Book {
 	public void setEncoding(String encoding) {
 		if (!ZLMiscUtil.equals(myEncoding, encoding)) {
 			myEncoding = encoding;
-			myIsSaved = false;
+			myChanges |= INFO_CHANGED;
 		}
 	}
 
@@ -272,7 +279,7 @@ public class Book {
 			}
 			if (!myTags.contains(tag)) {
 				myTags.add(tag);
-				myIsSaved = false;
+				myChanges |= TAGS_CHANGED;
 			}
 		}
 	}
@@ -281,6 +288,45 @@ public class Book {
 		addTag(Tag.getTag(null, tagName));
 	}
 
+	/**
+	 * Writes changed parts of the book; must be called inside a transaction.
+	 * fileInfos may be null, then file infos are loaded for this book only.
+	 */
+	void saveWithNoTransaction(BooksDatabase database, FileInfoSet fileInfos) {
+		if (myChanges == 0) {
+			return;
+		}
+		if (fileInfos == null) {
+			fileInfos = new FileInfoSet(File);
+		}
+		if (myId >= 0) {
+			if ((myChanges & INFO_CHANGED) != 0) {
+				database.updateBookInfo(myId, fileInfos.getId(File), myEncoding, myLanguage, myTitle);
+			}
+		} else {
+			myId = database.insertBookInfo(fileInfos.getId(File), myEncoding, myLanguage, myTitle);
+			myChanges = ALL_CHANGED;
+		}
+
+		if ((myChanges & AUTHORS_CHANGED) != 0) {
+			long index = 0;
+			database.deleteAllBookAuthors(myId);
+			for (Author author : authors()) {
+				database.saveBookAuthorInfo(myId, index++, author);
+			}
+		}
+		if ((myChanges & TAGS_CHANGED) != 0) {
+			database.deleteAllBookTags(myId);
+			for (Tag tag : tags()) {
+				database.saveBookTagInfo(myId, tag);
+			}
+		}
+		if ((myChanges & SERIES_CHANGED) != 0) {
+			database.saveBookSeriesInfo(myId, mySeriesInfo);
+		}
+		myChanges = 0;
+	}
+
 	boolean matches(String pattern) {
 		if ((myTitle != null) && ZLMiscUtil.matchesIgnoreCase(myTitle, pattern)) {
 			return true;
@@ -306,33 +352,15 @@ public class Book {
 	}
 
 	public boolean save() {
-		if (myIsSaved) {
+		if (myChanges == 0) {
 			return false;
 		}
 		final BooksDatabase database = BooksDatabase.Instance();
 		database.executeAsATransaction(new Runnable() {
 			public void run() {
-				if (myId >= 0) {
-					final FileInfoSet fileInfos = new FileInfoSet(File);
-					database.updateBookInfo(myId, fileInfos.getId(File), myEncoding, myLanguage, myTitle);
-				} else {
-					myId = database.insertBookInfo(File, myEncoding, myLanguage, myTitle);
-				}
-            
-				long index = 0;
-				database.deleteAllBookAuthors(myId);
-				for (Author author : authors()) {
-					database.saveBookAuthorInfo(myId, index++, author);
-				}
-				database.deleteAllBookTags(myId);
-				for (Tag tag : tags()) {
-					database.saveBookTagInfo(myId, tag);
-				}
-				database.saveBookSeriesInfo(myId, mySeriesInfo);
+				saveWithNoTransaction(database, null);
 			}
 		});
-
-		myIsSaved = true;
 		return true;
 	}
 
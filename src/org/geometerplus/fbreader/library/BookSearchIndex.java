@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.library;
+
+import java.io.*;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.util.ZLCharacterUtil;
+
+/**
+ * Inverted index over words of book titles, series, authors and tags.
+ * It only narrows a library search down to candidate books; the pattern
+ * is then matched against the fields of these books.
+ */
+public final class BookSearchIndex {
+	private static final int MAGIC = 0x46424958;
+	private static final int VERSION = 2;
+
+	private static final class Entry {
+		final int Signature;
+		final String[] Tokens;
+
+		Entry(int signature, String[] tokens) {
+			Signature = signature;
+			Tokens = tokens;
+		}
+	}
+
+	private final TreeMap<String,HashSet<Long>> myIdsByToken = new TreeMap<String,HashSet<Long>>();
+	private final HashMap<Long,Entry> myEntries = new HashMap<Long,Entry>();
+
+	static void addTokens(String text, Collection<String> tokens) {
+		if (text == null) {
+			return;
+		}
+		text = ZLCharacterUtil.foldCase(text);
+		int start = -1;
+		for (int i = 0; i <= text.length(); ++i) {
+			if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+				if (start == -1) {
+					start = i;
+				}
+			} else if (start != -1) {
+				tokens.add(text.substring(start, i));
+				start = -1;
+			}
+		}
+	}
+
+	private static int signature(Book book) {
+		int signature = String.valueOf(book.getTitle()).hashCode();
+		final SeriesInfo seriesInfo = book.getSeriesInfo();
+		if (seriesInfo != null) {
+			signature = signature * 31 + seriesInfo.Name.hashCode();
+		}
+		for (Author author : book.authors()) {
+			signature = signature * 31 + author.DisplayName.hashCode();
+		}
+		for (Tag tag : book.tags()) {
+			signature = signature * 31 + tag.Name.hashCode();
+		}
+		return signature;
+	}
+
+	public synchronized void clear() {
+		myEntries.clear();
+		myIdsByToken.clear();
+	}
+
+	public synchronized boolean isEmpty() {
+		return myEntries.isEmpty();
+	}
+
+	public synchronized void addBook(Book book) {
+		final long id = book.getId();
+		if (id == -1) {
+			return;
+		}
+		final int signature = signature(book);
+		final Entry old = myEntries.get(id);
+		if (old != null && old.Signature == signature) {
+			return;
+		}
+
+		final HashSet<String> tokens = new HashSet<String>();
+		addTokens(book.getTitle(), tokens);
+		final SeriesInfo seriesInfo = book.getSeriesInfo();
+		if (seriesInfo != null) {
+			addTokens(seriesInfo.Name, tokens);
+		}
+		for (Author author : book.authors()) {
+			addTokens(author.DisplayName, tokens);
+		}
+		for (Tag tag : book.tags()) {
+			addTokens(tag.Name, tokens);
+		}
+		removeBook(id);
+		addEntry(id, new Entry(signature, tokens.toArray(new String[tokens.size()])));
+	}
+
+	private void addEntry(long id, Entry entry) {
+		myEntries.put(id, entry);
+		for (String token : entry.Tokens) {
+			HashSet<Long> ids = myIdsByToken.get(token);
+			if (ids == null) {
+				ids = new HashSet<Long>();
+				myIdsByToken.put(token, ids);
+			}
+			ids.add(id);
+		}
+	}
+
+	public synchronized void removeBook(long id) {
+		final Entry entry = myEntries.remove(id);
+		if (entry == null) {
+			return;
+		}
+		for (String token : entry.Tokens) {
+			final HashSet<Long> ids = myIdsByToken.get(token);
+			if (ids != null) {
+				ids.remove(id);
+				if (ids.isEmpty()) {
+					myIdsByToken.remove(token);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops all the books except the given ones.
+	 */
+	public synchronized void retainBooks(Set<Long> ids) {
+		final ArrayList<Long> toRemove = new ArrayList<Long>();
+		for (Long id : myEntries.keySet()) {
+			if (!ids.contains(id)) {
+				toRemove.add(id);
+			}
+		}
+		for (Long id : toRemove) {
+			removeBook(id);
+		}
+	}
+
+	/*
+	 * Returns ids of books that may have a field containing pattern (in any case),
+	 * or null if the pattern has no letters or digits and the index cannot help.
+	 */
+	public synchronized Set<Long> findCandidates(String pattern) {
+		final ArrayList<String> words = new ArrayList<String>();
+		addTokens(pattern, words);
+		if (words.isEmpty()) {
+			return null;
+		}
+
+		// the first and the last word may be parts of longer words
+		final boolean openStart = Character.isLetterOrDigit(pattern.charAt(0));
+		final boolean openEnd = Character.isLetterOrDigit(pattern.charAt(pattern.length() - 1));
+		final int last = words.size() - 1;
+		Set<Long> result = null;
+		for (int i = 0; i <= last; ++i) {
+			final String word = words.get(i);
+			final boolean suffix = (i == 0) && openStart;
+			final boolean prefix = (i == last) && openEnd;
+			final Collection<HashSet<Long>> matching;
+			if (suffix) {
+				matching = new ArrayList<HashSet<Long>>();
+				for (Map.Entry<String,HashSet<Long>> entry : myIdsByToken.entrySet()) {
+					final String token = entry.getKey();
+					if (prefix ? token.indexOf(word) != -1 : token.endsWith(word)) {
+						matching.add(entry.getValue());
+					}
+				}
+			} else if (prefix) {
+				matching = myIdsByToken.subMap(word, word + Character.MAX_VALUE).values();
+			} else {
+				final HashSet<Long> ids = myIdsByToken.get(word);
+				matching = (ids != null) ?
+					Collections.singletonList(ids) : Collections.<HashSet<Long>>emptyList();
+			}
+			final HashSet<Long> found = new HashSet<Long>();
+			for (HashSet<Long> ids : matching) {
+				if (result == null) {
+					found.addAll(ids);
+				} else {
+					for (Long id : ids) {
+						if (result.contains(id)) {
+							found.add(id);
+						}
+					}
+				}
+			}
+			result = found;
+			if (result.isEmpty()) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	public synchronized void write(DataOutputStream stream) throws IOException {
+		stream.writeInt(MAGIC);
+		stream.writeInt(VERSION);
+		stream.writeInt(myEntries.size());
+		for (Map.Entry<Long,Entry> e : myEntries.entrySet()) {
+			final Entry entry = e.getValue();
+			stream.writeLong(e.getKey());
+			stream.writeInt(entry.Signature);
+			stream.writeInt(entry.Tokens.length);
+			for (String token : entry.Tokens) {
+				stream.writeUTF(token);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the index content; returns false if the stream is not a valid index.
+	 */
+	public synchronized boolean read(DataInputStream stream) throws IOException {
+		if (stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+			return false;
+		}
+		clear();
+		for (int count = stream.readInt(); count > 0; --count) {
+			final long id = stream.readLong();
+			final int signature = stream.readInt();
+			final String[] tokens = new String[stream.readInt()];
+			for (int i = 0; i < tokens.length; ++i) {
+				tokens[i] = stream.readUTF().intern();
+			}
+			addEntry(id, new Entry(signature, tokens));
+		}
+		return true;
+	}
+}
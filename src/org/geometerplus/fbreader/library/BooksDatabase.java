@@ -64,13 +64,27 @@ public abstract class BooksDatabase {
 	protected abstract List<Tag> loadTags(long bookId);
 	protected abstract SeriesInfo loadSeriesInfo(long bookId);
 	protected abstract void updateBookInfo(long bookId, long fileId, String encoding, String language, String title);
-	protected abstract long insertBookInfo(ZLFile file, String encoding, String language, String title);
+	protected abstract long insertBookInfo(long fileId, String encoding, String language, String title);
 	protected abstract void deleteAllBookAuthors(long bookId);
 	protected abstract void saveBookAuthorInfo(long bookId, long index, Author author);
 	protected abstract void deleteAllBookTags(long bookId);
 	protected abstract void saveBookTagInfo(long bookId, Tag tag);
 	protected abstract void saveBookSeriesInfo(long bookId, SeriesInfo seriesInfo);
 
+	/**
+	 * Saves all the changed books in a single transaction;
+	 * file ids are taken from fileInfos.
+	 */
+	protected void saveBooks(final Collection<Book> books, final FileInfoSet fileInfos) {
+		executeAsATransaction(new Runnable() {
+			public void run() {
+				for (Book book : books) {
+					book.saveWithNoTransaction(BooksDatabase.this, fileInfos);
+				}
+			}
+		});
+	}
+
 	protected FileInfo createFileInfo(long id, String name, FileInfo parent) {
 		return new FileInfo(name, parent, id);
 	}
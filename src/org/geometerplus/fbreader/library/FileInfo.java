@@ -25,6 +25,8 @@ public final class FileInfo extends ZLTree<FileInfo> {
 	public final String Name;
 	public long Id;
 	public long FileSize = -1;
+	// for directories this is the time their entries list was stored
+	public long ModificationTime = -1;
 
 	FileInfo(String name, FileInfo parent) {
 		this(name, parent, -1);
@@ -19,6 +19,7 @@
 
 package org.geometerplus.fbreader.library;
 
+import java.io.File;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.util.ZLMiscUtil;
@@ -56,6 +57,8 @@ public final class FileInfoSet {
 	private final HashMap<FileInfo,ZLFile> myFilesByInfo = new HashMap<FileInfo,ZLFile>();
 	private final HashMap<Pair,FileInfo> myInfosByPair = new HashMap<Pair,FileInfo>();
 	private final HashMap<Long,FileInfo> myInfosById = new HashMap<Long,FileInfo>();
+	// directories are stored as top-level infos named by their full paths
+	private final HashMap<String,List<FileInfo>> mySubdirectoriesByPath = new HashMap<String,List<FileInfo>>();
 
 	private final LinkedHashSet<FileInfo> myInfosToSave = new LinkedHashSet<FileInfo>();
 	private final LinkedHashSet<FileInfo> myInfosToRemove = new LinkedHashSet<FileInfo>();
@@ -76,10 +79,27 @@ public final class FileInfoSet {
 		for (FileInfo info : infos) {
 			myInfosByPair.put(new Pair(info.Name, info.Parent), info);
 			myInfosById.put(info.Id, info);
+			if (info.Parent == null) {
+				addSubdirectory(info);
+			}
+		}
+	}
+
+	private void addSubdirectory(FileInfo info) {
+		final int index = info.Name.lastIndexOf('/');
+		if (index <= 0) {
+			return;
+		}
+		final String parentPath = info.Name.substring(0, index);
+		List<FileInfo> list = mySubdirectoriesByPath.get(parentPath);
+		if (list == null) {
+			list = new LinkedList<FileInfo>();
+			mySubdirectoriesByPath.put(parentPath, list);
 		}
+		list.add(info);
 	}
 
-	public void save() {
+	public synchronized void save() {
 		final BooksDatabase database = BooksDatabase.Instance();
 		database.executeAsATransaction(new Runnable() {
 			public void run() {
@@ -100,12 +120,29 @@ public final class FileInfoSet {
 		if (file == null) {
 			return true;
 		}
-		final long fileSize = file.size();
-		FileInfo info = get(file);
-		if (info.FileSize == fileSize) {
-			return true;
-		} else {
+		return check(file, file.size(), file.lastModified());
+	}
+
+	/**
+	 * Same as check(file) for the size and the modification time
+	 * read from the file system before.
+	 */
+	public boolean check(ZLPhysicalFile file, long fileSize, long modificationTime) {
+		synchronized (this) {
+			FileInfo info = get(file);
+			if (info.FileSize == fileSize) {
+				if (info.ModificationTime == modificationTime) {
+					return true;
+				}
+				if (info.ModificationTime == -1) {
+					// stored before modification times were tracked
+					info.ModificationTime = modificationTime;
+					myInfosToSave.add(info);
+					return true;
+				}
+			}
 			info.FileSize = fileSize;
+			info.ModificationTime = modificationTime;
 			removeChildren(info);
 			myInfosToSave.add(info);
 			addChildren(file);
@@ -113,7 +150,98 @@ public final class FileInfoSet {
 		}
 	}
 
-	public List<ZLFile> archiveEntries(ZLFile file) {
+	/**
+	 * Lists subdirectories and files stored for the directory during
+	 * the previous scan, without accessing the file system; returns false
+	 * if the directory has been modified since then.
+	 */
+	public synchronized boolean listUnchangedDirectory(ZLPhysicalFile directory, long modificationTime, List<ZLPhysicalFile> subdirectories, List<ZLPhysicalFile> files) {
+		final FileInfo info = get(directory);
+		if (info.Id == -1 || info.ModificationTime != modificationTime) {
+			return false;
+		}
+		final String path = directory.getPath();
+		for (FileInfo child : info.subTrees()) {
+			files.add(new ZLPhysicalFile(new File(path, child.Name), false));
+		}
+		final List<FileInfo> subdirectoryInfos = mySubdirectoriesByPath.get(path);
+		if (subdirectoryInfos != null) {
+			for (FileInfo subdirectory : subdirectoryInfos) {
+				subdirectories.add(new ZLPhysicalFile(new File(subdirectory.Name), true));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stores the entries of a listed directory; infos of files and
+	 * subdirectories that are no longer there are removed. The directory
+	 * is not considered unchanged until setDirectoryModificationTime() is
+	 * called, i.e. until its files have been read.
+	 */
+	public synchronized void setDirectoryEntries(ZLPhysicalFile directory, List<ZLPhysicalFile> entries) {
+		final FileInfo info = get(directory);
+		final HashSet<FileInfo> entryInfos = new HashSet<FileInfo>();
+		for (ZLPhysicalFile entry : entries) {
+			entryInfos.add(get(entry));
+		}
+		for (FileInfo child : new ArrayList<FileInfo>(info.subTrees())) {
+			if (!entryInfos.contains(child)) {
+				remove(child);
+			}
+		}
+		final List<FileInfo> subdirectories = mySubdirectoriesByPath.get(directory.getPath());
+		if (subdirectories != null) {
+			for (FileInfo subdirectory : new ArrayList<FileInfo>(subdirectories)) {
+				if (!entryInfos.contains(subdirectory)) {
+					removeDirectory(subdirectory);
+				}
+			}
+		}
+	}
+
+	public synchronized void setDirectoryModificationTime(ZLPhysicalFile directory, long modificationTime) {
+		final FileInfo info = get(directory);
+		info.ModificationTime = modificationTime;
+		myInfosToSave.add(info);
+	}
+
+	private void removeDirectory(FileInfo info) {
+		final List<FileInfo> subdirectories = mySubdirectoriesByPath.remove(info.Name);
+		if (subdirectories != null) {
+			for (FileInfo subdirectory : subdirectories) {
+				removeDirectory(subdirectory);
+			}
+		}
+		final int index = info.Name.lastIndexOf('/');
+		if (index > 0) {
+			final List<FileInfo> siblings = mySubdirectoriesByPath.get(info.Name.substring(0, index));
+			if (siblings != null) {
+				siblings.remove(info);
+			}
+		}
+		remove(info);
+	}
+
+	private void remove(FileInfo info) {
+		removeChildren(info);
+		if (myInfosToSave.contains(info)) {
+			myInfosToSave.remove(info);
+		}
+		if (info.Id != -1) {
+			myInfosToRemove.add(info);
+		} else {
+			myInfosByPair.remove(new Pair(info.Name, info.Parent));
+		}
+		myInfosById.remove(info.Id);
+		final ZLFile file = myFilesByInfo.remove(info);
+		if (file != null) {
+			myInfosByFile.remove(file);
+		}
+		info.removeSelf();
+	}
+
+	public synchronized List<ZLFile> archiveEntries(ZLFile file) {
 		final FileInfo info = get(file);
 		if (!info.hasChildren()) {
 			return Collections.emptyList();
@@ -134,6 +262,9 @@ public final class FileInfoSet {
 			info = new FileInfo(name, parent);
 			myInfosByPair.put(pair, info);
 			myInfosToSave.add(info);
+			if (parent == null) {
+				addSubdirectory(info);
+			}
 		}
 		return info;
 	}
@@ -151,7 +282,7 @@ public final class FileInfoSet {
 		return info;
 	}
 
-	public long getId(ZLFile file) {
+	public synchronized long getId(ZLFile file) {
 		final FileInfo info = get(file);
 		if (info == null) {
 			return -1;
@@ -168,13 +299,19 @@ public final class FileInfoSet {
 		}
 		ZLFile file = myFilesByInfo.get(info);
 		if (file == null) {
-			file = ZLFile.createFile(getFile(info.Parent), info.Name);
+			final FileInfo parent = info.Parent;
+			if ((parent != null) && (parent.Parent == null) && parent.Name.startsWith("/")) {
+				// a file in a directory (directories are never children), no need to stat it
+				file = new ZLPhysicalFile(new File(parent.Name, info.Name), false);
+			} else {
+				file = ZLFile.createFile(getFile(parent), info.Name);
+			}
 			myFilesByInfo.put(info, file);
 		}
 		return file;
 	}
 
-	public ZLFile getFile(long id) {
+	public synchronized ZLFile getFile(long id) {
 		return getFile(myInfosById.get(id));
 	}
 
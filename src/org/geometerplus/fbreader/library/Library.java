@@ -19,13 +19,14 @@
 
 package org.geometerplus.fbreader.library;
 
-import java.io.File;
+import java.io.*;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.filesystem.*;
 import org.geometerplus.zlibrary.core.util.ZLMiscUtil;
 
 import org.geometerplus.fbreader.Paths;
+import org.geometerplus.fbreader.tree.FBTree;
 
 public final class Library {
 	private static Library ourInstance;
@@ -37,20 +38,49 @@ public final class Library {
 		return ourInstance;
 	}
 
+	public interface ChangeListener {
+		/*
+		 * Called on the scanning thread when there are books to be added
+		 * to the trees; the listener calls flushChanges() on its own thread.
+		 */
+		void onLibraryChanged();
+	}
+
 	private final LinkedList<Book> myBooks = new LinkedList<Book>();
+	private final BookSearchIndex mySearchIndex = new BookSearchIndex();
 	private final HashSet<Book> myExternalBooks = new HashSet<Book>();
 	private final LibraryTree myLibraryByAuthor = new RootTree();
 	private final LibraryTree myLibraryByTag = new RootTree();
 	private final LibraryTree myRecentBooks = new RootTree();
 	private final LibraryTree mySearchResult = new RootTree();
 
+	private final LinkedList<ChangeListener> myListeners = new LinkedList<ChangeListener>();
+
 	private boolean myDoRebuild = true;
+	private TreeBuilder myTreeBuilder;
+
+	// books read by the running scan and not added to the trees yet;
+	// the list is also the lock for the scan fields
+	private final LinkedList<Book> myPendingBooks = new LinkedList<Book>();
+	private final LinkedList<Book> myPendingExternalBooks = new LinkedList<Book>();
+	private ScanThread myScanThread;
+	private boolean myScanIsFinished;
 
 	private Library() {
 	}
 
-	public void clear() {
+	public synchronized void clear() {
 		myDoRebuild = true;
+		myTreeBuilder = null;
+		synchronized (myPendingBooks) {
+			if (myScanThread != null) {
+				myScanThread.cancel();
+				myScanThread = null;
+			}
+			myScanIsFinished = false;
+			myPendingBooks.clear();
+			myPendingExternalBooks.clear();
+		}
 
 		myBooks.clear();
 		myExternalBooks.clear();
@@ -71,7 +101,7 @@ public final class Library {
 		return ZLResourceFile.createResourceFile("data/help/MiniHelp.en.fb2");
 	}
 
-	private static Book getBook(ZLFile bookFile, FileInfoSet fileInfos, Map<Long,Book> saved, boolean doReadMetaInfo) {
+	static Book getBook(ZLFile bookFile, FileInfoSet fileInfos, Map<Long,Book> saved, boolean doReadMetaInfo) {
 		Book book = saved.remove(fileInfos.getId(bookFile));
 		if (book == null) {
 			doReadMetaInfo = true;
@@ -84,23 +114,7 @@ public final class Library {
 		return book;
 	}
 
-	private void collectBooks(
-		ZLFile file,
-		FileInfoSet fileInfos,
-		Map<Long,Book> savedBooks,
-		boolean doReadMetaInfo
-	) {
-		Book book = getBook(file, fileInfos, savedBooks, doReadMetaInfo);
-		if (book != null) {
-			myBooks.add(book);
-		} else if (file.isArchive()) {
-			for (ZLFile entry : fileInfos.archiveEntries(file)) {
-				collectBooks(entry, fileInfos, savedBooks, doReadMetaInfo);
-			}
-		}
-	}
-
-	private void collectExternalBooks(FileInfoSet fileInfos, Map<Long,Book> savedBooks) {
+	private void collectExternalBooks(FileInfoSet fileInfos, Map<Long,Book> savedBooks, ScanThread thread) {
 		final HashSet<ZLPhysicalFile> myUpdatedFiles = new HashSet<ZLPhysicalFile>();
 		final HashSet<Long> files = new HashSet<Long>(savedBooks.keySet());
 		for (Long fileId: files) {
@@ -125,66 +139,121 @@ public final class Library {
 			}
 			final long bookId = book.getId();
 			if (bookId != -1 && BooksDatabase.Instance().checkBookList(bookId)) {
-				myBooks.add(book);
-				myExternalBooks.add(book);
+				thread.addBook(book, true);
 			}
 		}
 	}
 
-	private List<ZLPhysicalFile> collectPhysicalFiles() {
-		final Queue<ZLFile> dirQueue = new LinkedList<ZLFile>();
-		final HashSet<ZLFile> dirSet = new HashSet<ZLFile>();
-		final LinkedList<ZLPhysicalFile> fileList = new LinkedList<ZLPhysicalFile>();
+	private final class ScanThread extends Thread {
+		// read books are saved in batches, so a cancelled scan loses little
+		private static final int SAVE_BATCH_SIZE = 64;
+
+		private final ArrayList<Book> myScannedBooks = new ArrayList<Book>();
+		private final ArrayList<Book> myUnsavedBooks = new ArrayList<Book>();
+		private volatile boolean myIsCancelled;
 
-		dirQueue.offer(new ZLPhysicalFile(new File(Paths.BooksDirectoryOption.getValue())));
+		ScanThread() {
+			super("Library.ScanThread");
+			setDaemon(true);
+		}
+
+		void cancel() {
+			myIsCancelled = true;
+		}
 
-		while (!dirQueue.isEmpty()) {
-			for (ZLFile file : dirQueue.poll().children()) {
-				if (file.isDirectory()) {
-					if (!dirSet.contains(file)) {
-						dirQueue.add(file);
-						dirSet.add(file);
+		void addBook(Book book, boolean isExternal) {
+			myScannedBooks.add(book);
+			myUnsavedBooks.add(book);
+			boolean doNotify;
+			synchronized (myPendingBooks) {
+				if (myScanThread != this) {
+					return;
+				}
+				// one notification per batch: the listener takes all pending books
+				doNotify = myPendingBooks.isEmpty();
+				myPendingBooks.add(book);
+				if (isExternal) {
+					myPendingExternalBooks.add(book);
+				}
+			}
+			if (doNotify) {
+				fireChanged();
+			}
+		}
+
+		public void run() {
+			final BooksDatabase db = BooksDatabase.Instance();
+			final FileInfoSet fileInfos = new FileInfoSet();
+			final Map<Long,Book> savedBooks = Collections.synchronizedMap(db.listBooks(fileInfos));
+
+			final LibraryScanner scanner = new LibraryScanner(fileInfos, savedBooks);
+			try {
+				scanner.start(new ZLPhysicalFile(new File(Paths.BooksDirectoryOption.getValue())));
+				for (Book book = scanner.nextBook(); book != null; book = scanner.nextBook()) {
+					addBook(book, false);
+					if (myIsCancelled) {
+						break;
+					}
+					if (myUnsavedBooks.size() >= SAVE_BATCH_SIZE) {
+						saveBooks(db, fileInfos);
 					}
-				} else {
-					file.setCached(true);
-					fileList.add((ZLPhysicalFile)file);
 				}
+			} finally {
+				scanner.stop();
+			}
+			if (myIsCancelled) {
+				// the next scan goes on from what has been read
+				saveBooks(db, fileInfos);
+				return;
 			}
+			final Book helpBook = getBook(getHelpFile(), fileInfos, savedBooks, false);
+			if (helpBook != null) {
+				addBook(helpBook, false);
+			}
+			collectExternalBooks(fileInfos, savedBooks, this);
+			saveBooks(db, fileInfos);
+			if (myIsCancelled) {
+				return;
+			}
+
+			updateSearchIndex(myScannedBooks);
+
+			synchronized (myPendingBooks) {
+				if (myScanThread != this) {
+					return;
+				}
+				myScanIsFinished = true;
+			}
+			fireChanged();
+		}
+
+		private void saveBooks(BooksDatabase db, FileInfoSet fileInfos) {
+			fileInfos.save();
+			db.saveBooks(myUnsavedBooks, fileInfos);
+			myUnsavedBooks.clear();
+		}
+	}
+
+	public void addChangeListener(ChangeListener listener) {
+		synchronized (myListeners) {
+			myListeners.add(listener);
+		}
+	}
+
+	public void removeChangeListener(ChangeListener listener) {
+		synchronized (myListeners) {
+			myListeners.remove(listener);
 		}
-		return fileList;
 	}
 
-	private void collectBooks() {
-		//final long start = System.currentTimeMillis();
-		//android.os.Debug.startMethodTracing("/sdcard/ll0");
-		final List<ZLPhysicalFile> physicalFilesList = collectPhysicalFiles();
-		//android.os.Debug.stopMethodTracing();
-		//System.err.println(physicalFilesList.size() + " files " + (System.currentTimeMillis() - start));
-
-		//android.os.Debug.startMethodTracing("/sdcard/ll2");
-		FileInfoSet fileInfos = new FileInfoSet();
-		//android.os.Debug.stopMethodTracing();
-		//System.err.println("file infos have been loaded " + (System.currentTimeMillis() - start));
-
-		//android.os.Debug.startMethodTracing("/sdcard/ll1");
-		final Map<Long,Book> savedBooks = BooksDatabase.Instance().listBooks(fileInfos);
-		//android.os.Debug.stopMethodTracing();
-		//System.err.println(savedBooks.size() + " saved books " + (System.currentTimeMillis() - start));
-
-		//android.os.Debug.startMethodTracing("/sdcard/ll3");
-		for (ZLPhysicalFile file : physicalFilesList) {
-			collectBooks(file, fileInfos, savedBooks, !fileInfos.check(file));
-			file.setCached(false);
-		}
-		myBooks.add(getBook(getHelpFile(), fileInfos, savedBooks, false));
-		//android.os.Debug.stopMethodTracing();
-		//System.err.println("books have been synchronized " + (System.currentTimeMillis() - start));
-
-		collectExternalBooks(fileInfos, savedBooks);
-
-		//android.os.Debug.startMethodTracing("/sdcard/ll4");
-		fileInfos.save();
-		//android.os.Debug.stopMethodTracing();
+	private void fireChanged() {
+		final ArrayList<ChangeListener> listeners;
+		synchronized (myListeners) {
+			listeners = new ArrayList<ChangeListener>(myListeners);
+		}
+		for (ChangeListener listener : listeners) {
+			listener.onLibraryChanged();
+		}
 	}
 
 	private static class AuthorSeriesPair {
@@ -229,39 +298,37 @@ public final class Library {
 		return tagTree;
 	}
 
-	private void build() {
-		//System.err.println("before build: " + System.currentTimeMillis() % 20000);
-		final HashMap<Tag,TagTree> tagTreeMap = new HashMap<Tag,TagTree>();
-		final HashMap<Author,AuthorTree> authorTreeMap = new HashMap<Author,AuthorTree>();
-		final HashMap<AuthorSeriesPair,SeriesTree> seriesTreeMap = new HashMap<AuthorSeriesPair,SeriesTree>();
-		final HashMap<Long,Book> bookById = new HashMap<Long,Book>();
-
-		collectBooks();
-		//System.err.println(myBooks.size() + " books " + System.currentTimeMillis() % 20000);
-		for (Book book : myBooks) {
-			bookById.put(book.getId(), book);
+	private final class TreeBuilder {
+		private final HashMap<Tag,TagTree> myTagTreeMap = new HashMap<Tag,TagTree>();
+		private final HashMap<Author,AuthorTree> myAuthorTreeMap = new HashMap<Author,AuthorTree>();
+		private final HashMap<AuthorSeriesPair,SeriesTree> mySeriesTreeMap = new HashMap<AuthorSeriesPair,SeriesTree>();
+		final HashMap<Long,Book> BookById = new HashMap<Long,Book>();
+
+		void addBook(Book book) {
+			myBooks.add(book);
+			BookById.put(book.getId(), book);
 			List<Author> authors = book.authors();
 			if (authors.isEmpty()) {
 				authors = (List<Author>)ourNullList;
 			}
 			final SeriesInfo seriesInfo = book.getSeriesInfo();
 			for (Author a : authors) {
-				AuthorTree authorTree = authorTreeMap.get(a);
+				AuthorTree authorTree = myAuthorTreeMap.get(a);
 				if (authorTree == null) {
 					authorTree = myLibraryByAuthor.createAuthorSubTree(a);
-					authorTreeMap.put(a, authorTree);
+					myAuthorTreeMap.put(a, authorTree);
 				}
 				if (seriesInfo == null) {
-					authorTree.createBookSubTree(book, false);
+					invalidateParents(authorTree.createBookSubTree(book, false));
 				} else {
 					final String series = seriesInfo.Name;
 					final AuthorSeriesPair pair = new AuthorSeriesPair(a, series);
-					SeriesTree seriesTree = seriesTreeMap.get(pair);
+					SeriesTree seriesTree = mySeriesTreeMap.get(pair);
 					if (seriesTree == null) {
 						seriesTree = authorTree.createSeriesSubTree(series);
-						seriesTreeMap.put(pair, seriesTree);
+						mySeriesTreeMap.put(pair, seriesTree);
 					}
-					seriesTree.createBookInSeriesSubTree(book);
+					invalidateParents(seriesTree.createBookInSeriesSubTree(book));
 				}
 			}
 
@@ -270,51 +337,153 @@ public final class Library {
 				tags = (List<Tag>)ourNullList;
 			}
 			for (Tag t : tags) {
-				getTagTree(t, tagTreeMap).createBookSubTree(book, true);
+				invalidateParents(getTagTree(t, myTagTreeMap).createBookSubTree(book, true));
 			}
 		}
 
-		final BooksDatabase db = BooksDatabase.Instance();
-		for (long id : db.listRecentBookIds()) {
-			Book book = bookById.get(id);
-			if (book != null) {
-				myRecentBooks.createBookSubTree(book, true);
+		// trees are filled while shown, so cached children lists get outdated
+		private void invalidateParents(FBTree tree) {
+			for (FBTree parent = tree.Parent; parent != null; parent = parent.Parent) {
+				parent.invalidateChildren();
 			}
 		}
+	}
+
+	private static File searchIndexFile() {
+		return new File(Paths.cacheDirectory(), "library.index");
+	}
 
-		db.executeAsATransaction(new Runnable() {
-			public void run() {
-				for (Book book : myBooks) {
-					book.save();
+	private void loadSearchIndex() {
+		final File file = searchIndexFile();
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			final DataInputStream stream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file))
+			);
+			try {
+				if (!mySearchIndex.read(stream)) {
+					mySearchIndex.clear();
 				}
+			} finally {
+				stream.close();
 			}
-		});
-		//System.err.println("after build: " + System.currentTimeMillis() % 20000);
+		} catch (IOException e) {
+			mySearchIndex.clear();
+		}
 	}
 
-	public void synchronize() {
-		if (myDoRebuild) {
-			build();
+	private void saveSearchIndex() {
+		final File file = searchIndexFile();
+		file.getParentFile().mkdirs();
+		try {
+			final DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file))
+			);
+			try {
+				mySearchIndex.write(stream);
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			file.delete();
+		}
+	}
 
-			myLibraryByAuthor.sortAllChildren();
-			myLibraryByTag.sortAllChildren();
+	private void updateSearchIndex(List<Book> books) {
+		synchronized (mySearchIndex) {
+			if (mySearchIndex.isEmpty()) {
+				loadSearchIndex();
+			}
+			// the index is kept in sync with the books of the library only;
+			// unchanged books are skipped by the index itself
+			final HashSet<Long> ids = new HashSet<Long>();
+			for (Book book : books) {
+				ids.add(book.getId());
+				mySearchIndex.addBook(book);
+			}
+			mySearchIndex.retainBooks(ids);
+			saveSearchIndex();
+		}
+	}
 
+	/*
+	 * Starts scanning the library unless it has been scanned already;
+	 * does not wait for the scan, the books are added to the trees
+	 * by flushChanges() as soon as they are read.
+	 */
+	public synchronized void synchronize() {
+		if (myDoRebuild) {
 			myDoRebuild = false;
+			myTreeBuilder = new TreeBuilder();
+			final ScanThread thread = new ScanThread();
+			synchronized (myPendingBooks) {
+				myScanThread = thread;
+				myScanIsFinished = false;
+			}
+			thread.start();
 		}
 	}
 
+	/*
+	 * Adds books read since the previous call to the trees, and fills
+	 * the recent books list once the scan is over; call it on the thread
+	 * that shows the trees. Returns true if the trees have been changed.
+	 */
+	public synchronized boolean flushChanges() {
+		if (myTreeBuilder == null) {
+			return false;
+		}
+		final ArrayList<Book> books;
+		final ArrayList<Book> externalBooks;
+		final boolean isFinished;
+		synchronized (myPendingBooks) {
+			books = new ArrayList<Book>(myPendingBooks);
+			externalBooks = new ArrayList<Book>(myPendingExternalBooks);
+			myPendingBooks.clear();
+			myPendingExternalBooks.clear();
+			isFinished = myScanIsFinished && (myScanThread != null);
+			if (isFinished) {
+				myScanThread = null;
+			}
+		}
+		if (books.isEmpty() && !isFinished) {
+			return false;
+		}
+
+		for (Book book : books) {
+			myTreeBuilder.addBook(book);
+		}
+		myExternalBooks.addAll(externalBooks);
+		if (isFinished) {
+			for (long id : BooksDatabase.Instance().listRecentBookIds()) {
+				Book book = myTreeBuilder.BookById.get(id);
+				if (book != null) {
+					myRecentBooks.createBookSubTree(book, true);
+				}
+			}
+		}
+		myLibraryByAuthor.sortAllChildren();
+		myLibraryByTag.sortAllChildren();
+		return true;
+	}
+
 	public LibraryTree byAuthor() {
 		synchronize();
+		flushChanges();
 		return myLibraryByAuthor;
 	}
 
 	public LibraryTree byTag() {
 		synchronize();
+		flushChanges();
 		return myLibraryByTag;
 	}
 
 	public LibraryTree recentBooks() {
 		synchronize();
+		flushChanges();
 		return myRecentBooks;
 	}
 
@@ -323,13 +492,26 @@ public final class Library {
 		return (recentIds.size() > 0) ? Book.getById(recentIds.get(0)) : null;
 	}
 
-	public LibraryTree searchBooks(String pattern) {
+	/*
+	 * Searches the books added to the trees so far.
+	 */
+	public synchronized LibraryTree searchBooks(String pattern) {
 		synchronize();
 		mySearchResult.clear();
 		if (pattern != null) {
+			final boolean isIndexReady;
+			synchronized (myPendingBooks) {
+				isIndexReady = myScanIsFinished;
+			}
+			// the index only narrows the books down, matching is done as before;
+			// it is not used until the scan has updated it
+			final Set<Long> candidates;
+			synchronized (mySearchIndex) {
+				candidates = isIndexReady ? mySearchIndex.findCandidates(pattern) : null;
+			}
 			pattern = pattern.toLowerCase();
 			for (Book book : myBooks) {
-				if (book.matches(pattern)) {
+				if ((candidates == null || candidates.contains(book.getId())) && book.matches(pattern)) {
 					mySearchResult.createBookSubTree(book, true);
 				}
 			}
@@ -355,7 +537,7 @@ public final class Library {
 	public static final int REMOVE_FROM_DISK = 0x02;
 	public static final int REMOVE_FROM_LIBRARY_AND_DISK = REMOVE_FROM_LIBRARY | REMOVE_FROM_DISK;
 
-	public int getRemoveBookMode(Book book) {
+	public synchronized int getRemoveBookMode(Book book) {
 		synchronize();
 		return (myExternalBooks.contains(book) ? REMOVE_FROM_LIBRARY : REMOVE_DONT_REMOVE)
 			| (canDeleteBookFile(book) ? REMOVE_FROM_DISK : REMOVE_DONT_REMOVE);
@@ -375,12 +557,19 @@ public final class Library {
 		return true;
 	}
 
-	public void removeBook(Book book, int removeMode) {
+	public synchronized void removeBook(Book book, int removeMode) {
 		if (removeMode == REMOVE_DONT_REMOVE) {
 			return;
 		}
 		synchronize();
+		synchronized (myPendingBooks) {
+			myPendingBooks.remove(book);
+			myPendingExternalBooks.remove(book);
+		}
 		myBooks.remove(book);
+		synchronized (mySearchIndex) {
+			mySearchIndex.removeBook(book.getId());
+		}
 		myLibraryByAuthor.removeBook(book);
 		myLibraryByTag.removeBook(book);
 		if (myRecentBooks.removeBook(book)) {
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.library;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geometerplus.zlibrary.core.filesystem.*;
+
+/**
+ * Walks the books directory on a small thread pool: the pool lists
+ * directories and reads file sizes, while checking files and reading book
+ * meta info is done by nextBook() on the owner's thread, one book at a time,
+ * since format plugins are not thread-safe. The owner must call stop()
+ * when it is done, including on failure.
+ */
+final class LibraryScanner {
+	private static final int THREADS_NUMBER =
+		Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() + 1));
+
+	private final FileInfoSet myFileInfos;
+	private final Map<Long,Book> mySavedBooks;
+
+	private final ExecutorService myPool = Executors.newFixedThreadPool(THREADS_NUMBER);
+	private final AtomicInteger myPendingTasksNumber = new AtomicInteger();
+	private final BlockingQueue<FileEntry> myFiles = new LinkedBlockingQueue<FileEntry>();
+	private final Set<String> myDirectoryPaths = Collections.synchronizedSet(new HashSet<String>());
+	// books of the archive read last, used by the owner's thread only
+	private final LinkedList<Book> myReadyBooks = new LinkedList<Book>();
+
+	LibraryScanner(FileInfoSet fileInfos, Map<Long,Book> savedBooks) {
+		myFileInfos = fileInfos;
+		mySavedBooks = savedBooks;
+	}
+
+	void start(ZLPhysicalFile directory) {
+		myDirectoryPaths.add(directory.getPath());
+		submit(new DirectoryTask(directory));
+	}
+
+	/**
+	 * Blocks until the next book is read; returns null when the scan is over.
+	 */
+	Book nextBook() {
+		while (myReadyBooks.isEmpty()) {
+			final FileEntry entry = nextFile();
+			if (entry == null) {
+				return null;
+			}
+			readBooks(entry);
+		}
+		return myReadyBooks.removeFirst();
+	}
+
+	void stop() {
+		myPool.shutdownNow();
+	}
+
+	private FileEntry nextFile() {
+		try {
+			while (true) {
+				final FileEntry entry = myFiles.poll(100, TimeUnit.MILLISECONDS);
+				if (entry != null) {
+					return entry;
+				}
+				if (myPendingTasksNumber.get() == 0 && myFiles.isEmpty()) {
+					return null;
+				}
+			}
+		} catch (InterruptedException e) {
+			return null;
+		}
+	}
+
+	private void readBooks(FileEntry entry) {
+		final ZLPhysicalFile file = entry.File;
+		file.setCached(true);
+		try {
+			final boolean doReadMetaInfo =
+				entry.DoCheck && !myFileInfos.check(file, entry.Size, entry.ModificationTime);
+			collectBooks(file, doReadMetaInfo);
+		} finally {
+			file.setCached(false);
+			if (entry.Directory != null) {
+				entry.Directory.onFileRead();
+			}
+		}
+	}
+
+	private void collectBooks(ZLFile file, boolean doReadMetaInfo) {
+		final Book book = Library.getBook(file, myFileInfos, mySavedBooks, doReadMetaInfo);
+		if (book != null) {
+			myReadyBooks.add(book);
+		} else if (file.isArchive()) {
+			for (ZLFile entry : myFileInfos.archiveEntries(file)) {
+				collectBooks(entry, doReadMetaInfo);
+			}
+		}
+	}
+
+	private void submit(final Runnable task) {
+		myPendingTasksNumber.incrementAndGet();
+		try {
+			myPool.execute(new Runnable() {
+				public void run() {
+					try {
+						if (!myPool.isShutdown()) {
+							task.run();
+						}
+					} finally {
+						myPendingTasksNumber.decrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the scanner has been stopped
+			myPendingTasksNumber.decrementAndGet();
+		}
+	}
+
+	private static final class FileEntry {
+		public final ZLPhysicalFile File;
+		public final boolean DoCheck;
+		public final long Size;
+		public final long ModificationTime;
+		public final ListedDirectory Directory;
+
+		FileEntry(ZLPhysicalFile file, ListedDirectory directory) {
+			File = file;
+			Directory = directory;
+			DoCheck = directory != null;
+			Size = DoCheck ? file.size() : -1;
+			ModificationTime = DoCheck ? file.lastModified() : -1;
+		}
+	}
+
+	/*
+	 * A directory listed anew; it is stored as unchanged only when all its files
+	 * have been read, so a scan stopped halfway does not leave files unchecked.
+	 */
+	private final class ListedDirectory {
+		private final ZLPhysicalFile myDirectory;
+		private final long myModificationTime;
+		private final AtomicInteger myUnreadFilesNumber;
+
+		ListedDirectory(ZLPhysicalFile directory, long modificationTime, int filesNumber) {
+			myDirectory = directory;
+			myModificationTime = modificationTime;
+			myUnreadFilesNumber = new AtomicInteger(filesNumber);
+			if (filesNumber == 0) {
+				myFileInfos.setDirectoryModificationTime(myDirectory, myModificationTime);
+			}
+		}
+
+		void onFileRead() {
+			if (myUnreadFilesNumber.decrementAndGet() == 0) {
+				myFileInfos.setDirectoryModificationTime(myDirectory, myModificationTime);
+			}
+		}
+	}
+
+	private final class DirectoryTask implements Runnable {
+		private final ZLPhysicalFile myDirectory;
+
+		DirectoryTask(ZLPhysicalFile directory) {
+			myDirectory = directory;
+		}
+
+		public void run() {
+			final long modificationTime = myDirectory.lastModified();
+			final ArrayList<ZLPhysicalFile> subdirectories = new ArrayList<ZLPhysicalFile>();
+			final ArrayList<ZLPhysicalFile> files = new ArrayList<ZLPhysicalFile>();
+			// files of an unchanged directory are trusted not to be rewritten in place,
+			// so they are not stat-ed; saving through a new file changes the directory
+			ListedDirectory listed = null;
+			if (!myFileInfos.listUnchangedDirectory(myDirectory, modificationTime, subdirectories, files)) {
+				final List<ZLFile> children = myDirectory.children();
+				final ArrayList<ZLPhysicalFile> entries = new ArrayList<ZLPhysicalFile>(children.size());
+				for (ZLFile child : children) {
+					final ZLPhysicalFile entry = (ZLPhysicalFile)child;
+					entries.add(entry);
+					(entry.isDirectory() ? subdirectories : files).add(entry);
+				}
+				myFileInfos.setDirectoryEntries(myDirectory, entries);
+				listed = new ListedDirectory(myDirectory, modificationTime, files.size());
+			}
+			for (ZLPhysicalFile subdirectory : subdirectories) {
+				if (myDirectoryPaths.add(subdirectory.getPath())) {
+					submit(new DirectoryTask(subdirectory));
+				}
+			}
+			for (ZLPhysicalFile file : files) {
+				if (myPool.isShutdown()) {
+					break;
+				}
+				myFiles.add(new FileEntry(file, listed));
+			}
+		}
+	}
+}
@@ -25,13 +25,17 @@ import org.geometerplus.zlibrary.core.util.ZLNetworkUtil;
 import org.geometerplus.zlibrary.core.options.ZLStringOption;
 import org.geometerplus.zlibrary.core.network.ZLNetworkRequest;
 import org.geometerplus.zlibrary.core.network.ZLNetworkManager;
+import org.geometerplus.zlibrary.core.network.ZLNetworkCache;
 
+import org.geometerplus.fbreader.Paths;
 import org.geometerplus.fbreader.tree.FBTree;
 import org.geometerplus.fbreader.network.tree.*;
 import org.geometerplus.fbreader.network.opds.OPDSLinkReader;
 
 
 public class NetworkLibrary {
+	private static final long HTTP_CACHE_SIZE = 4 * 1024 * 1024;
+
 	private static NetworkLibrary ourInstance;
 
 	public static NetworkLibrary Instance() {
@@ -227,6 +231,10 @@ public class NetworkLibrary {
 	}
 
 	public String initialize() {
+		ZLNetworkManager.Instance().setCache(
+			new ZLNetworkCache(Paths.networkCacheDirectory() + "/http", HTTP_CACHE_SIZE)
+		);
+
 		final LinksComparator comparator = new LinksComparator(); 
 
 		final String error = OPDSLinkReader.loadOPDSLinks(OPDSLinkReader.CACHE_LOAD, new OnNewLinkListener() {
@@ -296,6 +304,13 @@ public class NetworkLibrary {
 		synchronized (myBackgroundLock) {
 			myBackgroundLinks = new ArrayList<INetworkLink>();
 
+			if (clearCache) {
+				final ZLNetworkCache cache = ZLNetworkManager.Instance().getCache();
+				if (cache != null) {
+					cache.clear();
+				}
+			}
+
 			final int cacheMode = clearCache ? OPDSLinkReader.CACHE_CLEAR : OPDSLinkReader.CACHE_UPDATE;
 			final String error = OPDSLinkReader.loadOPDSLinks(cacheMode, new OnNewLinkListener() {
 				public void onNewLink(INetworkLink link) {
@@ -485,22 +500,48 @@ public class NetworkLibrary {
 	}
 
 
-	// returns Error Message
-	public String simpleSearch(String pattern, final NetworkOperationData.OnNewItemListener listener) {
-		LinkedList<ZLNetworkRequest> requestList = new LinkedList<ZLNetworkRequest>();
-		LinkedList<NetworkOperationData> dataList = new LinkedList<NetworkOperationData>();
+	/*
+	 * Catalogs are searched in parallel, so the listener is called from
+	 * several network threads. perform() returns on interrupt or timeout
+	 * while cancelled requests may still be parsing; their calls are
+	 * dropped once the search has finished.
+	 */
+	private static final class SearchListener implements NetworkOperationData.OnNewItemListener {
+		private final NetworkOperationData.OnNewItemListener myListener;
+		private boolean myIsFinished;
 
-		final NetworkOperationData.OnNewItemListener synchronizedListener = new NetworkOperationData.OnNewItemListener() {
-			public synchronized void onNewItem(INetworkLink link, NetworkLibraryItem item) {
-				listener.onNewItem(link, item);
-			}
-			public synchronized boolean confirmInterrupt() {
-				return listener.confirmInterrupt();
+		SearchListener(NetworkOperationData.OnNewItemListener listener) {
+			myListener = listener;
+		}
+
+		public synchronized void onNewItem(INetworkLink link, NetworkLibraryItem item) {
+			if (!myIsFinished) {
+				myListener.onNewItem(link, item);
 			}
-			public synchronized void commitItems(INetworkLink link) {
-				listener.commitItems(link);
+		}
+
+		public synchronized boolean confirmInterrupt() {
+			return myIsFinished || myListener.confirmInterrupt();
+		}
+
+		public synchronized void commitItems(INetworkLink link) {
+			if (!myIsFinished) {
+				myListener.commitItems(link);
 			}
-		};
+		}
+
+		// waits for a call in progress; no call reaches the listener after that
+		synchronized void finish() {
+			myIsFinished = true;
+		}
+	}
+
+	// returns Error Message
+	public String simpleSearch(String pattern, final NetworkOperationData.OnNewItemListener listener) {
+		final LinkedList<ZLNetworkRequest> requestList = new LinkedList<ZLNetworkRequest>();
+		final HashMap<ZLNetworkRequest,NetworkOperationData> dataMap = new HashMap<ZLNetworkRequest,NetworkOperationData>();
+
+		final SearchListener synchronizedListener = new SearchListener(listener);
 
 		synchronized (myLinks) {
 			for (INetworkLink link: myLinks) {
@@ -510,32 +551,41 @@ public class NetworkLibrary {
 				final NetworkOperationData data = link.createOperationData(link, synchronizedListener);
 				final ZLNetworkRequest request = link.simpleSearchRequest(pattern, data);
 				if (request != null) {
-					dataList.add(data);
+					dataMap.put(request, data);
 					requestList.add(request);
 				}
 			}
 		}
 
-		while (requestList.size() != 0) {
-			final String errorMessage = ZLNetworkManager.Instance().perform(requestList);
-			if (errorMessage != null) {
-				return errorMessage;
-			}
-
-			requestList.clear();
+		if (requestList.size() == 0) {
+			return null;
+		}
 
-			if (listener.confirmInterrupt()) {
-				return null;
+		// all catalogs are searched in parallel; the next page of a catalog
+		// is requested as soon as the previous one has been loaded
+		final String errorMessage = ZLNetworkManager.Instance().perform(requestList, new ZLNetworkManager.Controller() {
+			public boolean confirmInterrupt() {
+				return synchronizedListener.confirmInterrupt();
 			}
-			for (NetworkOperationData data: dataList) {
-				ZLNetworkRequest request = data.resume();
-				if (request != null) {
-					requestList.add(request);
+
+			public ZLNetworkRequest onFinished(ZLNetworkRequest request, String error) {
+				final NetworkOperationData data = dataMap.remove(request);
+				if (data == null || error != null || synchronizedListener.confirmInterrupt()) {
+					return null;
+				}
+				final ZLNetworkRequest next = data.resume();
+				if (next != null) {
+					dataMap.put(next, data);
 				}
+				return next;
 			}
-		}
+		});
+		synchronizedListener.finish();
 
-		return null;
+		if (listener.confirmInterrupt()) {
+			return null;
+		}
+		return errorMessage;
 	}
 
 	private ICustomNetworkLink.SaveLinkListener myChangesListener = new ICustomNetworkLink.SaveLinkListener() {
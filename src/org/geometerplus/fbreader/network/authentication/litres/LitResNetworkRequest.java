@@ -33,6 +33,8 @@ class LitResNetworkRequest extends ZLNetworkRequest {
 	public LitResNetworkRequest(String url, String sslCertificate, LitResAuthenticationXMLReader reader) {
 		super(url, sslCertificate);
 		Reader = reader;
+		// responses depend on the session and must not be shared
+		UseCache = false;
 	}
 
 	@Override
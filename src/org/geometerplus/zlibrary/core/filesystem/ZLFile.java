@@ -23,7 +23,8 @@ import java.io.*;
 import java.util.*;
 
 public abstract class ZLFile {
-	private final static HashMap<String,ZLFile> ourCachedFiles = new HashMap<String,ZLFile>();
+	private final static Map<String,ZLFile> ourCachedFiles =
+		Collections.synchronizedMap(new HashMap<String,ZLFile>());
 
 	protected interface ArchiveType {
 		int	NONE = 0;
@@ -130,6 +131,59 @@ public abstract class ZLFile {
 	public abstract ZLPhysicalFile getPhysicalFile();
 	public abstract InputStream getInputStream() throws IOException;
 
+	/*
+	 * Opens the file positioned at offset. This implementation skips
+	 * from the start; subclasses seek where the storage allows it.
+	 */
+	public InputStream getInputStream(int offset) throws IOException {
+		final InputStream stream = getInputStream();
+		try {
+			skipFully(stream, offset);
+		} catch (IOException e) {
+			stream.close();
+			throw e;
+		}
+		return stream;
+	}
+
+	/*
+	 * Reads length bytes at offset into buffer; returns the number of bytes
+	 * read, which is less than length only at the end of file.
+	 */
+	public int read(int offset, byte[] buffer, int start, int length) throws IOException {
+		final InputStream stream = getInputStream(offset);
+		try {
+			return readFully(stream, buffer, start, length);
+		} finally {
+			stream.close();
+		}
+	}
+
+	protected static void skipFully(InputStream stream, long n) throws IOException {
+		while (n > 0) {
+			final long skipped = stream.skip(n);
+			if (skipped > 0) {
+				n -= skipped;
+			} else if (stream.read() != -1) {
+				--n;
+			} else {
+				throw new EOFException();
+			}
+		}
+	}
+
+	protected static int readFully(InputStream stream, byte[] buffer, int start, int length) throws IOException {
+		int count = 0;
+		while (count < length) {
+			final int n = stream.read(buffer, start + count, length - count);
+			if (n <= 0) {
+				break;
+			}
+			count += n;
+		}
+		return count;
+	}
+
 	public final boolean isCompressed() {
 		return (0 != (myArchiveType & ArchiveType.COMPRESSED)); 
 	}
@@ -21,16 +21,29 @@ package org.geometerplus.zlibrary.core.filesystem;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public final class ZLPhysicalFile extends ZLFile {
 	private final File myFile;
+	// the name and the parent depend on it, so it is read once
+	private final boolean myIsDirectory;
 	
 	ZLPhysicalFile(String path) {
 		this(new File(path));
 	}
 
 	public ZLPhysicalFile(File file) {
+		this(file, file.isDirectory());
+	}
+
+	/*
+	 * For files of a known type, e.g. listed during a previous scan;
+	 * does not access the file system.
+	 */
+	public ZLPhysicalFile(File file, boolean isDirectory) {
 		myFile = file;
+		myIsDirectory = isDirectory;
 		init();
 	}
 	
@@ -44,9 +57,13 @@ public final class ZLPhysicalFile extends ZLFile {
 		return myFile.length();
 	}	
 	
+	public long lastModified() {
+		return myFile.lastModified();
+	}
+
 	@Override
 	public boolean isDirectory() {
-		return myFile.isDirectory();
+		return myIsDirectory;
 	}
 	
 	public boolean delete() {
@@ -60,12 +77,12 @@ public final class ZLPhysicalFile extends ZLFile {
 	
 	@Override
 	public String getNameWithExtension() {
-		return isDirectory() ? getPath() : myFile.getName();
+		return myIsDirectory ? getPath() : myFile.getName();
 	}
 
 	@Override
 	public ZLFile getParent() {
-		return isDirectory() ? null : new ZLPhysicalFile(myFile.getParent());
+		return myIsDirectory ? null : new ZLPhysicalFile(myFile.getParentFile(), true);
 	}
 
 	@Override
@@ -78,6 +95,33 @@ public final class ZLPhysicalFile extends ZLFile {
 		return new FileInputStream(myFile);
 	}
 
+	@Override
+	public InputStream getInputStream(int offset) throws IOException {
+		final FileInputStream stream = new FileInputStream(myFile);
+		stream.getChannel().position(offset);
+		return stream;
+	}
+
+	@Override
+	public int read(int offset, byte[] buffer, int start, int length) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(myFile, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			final ByteBuffer target = ByteBuffer.wrap(buffer, start, length);
+			int count = 0;
+			while (target.hasRemaining()) {
+				final int n = channel.read(target, offset + count);
+				if (n <= 0) {
+					break;
+				}
+				count += n;
+			}
+			return count;
+		} finally {
+			file.close();
+		}
+	}
+
 	protected List<ZLFile> directoryEntries() {
 		File[] subFiles = myFile.listFiles();
 		if ((subFiles == null) || (subFiles.length == 0)) {
@@ -46,11 +46,15 @@ final class ZLZipEntryFile extends ZLArchiveEntryFile {
 		synchronized (ourZipFileMap) {
 			ZipFile zf = file.isCached() ? ourZipFileMap.get(file) : null;
 			if (zf == null) {
-				zf = new ZipFile(new ZipFile.InputStreamHolder() {
-					public InputStream getInputStream() throws IOException {
-						return file.getInputStream();
-					}
-				});
+				if (file instanceof ZLPhysicalFile) {
+					zf = new ZipFile(file.getPath());
+				} else {
+					zf = new ZipFile(new ZipFile.InputStreamHolder() {
+						public InputStream getInputStream() throws IOException {
+							return file.getInputStream();
+						}
+					});
+				}
 				if (file.isCached()) {
 					ourZipFileMap.put(file, zf);
 				}
@@ -60,7 +64,13 @@ final class ZLZipEntryFile extends ZLArchiveEntryFile {
 	}
 
 	static void removeFromCache(ZLFile file) {
-		ourZipFileMap.remove(file);
+		final ZipFile zf;
+		synchronized (ourZipFileMap) {
+			zf = ourZipFileMap.remove(file);
+		}
+		if (zf != null) {
+			zf.releaseParkedStreams();
+		}
 	}
 
 	ZLZipEntryFile(ZLFile parent, String name) {
@@ -80,4 +90,11 @@ final class ZLZipEntryFile extends ZLArchiveEntryFile {
 	public InputStream getInputStream() throws IOException {
 		return getZipFile(myParent).getInputStream(myName);
 	}
+
+	@Override
+	public InputStream getInputStream(int offset) throws IOException {
+		// a new ZipFile is made per call for an uncached archive,
+		// so nobody would ever resume or release a parked stream
+		return getZipFile(myParent).getInputStream(myName, offset, myParent.isCached());
+	}
 }
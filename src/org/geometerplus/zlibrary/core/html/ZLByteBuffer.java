@@ -52,7 +52,7 @@ public final class ZLByteBuffer {
 		byte[] data = myData;
 		final int newLength = len + count;
 		if (data.length < newLength) {
-			data = ZLArrayUtils.createCopy(data, len, newLength);
+			data = ZLArrayUtils.ensureCapacity(data, len, newLength);
 			myData = data;
 		}
 		System.arraycopy(buffer, offset, data, len, count);
@@ -60,9 +60,15 @@ public final class ZLByteBuffer {
 		myStringValue = null;
 	}
 
+	private static final int MAX_RETAINED_CAPACITY = 4096;
+
 	public void clear() {
 		myLength = 0;
 		myStringValue = null;
+		// do not keep the memory of a single huge value
+		if (myData.length > MAX_RETAINED_CAPACITY) {
+			myData = new byte[20];
+		}
 	}
 
 	public boolean equals(Object o) {
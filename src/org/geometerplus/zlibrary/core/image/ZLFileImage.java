@@ -21,6 +21,7 @@ package org.geometerplus.zlibrary.core.image;
 
 import java.io.*;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
 
 public class ZLFileImage extends ZLSingleImage {
 	private final ZLFile myFile;
@@ -38,18 +39,32 @@ public class ZLFileImage extends ZLSingleImage {
 		this(mimeType, file, 0, (int)file.size());
 	}
 
+	public ZLFile getFile() {
+		return myFile;
+	}
+
+	public int getOffset() {
+		return myOffset;
+	}
+
+	public int getLength() {
+		return myLength;
+	}
+
 	public byte [] byteData() {
+		return readData(myLength);
+	}
+
+	@Override
+	public byte [] headerData(int maxLength) {
+		return readData(Math.min(maxLength, myLength));
+	}
+
+	private byte [] readData(int maxLength) {
 		try {
-			final InputStream stream = myFile.getInputStream();
-			int toSkip = myOffset - (int)stream.skip(myOffset);
-			while (--toSkip >= 0) {
-				stream.read();
-			}
-
-			byte[] buffer = new byte[myLength];
-			stream.read(buffer);
-			stream.close();
-			return buffer;
+			final byte[] buffer = new byte[maxLength];
+			final int length = myFile.read(myOffset, buffer, 0, maxLength);
+			return (length == maxLength) ? buffer : ZLArrayUtils.createCopy(buffer, length, length);
 		} catch (IOException e) {
 		}
 		
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.image;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.geometerplus.zlibrary.core.application.ZLApplication;
+
+/*
+ * Decoded (platform specific) images keyed by image data and target size.
+ * The cache is bounded by a byte budget with LRU eviction. getAsync()
+ * never decodes on the calling thread: it returns null (the caller draws
+ * a placeholder), decodes on a background thread and repaints the view
+ * when the image is ready.
+ */
+public abstract class ZLImageCache<T> {
+	private static final class Key {
+		final ZLImageData Data;
+		final int Width;
+		final int Height;
+
+		Key(ZLImageData data, int width, int height) {
+			Data = data;
+			Width = width;
+			Height = height;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key k = (Key)o;
+			return (Data == k.Data) && (Width == k.Width) && (Height == k.Height);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(Data) + 31 * (Width + 31 * Height);
+		}
+	}
+
+	private final long myBudget;
+	private long mySize;
+	private final LinkedHashMap<Key,T> myImages = new LinkedHashMap<Key,T>(32, 0.75f, true);
+	private final HashSet<Key> myPendingKeys = new HashSet<Key>();
+	// recent images that could not be decoded; not retried until clear() or
+	// until dropped by newer failures, so the set does not grow without bound
+	private static final int MAX_FAILED_KEYS_NUMBER = 64;
+	private final LinkedHashMap<Key,Boolean> myFailedKeys = new LinkedHashMap<Key,Boolean>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Key,Boolean> eldest) {
+			return size() > MAX_FAILED_KEYS_NUMBER;
+		}
+	};
+
+	private final ExecutorService myDecoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "ZLImageCache");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	protected ZLImageCache(long budget) {
+		myBudget = budget;
+	}
+
+	// may be called on any thread; returns null if the image cannot be decoded
+	protected abstract T decode(ZLImageData data, int width, int height);
+	protected abstract int sizeOf(T image);
+
+	// called on the decoder thread; drawings made before the decode show a placeholder
+	protected void onDecoded() {
+		final ZLApplication application = ZLApplication.Instance();
+		if (application != null) {
+			application.repaintView();
+		}
+	}
+
+	public final T get(ZLImageData data, int width, int height) {
+		final Key key = new Key(data, width, height);
+		synchronized (this) {
+			final T image = myImages.get(key);
+			if ((image != null) || myFailedKeys.containsKey(key)) {
+				return image;
+			}
+		}
+		return decodeAndStore(key);
+	}
+
+	public final synchronized T getAsync(ZLImageData data, int width, int height) {
+		final Key key = new Key(data, width, height);
+		final T image = myImages.get(key);
+		if ((image == null) && !myFailedKeys.containsKey(key) && myPendingKeys.add(key)) {
+			myDecoder.execute(new Runnable() {
+				public void run() {
+					if (decodeAndStore(key) != null) {
+						onDecoded();
+					}
+				}
+			});
+		}
+		return image;
+	}
+
+	private T decodeAndStore(Key key) {
+		T image = null;
+		boolean outOfMemory = false;
+		try {
+			image = decode(key.Data, key.Width, key.Height);
+		} catch (OutOfMemoryError e) {
+			outOfMemory = true;
+		}
+		synchronized (this) {
+			myPendingKeys.remove(key);
+			if (image == null) {
+				if (outOfMemory) {
+					evict(0);
+				} else {
+					myFailedKeys.put(key, Boolean.TRUE);
+				}
+				return null;
+			}
+			final T old = myImages.put(key, image);
+			if (old != null) {
+				mySize -= sizeOf(old);
+			}
+			mySize += sizeOf(image);
+			evict(myBudget);
+			return image;
+		}
+	}
+
+	/*
+	 * Evicted images are only dropped, not recycled: a paint in progress
+	 * on another thread may still be drawing them.
+	 */
+	private void evict(long budget) {
+		final Iterator<T> it = myImages.values().iterator();
+		// the most recently used image is kept even if it exceeds the budget
+		while ((mySize > budget) && (myImages.size() > 1) && it.hasNext()) {
+			mySize -= sizeOf(it.next());
+			it.remove();
+		}
+	}
+
+	public final synchronized void clear() {
+		myImages.clear();
+		myFailedKeys.clear();
+		mySize = 0;
+	}
+}
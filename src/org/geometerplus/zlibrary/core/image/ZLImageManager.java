@@ -19,6 +19,8 @@
 
 package org.geometerplus.zlibrary.core.image;
 
+import java.util.WeakHashMap;
+
 public abstract class ZLImageManager {
 	private static ZLImageManager ourInstance;
 
@@ -30,7 +32,26 @@ public abstract class ZLImageManager {
 		ourInstance = this;
 	}
 
-	public abstract ZLImageData getImageData(ZLImage image);
+	/*
+	 * One data object per image, so decoded bitmaps cached by data
+	 * survive re-tokenizing of the paragraphs that refer to the image.
+	 */
+	private final WeakHashMap<ZLImage,ZLImageData> myImageData = new WeakHashMap<ZLImage,ZLImageData>();
+
+	public ZLImageData getImageData(ZLImage image) {
+		synchronized (myImageData) {
+			ZLImageData data = myImageData.get(image);
+			if (data == null) {
+				data = createImageData(image);
+				if (data != null) {
+					myImageData.put(image, data);
+				}
+			}
+			return data;
+		}
+	}
+
+	protected abstract ZLImageData createImageData(ZLImage image);
 	
 /*	protected final static class Color {
 		public final byte Red;
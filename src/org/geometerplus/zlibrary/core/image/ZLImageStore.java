@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.image;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+
+/*
+ * Content-addressed store of decoded images: <directory>/imagestore holds
+ * the image bytes, <directory>/imagestore.index the (SHA-1, offset, length)
+ * records. An image equal to one already in the store is not written again,
+ * so parsing the same book twice does not grow the store.
+ */
+public final class ZLImageStore {
+	private static final int MAGIC = 0x46424953;
+	private static final int VERSION = 1;
+	private static final int DIGEST_LENGTH = 20;
+
+	// stores of the recently used directories, so a parser does not
+	// reload the index for every image; a dropped store is just reloaded
+	private static final int MAX_STORES_NUMBER = 4;
+	private static final LinkedHashMap<String,ZLImageStore> ourStores =
+		new LinkedHashMap<String,ZLImageStore>(8, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String,ZLImageStore> eldest) {
+				return size() > MAX_STORES_NUMBER;
+			}
+		};
+
+	public static ZLImageStore forDirectory(String directory) {
+		synchronized (ourStores) {
+			ZLImageStore store = ourStores.get(directory);
+			if (store == null) {
+				store = new ZLImageStore(directory);
+				ourStores.put(directory, store);
+			}
+			return store;
+		}
+	}
+
+	private static final class Record {
+		final long Offset;
+		final int Length;
+
+		Record(long offset, int length) {
+			Offset = offset;
+			Length = length;
+		}
+	}
+
+	private final File myDirectory;
+	private final File myDataFile;
+	private final File myIndexFile;
+	private final HashMap<String,Record> myRecords = new HashMap<String,Record>();
+	// length of the data file as known to myRecords, -1 if not loaded
+	private long myDataLength = -1;
+
+	private ZLImageStore(String directory) {
+		myDirectory = new File(directory);
+		myDataFile = new File(directory, "imagestore");
+		myIndexFile = new File(directory, "imagestore.index");
+	}
+
+	public ZLFileImage store(String mimeType, byte[] data, int length) throws IOException {
+		// a dropped store and its replacement may exist at the same time,
+		// so writes to any store are serialized
+		synchronized (ourStores) {
+			return storeInternal(mimeType, data, length);
+		}
+	}
+
+	private ZLFileImage storeInternal(String mimeType, byte[] data, int length) throws IOException {
+		// the files may have been removed with their directory, e.g. by cache eviction,
+		// or appended by a store object dropped from ourStores
+		if (myDataLength != myDataFile.length()) {
+			load();
+		}
+
+		final String key = digest(data, length);
+		Record record = myRecords.get(key);
+		if (record == null) {
+			myDirectory.mkdirs();
+			if (myDataLength == 0) {
+				writeIndexHeader();
+			}
+			final OutputStream dataStream = new FileOutputStream(myDataFile, true);
+			try {
+				dataStream.write(data, 0, length);
+			} finally {
+				dataStream.close();
+			}
+			record = new Record(myDataLength, length);
+			myDataLength += length;
+
+			final DataOutputStream indexStream = new DataOutputStream(new FileOutputStream(myIndexFile, true));
+			try {
+				indexStream.writeUTF(key);
+				indexStream.writeLong(record.Offset);
+				indexStream.writeInt(record.Length);
+			} finally {
+				indexStream.close();
+			}
+			myRecords.put(key, record);
+		}
+		return new ZLFileImage(
+			mimeType, ZLFile.createFileByPath(myDataFile.getAbsolutePath()), (int)record.Offset, record.Length
+		);
+	}
+
+	private void load() {
+		myRecords.clear();
+		final long dataLength = myDataFile.length();
+		if (dataLength > 0 && myIndexFile.exists()) {
+			try {
+				final DataInputStream stream = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(myIndexFile))
+				);
+				try {
+					if (stream.readInt() == MAGIC && stream.readInt() == VERSION) {
+						long end = 0;
+						while (stream.available() > 0) {
+							final String key = stream.readUTF();
+							final long offset = stream.readLong();
+							final int length = stream.readInt();
+							if (offset != end || offset + length > dataLength) {
+								break;
+							}
+							myRecords.put(key, new Record(offset, length));
+							end = offset + length;
+						}
+						if (end == dataLength) {
+							myDataLength = dataLength;
+							return;
+						}
+					}
+				} finally {
+					stream.close();
+				}
+			} catch (IOException e) {
+			}
+		}
+		// missing, foreign or partially written store: start it anew
+		myRecords.clear();
+		myDataFile.delete();
+		myIndexFile.delete();
+		myDataLength = 0;
+	}
+
+	private void writeIndexHeader() throws IOException {
+		final DataOutputStream stream = new DataOutputStream(new FileOutputStream(myIndexFile));
+		try {
+			stream.writeInt(MAGIC);
+			stream.writeInt(VERSION);
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static String digest(byte[] data, int length) throws IOException {
+		final byte[] hash;
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(data, 0, length);
+			hash = digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available");
+		}
+		final StringBuilder builder = new StringBuilder(2 * DIGEST_LENGTH);
+		for (byte b : hash) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+}
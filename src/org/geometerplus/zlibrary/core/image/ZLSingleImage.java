@@ -27,6 +27,14 @@ public abstract class ZLSingleImage implements ZLImage {
 	}
 
 	public abstract byte [] byteData();
+
+	/*
+	 * At least the first maxLength bytes of the image (all of them if it is shorter),
+	 * e.g. to read the image header; overridden where a part can be read alone.
+	 */
+	public byte [] headerData(int maxLength) {
+		return byteData();
+	}
 	
 	public final String mimeType() {
 		return myMimeType;
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.network;
+
+import java.io.*;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.util.*;
+
+/*
+ * Disk-backed HTTP cache: every response body lives in its own file in
+ * the cache directory, <directory>/index holds the validators (ETag,
+ * Last-Modified) and expiration times. Least recently used entries are
+ * removed when the total size of the bodies exceeds the budget.
+ */
+public final class ZLNetworkCache {
+	private static final int MAGIC = 0x46424843;
+	private static final int VERSION = 1;
+	// upper bound for the heuristic freshness of responses without explicit expiration
+	private static final long MAX_HEURISTIC_AGE = 24 * 60 * 60 * 1000;
+
+	static final class Entry {
+		final String URL;
+		final String FileName;
+		final String ETag;
+		final String LastModified;
+		final String Encoding;
+		final long Expires;
+		final long Size;
+
+		Entry(String url, String fileName, String eTag, String lastModified, String encoding, long expires, long size) {
+			URL = url;
+			FileName = fileName;
+			ETag = eTag;
+			LastModified = lastModified;
+			Encoding = encoding;
+			Expires = expires;
+			Size = size;
+		}
+
+		boolean isFresh() {
+			return System.currentTimeMillis() < Expires;
+		}
+	}
+
+	private final File myDirectory;
+	private final File myIndexFile;
+	private final long myBudget;
+	private final LinkedHashMap<String,Entry> myEntries = new LinkedHashMap<String,Entry>(32, 0.75f, true);
+	private long mySize;
+	private boolean myIsLoaded;
+
+	public ZLNetworkCache(String directory, long budget) {
+		myDirectory = new File(directory);
+		myIndexFile = new File(directory, "index");
+		myBudget = budget;
+	}
+
+	synchronized Entry get(String url) {
+		load();
+		final Entry entry = myEntries.get(url);
+		if (entry != null && !new File(myDirectory, entry.FileName).exists()) {
+			myEntries.remove(url);
+			mySize -= entry.Size;
+			return null;
+		}
+		return entry;
+	}
+
+	InputStream open(Entry entry) throws IOException {
+		return new FileInputStream(new File(myDirectory, entry.FileName));
+	}
+
+	void setConditions(Entry entry, URLConnection connection) {
+		if (entry.ETag != null) {
+			connection.setRequestProperty("If-None-Match", entry.ETag);
+		}
+		if (entry.LastModified != null) {
+			connection.setRequestProperty("If-Modified-Since", entry.LastModified);
+		}
+	}
+
+	// called on 304 Not Modified; returns the entry with updated validators
+	synchronized Entry revalidate(Entry entry, URLConnection connection) {
+		final String eTag = connection.getHeaderField("ETag");
+		final String lastModified = connection.getHeaderField("Last-Modified");
+		final Entry updated = new Entry(
+			entry.URL, entry.FileName,
+			eTag != null ? eTag : entry.ETag,
+			lastModified != null ? lastModified : entry.LastModified,
+			entry.Encoding, expirationTime(connection), entry.Size
+		);
+		if (myEntries.get(entry.URL) == entry) {
+			myEntries.put(entry.URL, updated);
+			saveIndex();
+		}
+		return updated;
+	}
+
+	// returns a stream that copies the response body to the cache
+	// or the stream itself if the response must not be cached
+	InputStream store(String url, URLConnection connection, InputStream stream) {
+		final String cacheControl = connection.getHeaderField("Cache-Control");
+		if (cacheControl != null && cacheControl.toLowerCase().contains("no-store")) {
+			return stream;
+		}
+		final String eTag = connection.getHeaderField("ETag");
+		final String lastModified = connection.getHeaderField("Last-Modified");
+		final long expires = expirationTime(connection);
+		if (eTag == null && lastModified == null && expires <= System.currentTimeMillis()) {
+			return stream;
+		}
+		final int length = connection.getContentLength();
+		if (length > myBudget / 4) {
+			return stream;
+		}
+		try {
+			myDirectory.mkdirs();
+			final File file = File.createTempFile("body", ".tmp", myDirectory);
+			final Entry entry = new Entry(
+				url, null, eTag, lastModified, connection.getContentEncoding(), expires, 0
+			);
+			return new CachingStream(stream, file, entry);
+		} catch (IOException e) {
+			return stream;
+		}
+	}
+
+	private synchronized void commit(Entry entry, File body, long size) {
+		load();
+		final String fileName = fileName(entry.URL);
+		final File file = fileName != null ? new File(myDirectory, fileName) : null;
+		if (file != null) {
+			file.delete();
+		}
+		if (file == null || !body.renameTo(file)) {
+			body.delete();
+			return;
+		}
+		final Entry old = myEntries.put(entry.URL, new Entry(
+			entry.URL, fileName, entry.ETag, entry.LastModified, entry.Encoding, entry.Expires, size
+		));
+		if (old != null) {
+			mySize -= old.Size;
+		}
+		mySize += size;
+		for (Iterator<Entry> it = myEntries.values().iterator(); mySize > myBudget && it.hasNext(); ) {
+			final Entry eldest = it.next();
+			if (eldest.URL.equals(entry.URL)) {
+				continue;
+			}
+			it.remove();
+			mySize -= eldest.Size;
+			new File(myDirectory, eldest.FileName).delete();
+		}
+		saveIndex();
+	}
+
+	public synchronized void clear() {
+		load();
+		for (Entry entry : myEntries.values()) {
+			new File(myDirectory, entry.FileName).delete();
+		}
+		myEntries.clear();
+		mySize = 0;
+		myIndexFile.delete();
+	}
+
+	private static long expirationTime(URLConnection connection) {
+		final long now = System.currentTimeMillis();
+		final String cacheControl = connection.getHeaderField("Cache-Control");
+		if (cacheControl != null) {
+			for (String directive : cacheControl.toLowerCase().split(",")) {
+				directive = directive.trim();
+				if (directive.equals("no-cache") || directive.equals("must-revalidate")) {
+					return 0;
+				}
+				if (directive.startsWith("max-age=")) {
+					try {
+						return now + 1000 * Long.parseLong(directive.substring(8).trim());
+					} catch (NumberFormatException e) {
+						return 0;
+					}
+				}
+			}
+		}
+		final long expires = connection.getExpiration();
+		if (expires != 0) {
+			return expires;
+		}
+		final long lastModified = connection.getLastModified();
+		if (lastModified != 0) {
+			final long date = connection.getDate() != 0 ? connection.getDate() : now;
+			return now + Math.min(Math.max(date - lastModified, 0) / 10, MAX_HEURISTIC_AGE);
+		}
+		return 0;
+	}
+
+	private static String fileName(String url) {
+		final byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+		} catch (Exception e) {
+			return null;
+		}
+		final StringBuilder builder = new StringBuilder(2 * hash.length);
+		for (byte b : hash) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+
+	private void load() {
+		if (myIsLoaded) {
+			return;
+		}
+		myIsLoaded = true;
+		if (!myIndexFile.exists()) {
+			return;
+		}
+		try {
+			final DataInputStream stream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(myIndexFile))
+			);
+			try {
+				if (stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+					return;
+				}
+				for (int count = stream.readInt(); count > 0; --count) {
+					final String url = stream.readUTF();
+					final Entry entry = new Entry(
+						url, stream.readUTF(), readString(stream), readString(stream),
+						readString(stream), stream.readLong(), stream.readLong()
+					);
+					myEntries.put(url, entry);
+					mySize += entry.Size;
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			myEntries.clear();
+			mySize = 0;
+		}
+	}
+
+	private void saveIndex() {
+		try {
+			final DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(myIndexFile))
+			);
+			try {
+				stream.writeInt(MAGIC);
+				stream.writeInt(VERSION);
+				stream.writeInt(myEntries.size());
+				// eldest first, so the access order survives reloading
+				for (Entry entry : myEntries.values()) {
+					stream.writeUTF(entry.URL);
+					stream.writeUTF(entry.FileName);
+					writeString(stream, entry.ETag);
+					writeString(stream, entry.LastModified);
+					writeString(stream, entry.Encoding);
+					stream.writeLong(entry.Expires);
+					stream.writeLong(entry.Size);
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			myIndexFile.delete();
+		}
+	}
+
+	private static String readString(DataInputStream stream) throws IOException {
+		return stream.readBoolean() ? stream.readUTF() : null;
+	}
+
+	private static void writeString(DataOutputStream stream, String value) throws IOException {
+		stream.writeBoolean(value != null);
+		if (value != null) {
+			stream.writeUTF(value);
+		}
+	}
+
+	/*
+	 * Copies everything read through it into a temporary file. On close
+	 * the rest of the body is drained and the file becomes a cache entry;
+	 * a failed or oversized transfer leaves no entry.
+	 */
+	private final class CachingStream extends FilterInputStream {
+		private final File myFile;
+		private final Entry myEntry;
+		private OutputStream myOutput;
+		private long mySize;
+
+		CachingStream(InputStream stream, File file, Entry entry) throws IOException {
+			super(stream);
+			myFile = file;
+			myEntry = entry;
+			myOutput = new BufferedOutputStream(new FileOutputStream(file));
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b != -1) {
+				copy(new byte[] { (byte)b }, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			final int size = super.read(buffer, offset, length);
+			if (size > 0) {
+				copy(buffer, offset, size);
+			}
+			return size;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final byte[] buffer = new byte[(int)Math.min(n, 8192)];
+			final int size = read(buffer, 0, buffer.length);
+			return Math.max(size, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void copy(byte[] buffer, int offset, int length) {
+			if (myOutput == null) {
+				return;
+			}
+			mySize += length;
+			try {
+				if (mySize > myBudget / 4) {
+					throw new IOException("response is too large to be cached");
+				}
+				myOutput.write(buffer, offset, length);
+			} catch (IOException e) {
+				abort();
+			}
+		}
+
+		private void abort() {
+			try {
+				myOutput.close();
+			} catch (IOException e) {
+			}
+			myOutput = null;
+			myFile.delete();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				if (myOutput != null) {
+					final byte[] buffer = new byte[8192];
+					while (myOutput != null && read(buffer, 0, buffer.length) != -1);
+				}
+			} catch (IOException e) {
+				abort();
+			} finally {
+				super.close();
+			}
+			if (myOutput != null) {
+				try {
+					myOutput.close();
+				} catch (IOException e) {
+					abort();
+					return;
+				}
+				myOutput = null;
+				commit(myEntry, myFile, mySize);
+			}
+		}
+	}
+}
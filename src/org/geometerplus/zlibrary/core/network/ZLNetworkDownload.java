@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.network;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.geometerplus.zlibrary.core.util.ZLBase64Decoder;
+import org.geometerplus.zlibrary.core.util.ZLNetworkUtil;
+
+/*
+ * Resumable download of a single file. Data goes to <file>.part; when
+ * the server supports Range requests, the segments and their positions
+ * are kept in <file>.part.state, so an interrupted download continues
+ * where it stopped, even after restarting the application. The file
+ * appears under its own name only after its length and, if the server
+ * sent one, its digest have been verified.
+ */
+public class ZLNetworkDownload {
+	public interface Listener {
+		// total is -1 if unknown; called from network threads
+		void onProgress(long downloaded, long total);
+	}
+
+	private static final int MAGIC = 0x4642444c;
+	private static final int VERSION = 1;
+	// smaller files are never split into segments
+	private static final long MIN_SEGMENT_SIZE = 512 * 1024;
+	// how often the state is saved while a segment is being loaded
+	private static final long SAVE_INTERVAL = 256 * 1024;
+	private static final int BUFFER_SIZE = 32 * 1024;
+
+	private static final class Segment {
+		final long Start;
+		final long End;
+		volatile long Position;
+
+		Segment(long start, long end, long position) {
+			Start = start;
+			End = end;
+			Position = position;
+		}
+	}
+
+	public final String URL;
+	public final String SSLCertificate;
+	public final File Target;
+	// parallel connections used for files larger than 2 * MIN_SEGMENT_SIZE
+	public int SegmentsNumber = 1;
+
+	private final File myPartFile;
+	private final File myStateFile;
+	private final Listener myListener;
+
+	private long myTotal;
+	private String myETag;
+	private String myLastModified;
+	// full-file digest as "<algorithm>=<base64>", from Digest or Content-MD5
+	private String myDigest;
+	private final ArrayList<Segment> mySegments = new ArrayList<Segment>();
+	// set when the server has answered a Range request with the whole file
+	private volatile boolean myIsChanged;
+
+	public ZLNetworkDownload(String url, String sslCertificate, File file, Listener listener) {
+		URL = url;
+		SSLCertificate = sslCertificate;
+		Target = file;
+		myPartFile = new File(file.getPath() + ".part");
+		myStateFile = new File(file.getPath() + ".part.state");
+		myListener = listener;
+	}
+
+	// returns error message; a failed download can be resumed by calling run() again
+	public String run() {
+		String error = runOnce();
+		if (error != null && myIsChanged) {
+			// the file has been changed on the server: start from scratch
+			reset();
+			error = runOnce();
+		}
+		if (error != null && mySegments.isEmpty()) {
+			// nothing to resume from
+			reset();
+		}
+		return error;
+	}
+
+	public boolean isStarted() {
+		return myStateFile.exists();
+	}
+
+	private String runOnce() {
+		myIsChanged = false;
+		if (!loadState()) {
+			reset();
+			final String error = ZLNetworkManager.Instance().perform(new SegmentRequest(null));
+			if (error != null) {
+				return error;
+			}
+		}
+
+		final LinkedList<ZLNetworkRequest> requests = new LinkedList<ZLNetworkRequest>();
+		for (Segment segment : mySegments) {
+			if (segment.Position < segment.End) {
+				requests.add(new SegmentRequest(segment));
+			}
+		}
+		if (!requests.isEmpty()) {
+			final String error = ZLNetworkManager.Instance().perform(requests);
+			if (error != null) {
+				saveState();
+				return error;
+			}
+		}
+		return finish();
+	}
+
+	private String finish() {
+		final String corrupted =
+			ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_CORRUPTED_FILE, Target.getName());
+		if (myTotal >= 0 && myPartFile.length() != myTotal) {
+			reset();
+			return corrupted;
+		}
+		if (myDigest != null && !checkDigest()) {
+			reset();
+			return corrupted;
+		}
+		Target.delete();
+		if (!myPartFile.renameTo(Target)) {
+			return ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_CREATE_FILE, Target.getPath());
+		}
+		myStateFile.delete();
+		return null;
+	}
+
+	private void reset() {
+		mySegments.clear();
+		myTotal = -1;
+		myETag = null;
+		myLastModified = null;
+		myDigest = null;
+		myPartFile.delete();
+		myStateFile.delete();
+	}
+
+	private long downloaded() {
+		long downloaded = 0;
+		for (Segment segment : mySegments) {
+			downloaded += segment.Position - segment.Start;
+		}
+		return downloaded;
+	}
+
+	// validator for If-Range; weak ETags are not allowed there
+	private String validator() {
+		if (myETag != null && !myETag.startsWith("W/")) {
+			return myETag;
+		}
+		return myLastModified;
+	}
+
+	private void readHeaders(URLConnection connection) {
+		myETag = connection.getHeaderField("ETag");
+		myLastModified = connection.getHeaderField("Last-Modified");
+		myDigest = null;
+		final String digest = connection.getHeaderField("Digest");
+		if (digest != null) {
+			for (String item : digest.split(",")) {
+				final int index = item.indexOf('=');
+				if (index != -1 && algorithm(item.substring(0, index).trim()) != null) {
+					myDigest = item.trim();
+					break;
+				}
+			}
+		}
+	}
+
+	private static String algorithm(String name) {
+		name = name.toUpperCase();
+		if (name.equals("MD5")) {
+			return "MD5";
+		} else if (name.equals("SHA")) {
+			return "SHA-1";
+		} else if (name.equals("SHA-256")) {
+			return "SHA-256";
+		}
+		return null;
+	}
+
+	private boolean checkDigest() {
+		final int index = myDigest.indexOf('=');
+		try {
+			final MessageDigest digest =
+				MessageDigest.getInstance(algorithm(myDigest.substring(0, index).trim()));
+			final InputStream stream = new FileInputStream(myPartFile);
+			try {
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				while (true) {
+					final int size = stream.read(buffer);
+					if (size <= 0) {
+						break;
+					}
+					digest.update(buffer, 0, size);
+				}
+			} finally {
+				stream.close();
+			}
+			final String expected = myDigest.substring(index + 1).trim();
+			final ZLBase64Decoder decoder = new ZLBase64Decoder(expected.length());
+			decoder.decode(expected.toCharArray(), 0, expected.length());
+			decoder.finish();
+			final byte[] actual = digest.digest();
+			if (actual.length != decoder.length()) {
+				return false;
+			}
+			final byte[] data = decoder.data();
+			for (int i = 0; i < actual.length; ++i) {
+				if (actual[i] != data[i]) {
+					return false;
+				}
+			}
+			return true;
+		} catch (Exception e) {
+			// unknown algorithm or unreadable file: nothing to compare with
+			return myPartFile.exists();
+		}
+	}
+
+	private boolean loadState() {
+		if (!myStateFile.exists() || !myPartFile.exists()) {
+			return false;
+		}
+		try {
+			final DataInputStream stream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(myStateFile))
+			);
+			try {
+				if (stream.readInt() != MAGIC || stream.readInt() != VERSION ||
+					!URL.equals(stream.readUTF())) {
+					return false;
+				}
+				myTotal = stream.readLong();
+				myETag = readString(stream);
+				myLastModified = readString(stream);
+				myDigest = readString(stream);
+				mySegments.clear();
+				for (int count = stream.readInt(); count > 0; --count) {
+					final long start = stream.readLong();
+					final long end = stream.readLong();
+					final long position = stream.readLong();
+					if (start > position || position > end || end > myTotal) {
+						return false;
+					}
+					mySegments.add(new Segment(start, end, position));
+				}
+				return validator() != null && !mySegments.isEmpty();
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private synchronized void saveState() {
+		if (mySegments.isEmpty()) {
+			return;
+		}
+		try {
+			final DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(myStateFile))
+			);
+			try {
+				stream.writeInt(MAGIC);
+				stream.writeInt(VERSION);
+				stream.writeUTF(URL);
+				stream.writeLong(myTotal);
+				writeString(stream, myETag);
+				writeString(stream, myLastModified);
+				writeString(stream, myDigest);
+				stream.writeInt(mySegments.size());
+				for (Segment segment : mySegments) {
+					stream.writeLong(segment.Start);
+					stream.writeLong(segment.End);
+					stream.writeLong(segment.Position);
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			myStateFile.delete();
+		}
+	}
+
+	private static String readString(DataInputStream stream) throws IOException {
+		return stream.readBoolean() ? stream.readUTF() : null;
+	}
+
+	private static void writeString(DataOutputStream stream, String value) throws IOException {
+		stream.writeBoolean(value != null);
+		if (value != null) {
+			stream.writeUTF(value);
+		}
+	}
+
+	// returns total length from "bytes <first>-<last>/<total>", -1 if unknown
+	private static long totalLength(String contentRange, long first) {
+		if (contentRange == null || !contentRange.startsWith("bytes ")) {
+			return -1;
+		}
+		final int dash = contentRange.indexOf('-');
+		final int slash = contentRange.indexOf('/');
+		if (dash == -1 || slash == -1) {
+			return -1;
+		}
+		try {
+			if (Long.parseLong(contentRange.substring(6, dash).trim()) != first) {
+				return -1;
+			}
+			return Long.parseLong(contentRange.substring(slash + 1).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * Without a segment, the request is a probe: it asks for the first
+	 * byte to learn the length and validators of the file. A server that
+	 * ignores Range sends the whole file, which is then loaded in one go.
+	 */
+	private final class SegmentRequest extends ZLNetworkRequest {
+		private final Segment mySegment;
+
+		SegmentRequest(Segment segment) {
+			super(ZLNetworkDownload.this.URL, ZLNetworkDownload.this.SSLCertificate);
+			mySegment = segment;
+			UseCache = false;
+			// a large book may take long; stalled connections are caught by the read timeout
+			Timeout = 0;
+		}
+
+		@Override
+		protected void setRequestProperties(URLConnection connection) {
+			// Range refers to the encoded entity, so ask for the plain one
+			connection.setRequestProperty("Accept-Encoding", "identity");
+			if (mySegment == null) {
+				connection.setRequestProperty("Range", "bytes=0-0");
+			} else {
+				connection.setRequestProperty("Range", "bytes=" + mySegment.Position + "-" + (mySegment.End - 1));
+				connection.setRequestProperty("If-Range", validator());
+			}
+		}
+
+		@Override
+		public String handleStream(URLConnection connection, InputStream stream) throws IOException {
+			final int code = ((HttpURLConnection)connection).getResponseCode();
+			final String contentRange = connection.getHeaderField("Content-Range");
+			if (mySegment == null) {
+				readHeaders(connection);
+				final long total = totalLength(contentRange, 0);
+				if (code == HttpURLConnection.HTTP_PARTIAL && total > 0 && validator() != null) {
+					split(total);
+					saveState();
+					return null;
+				}
+				if (code == HttpURLConnection.HTTP_PARTIAL) {
+					// partial, but not resumable: ask for the whole file
+					return loadWholeFile();
+				}
+				if (myDigest == null) {
+					final String md5 = connection.getHeaderField("Content-MD5");
+					if (md5 != null) {
+						myDigest = "MD5=" + md5.trim();
+					}
+				}
+				return write(stream, 0, connection.getContentLength());
+			}
+
+			if (code != HttpURLConnection.HTTP_PARTIAL ||
+				totalLength(contentRange, mySegment.Position) != myTotal) {
+				myIsChanged = true;
+				return ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_SOMETHING_WRONG, ZLNetworkUtil.hostFromUrl(URL));
+			}
+			return write(stream, mySegment.Position, -1);
+		}
+
+		private String loadWholeFile() {
+			final ZLNetworkRequest request = new ZLNetworkRequest(URL, SSLCertificate) {
+				@Override
+				public String handleStream(URLConnection connection, InputStream stream) throws IOException {
+					return write(stream, 0, connection.getContentLength());
+				}
+			};
+			request.UseCache = false;
+			request.Timeout = 0;
+			return ZLNetworkManager.Instance().perform(request);
+		}
+
+		private void split(long total) {
+			myTotal = total;
+			mySegments.clear();
+			final int number = (int)Math.max(1, Math.min(SegmentsNumber, total / MIN_SEGMENT_SIZE));
+			final long size = (total + number - 1) / number;
+			for (long start = 0; start < total; start += size) {
+				mySegments.add(new Segment(start, Math.min(start + size, total), start));
+			}
+		}
+
+		// writes the stream to the part file; length is -1 for segments
+		// and unknown lengths, a segment stops at its end
+		private String write(InputStream stream, long position, long length) throws IOException {
+			final RandomAccessFile file;
+			try {
+				file = new RandomAccessFile(myPartFile, "rw");
+			} catch (FileNotFoundException e) {
+				return ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_CREATE_FILE, myPartFile.getPath());
+			}
+			final long total = mySegment != null ? myTotal : length;
+			try {
+				file.seek(position);
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				long saved = position;
+				while (mySegment == null || position < mySegment.End) {
+					int toRead = buffer.length;
+					if (mySegment != null) {
+						toRead = (int)Math.min(toRead, mySegment.End - position);
+					}
+					final int size = stream.read(buffer, 0, toRead);
+					if (size <= 0) {
+						break;
+					}
+					file.write(buffer, 0, size);
+					position += size;
+					if (mySegment != null) {
+						mySegment.Position = position;
+						if (position - saved >= SAVE_INTERVAL) {
+							saved = position;
+							saveState();
+						}
+					}
+					if (myListener != null) {
+						myListener.onProgress(mySegment != null ? downloaded() : position, total);
+					}
+				}
+			} finally {
+				file.close();
+			}
+			if (mySegment != null) {
+				if (position < mySegment.End) {
+					return ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_SOMETHING_WRONG, ZLNetworkUtil.hostFromUrl(URL));
+				}
+			} else {
+				myTotal = length >= 0 ? length : position;
+			}
+			return null;
+		}
+	}
+}
@@ -37,6 +37,7 @@ public class ZLNetworkErrors {
 	public static final String ERROR_SOMETHING_WRONG = "somethingWrongMessage";
 	public static final String ERROR_CREATE_DIRECTORY = "couldntCreateDirectoryMessage";
 	public static final String ERROR_CREATE_FILE = "couldntCreateFileMessage";
+	public static final String ERROR_CORRUPTED_FILE = "corruptedFileMessage";
 	public static final String ERROR_CONNECT_TO_HOST = "couldntConnectMessage";
 	public static final String ERROR_RESOLVE_HOST = "couldntResolveHostMessage";
 	public static final String ERROR_HOST_CANNOT_BE_REACHED = "hostCantBeReached";
@@ -20,6 +20,7 @@
 package org.geometerplus.zlibrary.core.network;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 import java.net.*;
 import javax.net.ssl.*;
@@ -32,15 +33,175 @@ import org.geometerplus.zlibrary.core.filesystem.ZLResourceFile;
 
 public class ZLNetworkManager {
 
+	public interface Controller {
+		// polled while requests are running; once true is returned, all
+		// pending requests are cancelled and perform returns immediately
+		boolean confirmInterrupt();
+
+		// called in the performing thread when a request has finished;
+		// returns a follow-up request (e.g. the next page) or null
+		ZLNetworkRequest onFinished(ZLNetworkRequest request, String error);
+	}
+
+	private static final int THREADS_NUMBER = 6;
+	private static final int CONNECTIONS_PER_HOST = 2;
+	// how often interrupt conditions are checked while waiting for requests
+	private static final long POLL_INTERVAL = 200;
+
 	private static ZLNetworkManager ourManager;
 
-	public static ZLNetworkManager Instance() {
+	public static synchronized ZLNetworkManager Instance() {
 		if (ourManager == null) {
 			ourManager = new ZLNetworkManager();
 		}
 		return ourManager;
 	}
 
+	private static final ThreadFactory ourThreadFactory = new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "ZLNetworkManager");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final ExecutorService myPool = Executors.newFixedThreadPool(THREADS_NUMBER, ourThreadFactory);
+	// calls without Timeout (download segments) may hold a connection for minutes:
+	// they run on their own threads and are limited per host separately,
+	// so short requests to the same host never wait for them
+	private final ExecutorService myLongCallPool = Executors.newCachedThreadPool(ourThreadFactory);
+
+	private volatile ZLNetworkCache myCache;
+
+	public void setCache(ZLNetworkCache cache) {
+		myCache = cache;
+	}
+
+	public ZLNetworkCache getCache() {
+		return myCache;
+	}
+
+	private static final class HostQueue {
+		// number of calls of this host submitted to the pool
+		int Active;
+		final LinkedList<Call> Waiting = new LinkedList<Call>();
+	}
+
+	// only calls that can start at once are submitted to the pool,
+	// so a busy host never holds pool threads of other hosts
+	private final HashMap<String,HostQueue> myHostQueues = new HashMap<String,HostQueue>();
+	private final HashMap<String,HostQueue> myLongCallHostQueues = new HashMap<String,HostQueue>();
+
+	private HashMap<String,HostQueue> hostQueues(Call call) {
+		return call.IsLong ? myLongCallHostQueues : myHostQueues;
+	}
+
+	private ExecutorService pool(Call call) {
+		return call.IsLong ? myLongCallPool : myPool;
+	}
+
+	private void schedule(Call call) {
+		final HashMap<String,HostQueue> queues = hostQueues(call);
+		synchronized (queues) {
+			HostQueue queue = queues.get(call.Host);
+			if (queue == null) {
+				queue = new HostQueue();
+				queues.put(call.Host, queue);
+			}
+			if (queue.Active == CONNECTIONS_PER_HOST) {
+				queue.Waiting.add(call);
+				return;
+			}
+			++queue.Active;
+		}
+		pool(call).execute(call);
+	}
+
+	private void onCallFinished(Call call) {
+		final HashMap<String,HostQueue> queues = hostQueues(call);
+		Call next = null;
+		synchronized (queues) {
+			final HostQueue queue = queues.get(call.Host);
+			while (!queue.Waiting.isEmpty()) {
+				final Call waiting = queue.Waiting.removeFirst();
+				if (!waiting.isCancelled()) {
+					next = waiting;
+					break;
+				}
+			}
+			if (next == null && --queue.Active == 0) {
+				queues.remove(call.Host);
+			}
+		}
+		if (next != null) {
+			pool(next).execute(next);
+		}
+	}
+
+	private final class Call implements Runnable {
+		final ZLNetworkRequest Request;
+		final String Host;
+		final boolean IsLong;
+		volatile String Error;
+
+		private final BlockingQueue<Call> myCompleted;
+		// absolute time in milliseconds, set when the call starts running
+		private volatile long myDeadline = Long.MAX_VALUE;
+		private volatile HttpURLConnection myConnection;
+		private volatile boolean myIsCancelled;
+
+		Call(ZLNetworkRequest request, BlockingQueue<Call> completed) {
+			Request = request;
+			Host = ZLNetworkUtil.hostFromUrl(request.URL);
+			IsLong = request.Timeout == 0;
+			myCompleted = completed;
+		}
+
+		public void run() {
+			try {
+				if (Request.Timeout > 0) {
+					myDeadline = System.currentTimeMillis() + Request.Timeout;
+				}
+				if (!myIsCancelled) {
+					Error = perform(Request, this);
+				}
+			} catch (RuntimeException e) {
+				Error = ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_SOMETHING_WRONG, Host);
+			} finally {
+				onCallFinished(this);
+				myCompleted.add(this);
+			}
+		}
+
+		// returns false if the call has already been cancelled
+		boolean attach(HttpURLConnection connection) {
+			myConnection = connection;
+			if (myIsCancelled) {
+				connection.disconnect();
+				return false;
+			}
+			return true;
+		}
+
+		// unblocks a connection stuck in connect or read;
+		// a call still waiting for its host is never started
+		void cancel() {
+			myIsCancelled = true;
+			final HttpURLConnection connection = myConnection;
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+
+		boolean isCancelled() {
+			return myIsCancelled;
+		}
+
+		long remainingTime() {
+			final long deadline = myDeadline;
+			return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+		}
+	}
 
 	private String doBeforeRequest(ZLNetworkRequest request) {
 		final String err = request.doBefore();
@@ -97,12 +258,31 @@ public class ZLNetworkManager {
 	}
 
 	public String perform(ZLNetworkRequest request) {
+		return perform(request, null);
+	}
+
+	private String perform(ZLNetworkRequest request, Call call) {
 		boolean sucess = false;
 		try {
 			final String error = doBeforeRequest(request);
 			if (error != null) {
 				return error;
 			}
+			final ZLNetworkCache cache = request.UseCache ? myCache : null;
+			ZLNetworkCache.Entry entry = cache != null ? cache.get(request.URL) : null;
+			if (entry != null && entry.isFresh()) {
+				final InputStream stream = cache.open(entry);
+				try {
+					final String err = request.doHandleStream(null, stream, entry.Encoding);
+					if (err != null) {
+						return err;
+					}
+				} finally {
+					stream.close();
+				}
+				sucess = true;
+				return null;
+			}
 			HttpURLConnection httpConnection = null;
 			int response = -1;
 			for (int retryCounter = 0; retryCounter < 3 && response == -1; ++retryCounter) {
@@ -116,13 +296,46 @@ public class ZLNetworkManager {
 				if (err != null) {
 					return err;
 				}
+				request.setRequestProperties(httpConnection);
+				if (entry != null) {
+					cache.setConditions(entry, httpConnection);
+				}
+				if (call != null) {
+					if (!call.attach(httpConnection)) {
+						return null;
+					}
+					final long remaining = call.remainingTime();
+					if (remaining <= 0) {
+						return ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_TIMEOUT);
+					}
+					if (remaining < httpConnection.getConnectTimeout()) {
+						httpConnection.setConnectTimeout((int)remaining);
+					}
+					if (remaining < httpConnection.getReadTimeout()) {
+						httpConnection.setReadTimeout((int)remaining);
+					}
+				}
 				httpConnection.connect();
 				response = httpConnection.getResponseCode();
 			}
-			if (response == HttpURLConnection.HTTP_OK) {
-				InputStream stream = httpConnection.getInputStream();
+			if (response == HttpURLConnection.HTTP_OK ||
+				response == HttpURLConnection.HTTP_PARTIAL ||
+				(entry != null && response == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+				InputStream stream;
+				final String encoding;
+				if (response == HttpURLConnection.HTTP_NOT_MODIFIED) {
+					entry = cache.revalidate(entry, httpConnection);
+					stream = cache.open(entry);
+					encoding = entry.Encoding;
+				} else {
+					stream = httpConnection.getInputStream();
+					encoding = httpConnection.getContentEncoding();
+					if (cache != null && response == HttpURLConnection.HTTP_OK) {
+						stream = cache.store(request.URL, httpConnection, stream);
+					}
+				}
 				try {
-					final String err = request.doHandleStream(httpConnection, stream);
+					final String err = request.doHandleStream(httpConnection, stream, encoding);
 					if (err != null) {
 						return err;
 					}
@@ -158,6 +371,9 @@ public class ZLNetworkManager {
 		} catch (SocketTimeoutException ex) {
 			return ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_TIMEOUT);
 		} catch (IOException ex) {
+			if (call != null && call.isCancelled()) {
+				return null;
+			}
 			ex.printStackTrace();
 			return ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_SOMETHING_WRONG, ZLNetworkUtil.hostFromUrl(request.URL));
 		} finally {
@@ -170,20 +386,76 @@ public class ZLNetworkManager {
 	}
 
 	public String perform(List<ZLNetworkRequest> requests) {
+		return perform(requests, null);
+	}
+
+	// executes requests concurrently, at most THREADS_NUMBER at once and
+	// at most CONNECTIONS_PER_HOST per host (requests without Timeout are
+	// counted apart from the others); requests running longer than
+	// their Timeout (counted from the moment they start) are cancelled
+	// with ERROR_TIMEOUT
+	public String perform(List<ZLNetworkRequest> requests, Controller controller) {
 		if (requests.size() == 0) {
 			return "";
 		}
-		if (requests.size() == 1) {
+		if (requests.size() == 1 && controller == null) {
 			return perform(requests.get(0));
 		}
-		HashSet<String> errors = new HashSet<String>();
-		// TODO: implement concurrent execution !!!
+
+		final LinkedHashSet<String> errors = new LinkedHashSet<String>();
+		final LinkedBlockingQueue<Call> completed = new LinkedBlockingQueue<Call>();
+		final HashSet<Call> running = new HashSet<Call>();
 		for (ZLNetworkRequest r: requests) {
-			final String e = perform(r);
-			if (e != null && !errors.contains(e)) {
-				errors.add(e);
+			final Call call = new Call(r, completed);
+			running.add(call);
+			schedule(call);
+		}
+
+		try {
+			while (!running.isEmpty()) {
+				if (controller != null && controller.confirmInterrupt()) {
+					break;
+				}
+
+				long timeout = POLL_INTERVAL;
+				for (Iterator<Call> it = running.iterator(); it.hasNext(); ) {
+					final Call call = it.next();
+					final long remaining = call.remainingTime();
+					if (remaining <= 0) {
+						call.cancel();
+						it.remove();
+						errors.add(ZLNetworkErrors.errorMessage(ZLNetworkErrors.ERROR_TIMEOUT));
+					} else if (remaining < timeout) {
+						timeout = remaining;
+					}
+				}
+
+				final Call call = completed.poll(timeout, TimeUnit.MILLISECONDS);
+				if (call == null || !running.remove(call)) {
+					// nothing finished or already cancelled by deadline
+					continue;
+				}
+				final String error = call.Error;
+				if (error != null) {
+					errors.add(error);
+				}
+				if (controller != null) {
+					final ZLNetworkRequest next = controller.onFinished(call.Request, error);
+					if (next != null) {
+						final Call nextCall = new Call(next, completed);
+						running.add(nextCall);
+						schedule(nextCall);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Call call: running) {
+				call.cancel();
 			}
 		}
+
 		if (errors.size() == 0) {
 			return null;
 		}
@@ -203,7 +475,7 @@ public class ZLNetworkManager {
 	}
 
 	public final String downloadToFile(String url, final File outFile, final int bufferSize) {
-		return perform(new ZLNetworkRequest(url) {
+		final ZLNetworkRequest request = new ZLNetworkRequest(url) {
 			public String handleStream(URLConnection connection, InputStream inputStream) throws IOException {
 				OutputStream outStream = new FileOutputStream(outFile);
 				try {
@@ -220,6 +492,9 @@ public class ZLNetworkManager {
 				}
 				return null;
 			}
-		});
+		};
+		// the file itself is the cached copy
+		request.UseCache = false;
+		return perform(request);
 	}
 }
@@ -39,6 +39,13 @@ public abstract class ZLNetworkRequest {
 	public String Password;
 
 	public boolean FollowRedirects = true;
+	// deadline for the whole request in milliseconds, 0 means no limit;
+	// honoured when the request is performed as a part of a list;
+	// unlimited requests (downloads) never take connections of limited ones
+	public int Timeout = 60000;
+	// responses are stored in and revalidated against ZLNetworkManager's cache;
+	// handleStream gets null connection when the response comes from the cache
+	public boolean UseCache = true;
 
 
 	protected ZLNetworkRequest(String url) {
@@ -55,8 +62,11 @@ public abstract class ZLNetworkRequest {
 		return null;
 	}
 	
-	String doHandleStream(URLConnection connection, InputStream inputStream) throws IOException {
-		String encoding = connection.getContentEncoding();
+	// called before connecting, e.g. to add Range headers
+	protected void setRequestProperties(URLConnection connection) {
+	}
+
+	String doHandleStream(URLConnection connection, InputStream inputStream, String encoding) throws IOException {
 		if (encoding != null) {
 			encoding = encoding.toLowerCase();
 			if (encoding.equals("gzip")) {
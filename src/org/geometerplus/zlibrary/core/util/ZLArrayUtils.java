@@ -20,6 +20,26 @@
 package org.geometerplus.zlibrary.core.util;
 
 public abstract class ZLArrayUtils {
+	/*
+	 * Capacity for an array that must hold at least required elements.
+	 * Growth is geometric, so appending n elements piece by piece costs
+	 * O(n) copying instead of O(n^2) with exact-size growth.
+	 */
+	public static int growCapacity(int capacity, int required) {
+		final int grown = capacity + (capacity >> 1) + 16;
+		return (grown > required) ? grown : required;
+	}
+
+	public static char[] ensureCapacity(char[] array, int dataSize, int required) {
+		return (array.length >= required)
+			? array : createCopy(array, dataSize, growCapacity(array.length, required));
+	}
+
+	public static byte[] ensureCapacity(byte[] array, int dataSize, int required) {
+		return (array.length >= required)
+			? array : createCopy(array, dataSize, growCapacity(array.length, required));
+	}
+
 	public static boolean[] createCopy(boolean[] array, int dataSize, int newLength) {
 		boolean[] newArray = new boolean[newLength];
 		if (dataSize > 0) {
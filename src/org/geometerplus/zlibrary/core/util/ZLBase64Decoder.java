@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.util;
+
+/*
+ * Incremental base64 decoder: data may be passed in pieces split
+ * at any char, as XML parsers deliver it. Whitespace and other chars
+ * outside of the alphabet are skipped; decoding stops at '='.
+ */
+public final class ZLBase64Decoder {
+	private static final byte[] ourTable = new byte[128];
+	static {
+		for (int i = 0; i < 128; ++i) {
+			ourTable[i] = -1;
+		}
+		for (int i = 0; i < 26; ++i) {
+			ourTable['A' + i] = (byte)i;
+			ourTable['a' + i] = (byte)(26 + i);
+		}
+		for (int i = 0; i < 10; ++i) {
+			ourTable['0' + i] = (byte)(52 + i);
+		}
+		ourTable['+'] = 62;
+		ourTable['/'] = 63;
+	}
+
+	private byte[] myData;
+	private int myLength;
+	private int myQuantum;
+	private int myQuantumLength;
+	private boolean myIsFinished;
+
+	public ZLBase64Decoder(int capacity) {
+		myData = new byte[Math.max(capacity, 16)];
+	}
+
+	public void decode(char[] data, int offset, int length) {
+		if (myIsFinished) {
+			return;
+		}
+		// room for the completed quanta and for the 2 bytes finish() may add
+		final int maxLength = myLength + (length / 4 + 1) * 3 + 2;
+		if (maxLength > myData.length) {
+			myData = ZLArrayUtils.createCopy(myData, myLength, Math.max(maxLength, 2 * myData.length));
+		}
+		final byte[] table = ourTable;
+		final byte[] out = myData;
+		int quantum = myQuantum;
+		int quantumLength = myQuantumLength;
+		int pos = myLength;
+		for (int i = offset; i < offset + length; ++i) {
+			final char ch = data[i];
+			if (ch >= 128) {
+				continue;
+			}
+			if (ch == '=') {
+				myIsFinished = true;
+				break;
+			}
+			final byte value = table[ch];
+			if (value < 0) {
+				continue;
+			}
+			quantum = (quantum << 6) | value;
+			if (++quantumLength == 4) {
+				out[pos++] = (byte)(quantum >> 16);
+				out[pos++] = (byte)(quantum >> 8);
+				out[pos++] = (byte)quantum;
+				quantum = 0;
+				quantumLength = 0;
+			}
+		}
+		myQuantum = quantum;
+		myQuantumLength = quantumLength;
+		myLength = pos;
+	}
+
+	/*
+	 * Flushes the incomplete last quantum (unpadded or '='-terminated data);
+	 * returns the number of decoded bytes.
+	 */
+	public int finish() {
+		switch (myQuantumLength) {
+			case 2:
+				myData[myLength++] = (byte)(myQuantum >> 4);
+				break;
+			case 3:
+				myData[myLength++] = (byte)(myQuantum >> 10);
+				myData[myLength++] = (byte)(myQuantum >> 2);
+				break;
+		}
+		myQuantum = 0;
+		myQuantumLength = 0;
+		myIsFinished = true;
+		return myLength;
+	}
+
+	public byte[] data() {
+		return myData;
+	}
+
+	public int length() {
+		return myLength;
+	}
+}
@@ -37,4 +37,24 @@ public abstract class ZLCharacterUtil {
 			// cyrillic YO & yo
 			(ch == 0x401) || (ch == 0x451);
 	}
+
+	/*
+	 * Simple (one char to one char) Unicode case folding, so offsets
+	 * in folded and original text are the same. Every search over
+	 * folded text (matchers and word indices) must use this function.
+	 */
+	public static char foldCase(char ch) {
+		if (ch < 128) {
+			return ((ch >= 'A') && (ch <= 'Z')) ? (char)(ch + ('a' - 'A')) : ch;
+		}
+		return Character.toLowerCase(Character.toUpperCase(ch));
+	}
+
+	public static String foldCase(String text) {
+		final char[] data = text.toCharArray();
+		for (int i = 0; i < data.length; ++i) {
+			data[i] = foldCase(data[i]);
+		}
+		return new String(data);
+	}
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.util;
+
+import java.util.Arrays;
+
+/*
+ * Boyer-Moore-Horspool matcher. The skip table is indexed by the low byte
+ * of a char; a bucket keeps the smallest shift of the chars sharing it,
+ * which is always safe.
+ */
+final class ZLHorspoolMatcher extends ZLSearchMatcher {
+	private final char[] myPattern;
+	private final int[] mySkip = new int[256];
+
+	ZLHorspoolMatcher(char[] pattern) {
+		myPattern = pattern;
+		final int last = pattern.length - 1;
+		Arrays.fill(mySkip, pattern.length);
+		for (int i = 0; i < last; ++i) {
+			mySkip[pattern[i] & 0xFF] = last - i;
+		}
+	}
+
+	public int getLength() {
+		return myPattern.length;
+	}
+
+	public int find(char[] text, int offset, int length, int pos) {
+		if (pos < 0) {
+			pos = 0;
+		}
+		final char[] pattern = myPattern;
+		final int patternLength = pattern.length;
+		if (patternLength == 0) {
+			return (pos <= length) ? pos : -1;
+		}
+		final int[] skip = mySkip;
+		final int lastIndex = patternLength - 1;
+		final char lastChar = pattern[lastIndex];
+		final int end = offset + length - patternLength;
+		for (int i = offset + pos; i <= end; ) {
+			final char current = text[i + lastIndex];
+			if (current == lastChar) {
+				int j = lastIndex - 1;
+				while ((j >= 0) && (text[i + j] == pattern[j])) {
+					--j;
+				}
+				if (j < 0) {
+					return i - offset;
+				}
+			}
+			i += skip[current & 0xFF];
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.util;
+
+import java.util.ArrayList;
+
+/**
+ * Aho-Corasick matcher: finds all occurrences of several patterns
+ * in one pass over the text, e.g. to highlight several terms at once.
+ */
+public final class ZLMultiSearchMatcher {
+	public interface Handler {
+		// start is relative to the offset passed to findAll
+		void onMatch(int start, int patternIndex);
+	}
+
+	private static final class Node {
+		char[] Labels = new char[2];
+		int[] Targets = new int[2];
+		int Size;
+		int Fail;
+		// index of the pattern ending here, -1 if none
+		int Output = -1;
+		// nearest node on the fail chain with an output, -1 if none
+		int OutputLink = -1;
+
+		int get(char ch) {
+			for (int i = 0; i < Size; ++i) {
+				if (Labels[i] == ch) {
+					return Targets[i];
+				}
+			}
+			return -1;
+		}
+
+		void add(char ch, int target) {
+			if (Size == Labels.length) {
+				final char[] labels = new char[2 * Size];
+				final int[] targets = new int[2 * Size];
+				System.arraycopy(Labels, 0, labels, 0, Size);
+				System.arraycopy(Targets, 0, targets, 0, Size);
+				Labels = labels;
+				Targets = targets;
+			}
+			Labels[Size] = ch;
+			Targets[Size] = target;
+			++Size;
+		}
+	}
+
+	private final boolean myIgnoreCase;
+	private final int[] myLengths;
+	private final Node[] myNodes;
+
+	public ZLMultiSearchMatcher(String[] patterns, boolean ignoreCase) {
+		myIgnoreCase = ignoreCase;
+		myLengths = new int[patterns.length];
+		final ArrayList<Node> nodes = new ArrayList<Node>();
+		nodes.add(new Node());
+		for (int p = 0; p < patterns.length; ++p) {
+			final String pattern = patterns[p];
+			myLengths[p] = pattern.length();
+			if (pattern.length() == 0) {
+				continue;
+			}
+			int state = 0;
+			for (int i = 0; i < pattern.length(); ++i) {
+				final char ch = fold(pattern.charAt(i));
+				int next = nodes.get(state).get(ch);
+				if (next == -1) {
+					next = nodes.size();
+					nodes.add(new Node());
+					nodes.get(state).add(ch, next);
+				}
+				state = next;
+			}
+			if (nodes.get(state).Output == -1) {
+				nodes.get(state).Output = p;
+			}
+		}
+		myNodes = nodes.toArray(new Node[nodes.size()]);
+		buildFailLinks();
+	}
+
+	private char fold(char ch) {
+		return myIgnoreCase ? ZLCharacterUtil.foldCase(ch) : ch;
+	}
+
+	private void buildFailLinks() {
+		final Node[] nodes = myNodes;
+		final int[] queue = new int[nodes.length];
+		int head = 0;
+		int tail = 0;
+		final Node root = nodes[0];
+		for (int i = 0; i < root.Size; ++i) {
+			queue[tail++] = root.Targets[i];
+		}
+		while (head < tail) {
+			final Node node = nodes[queue[head++]];
+			for (int i = 0; i < node.Size; ++i) {
+				final char ch = node.Labels[i];
+				final int target = node.Targets[i];
+				int fail = node.Fail;
+				while ((fail != 0) && (nodes[fail].get(ch) == -1)) {
+					fail = nodes[fail].Fail;
+				}
+				final int next = nodes[fail].get(ch);
+				final Node child = nodes[target];
+				child.Fail = (next != -1) ? next : 0;
+				final Node failNode = nodes[child.Fail];
+				child.OutputLink = (failNode.Output != -1) ? child.Fail : failNode.OutputLink;
+				queue[tail++] = target;
+			}
+		}
+	}
+
+	public int getLength(int patternIndex) {
+		return myLengths[patternIndex];
+	}
+
+	public void findAll(char[] text, int offset, int length, Handler handler) {
+		final Node[] nodes = myNodes;
+		int state = 0;
+		for (int i = 0; i < length; ++i) {
+			final char ch = fold(text[offset + i]);
+			int next = nodes[state].get(ch);
+			while ((next == -1) && (state != 0)) {
+				state = nodes[state].Fail;
+				next = nodes[state].get(ch);
+			}
+			state = (next != -1) ? next : 0;
+			final Node node = nodes[state];
+			for (int n = (node.Output != -1) ? state : node.OutputLink; n != -1; n = nodes[n].OutputLink) {
+				final int patternIndex = nodes[n].Output;
+				handler.onMatch(i - myLengths[patternIndex] + 1, patternIndex);
+			}
+		}
+	}
+}
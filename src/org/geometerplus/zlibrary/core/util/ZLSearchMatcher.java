@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.util;
+
+/**
+ * Single pattern search kernel. Positions passed to and returned by find
+ * are relative to offset; -1 means no match.
+ */
+public abstract class ZLSearchMatcher {
+	public static ZLSearchMatcher create(String pattern, boolean ignoreCase) {
+		return ignoreCase ?
+			new ZLCaseFoldMatcher(pattern.toCharArray()) :
+			new ZLHorspoolMatcher(pattern.toCharArray());
+	}
+
+	public abstract int getLength();
+
+	public abstract int find(char[] text, int offset, int length, int pos);
+
+	public final int find(char[] text, int offset, int length) {
+		return find(text, offset, length, 0);
+	}
+}
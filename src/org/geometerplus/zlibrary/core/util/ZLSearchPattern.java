@@ -21,21 +21,14 @@ package org.geometerplus.zlibrary.core.util;
 
 public class ZLSearchPattern {
 	final boolean IgnoreCase;
-	final char[] LowerCasePattern;
-	final char[] UpperCasePattern;
+	final ZLSearchMatcher Matcher;
 
 	public ZLSearchPattern(String pattern, boolean ignoreCase) {
 		IgnoreCase = ignoreCase;
-		if (IgnoreCase) {
-			LowerCasePattern = pattern.toLowerCase().toCharArray();
-			UpperCasePattern = pattern.toUpperCase().toCharArray();
-		} else {
-			LowerCasePattern = pattern.toCharArray();
-			UpperCasePattern = null;
-		}
+		Matcher = ZLSearchMatcher.create(pattern, ignoreCase);
 	}
 
 	public int getLength() {
-		return LowerCasePattern.length;
+		return Matcher.getLength();
 	}
 }
@@ -80,9 +80,83 @@ abstract public class ZLPaintContext {
 			mySpaceWidth = -1;
 			myStringHeight = -1;
 			myDescent = -1;
+			final String key = myFontFamily + ':' + size + (bold ? ":b" : ":") + (italic ? "i" : "");
+			AdvanceTable table = myAdvanceTables.get(key);
+			if (table == null) {
+				table = new AdvanceTable();
+				myAdvanceTables.put(key, table);
+			}
+			myAdvanceTable = table;
 		}
 	}
 
+	/*
+	 * Advances of the chars below CACHED_CHARS in one font, -1 if not measured yet.
+	 * Scripts in this range are rendered without shaping, so a string width
+	 * is the sum of its char advances. Combining marks are excluded: measured
+	 * alone they have a non-zero advance, but they do not add width after a base char.
+	 */
+	private static final int CACHED_CHARS = 0x0590;
+	private static final boolean[] ourIsCombiningMark = new boolean[CACHED_CHARS];
+	static {
+		for (int c = 0; c < CACHED_CHARS; ++c) {
+			switch (Character.getType(c)) {
+				case Character.NON_SPACING_MARK:
+				case Character.ENCLOSING_MARK:
+				case Character.COMBINING_SPACING_MARK:
+					ourIsCombiningMark[c] = true;
+					break;
+			}
+		}
+	}
+	/*
+	 * Kerning and ligatures make a string narrower than the sum of its chars.
+	 * The first CHECKED_STRINGS multi-char strings of each font are measured
+	 * both ways; a font that differs even once is always measured as a whole.
+	 */
+	private static final int CHECKED_STRINGS = 64;
+	private static int ourFontIdCounter;
+
+	private static final class AdvanceTable {
+		final int FontId;
+		final float[] Advances = new float[CACHED_CHARS];
+		int ChecksLeft = CHECKED_STRINGS;
+		boolean IsAdditive = true;
+
+		AdvanceTable() {
+			FontId = ++ourFontIdCounter;
+			Arrays.fill(Advances, -1);
+		}
+	}
+
+	private int myFastMeasurements;
+	private int mySlowMeasurements;
+
+	public final int fastMeasurements() {
+		return myFastMeasurements;
+	}
+
+	public final int slowMeasurements() {
+		return mySlowMeasurements;
+	}
+
+	public final void resetStatistics() {
+		myFastMeasurements = 0;
+		mySlowMeasurements = 0;
+	}
+
+	private final HashMap<String,AdvanceTable> myAdvanceTables = new HashMap<String,AdvanceTable>();
+	private AdvanceTable myAdvanceTable;
+
+	/*
+	 * Identifies the current font state (family, size, bold, italic);
+	 * widths measured under the same id are interchangeable.
+	 */
+	public final int getFontId() {
+		final AdvanceTable table = myAdvanceTable;
+		return (table != null) ? table.FontId : 0;
+	}
+
 	abstract protected void setFontInternal(String family, int size, boolean bold, boolean italic, boolean underline);
 
 	abstract public void setTextColor(ZLColor color);
@@ -99,7 +173,44 @@ abstract public class ZLPaintContext {
 	abstract public int getWidth();
 	abstract public int getHeight();
 	
-	abstract public int getStringWidth(char[] string, int offset, int length);
+	public final int getStringWidth(char[] string, int offset, int length) {
+		final AdvanceTable table = myAdvanceTable;
+		if ((table == null) || !table.IsAdditive) {
+			++mySlowMeasurements;
+			return getStringWidthInternal(string, offset, length);
+		}
+		final float[] advances = table.Advances;
+		float width = 0;
+		for (int i = offset; i < offset + length; ++i) {
+			final char c = string[i];
+			if ((c >= CACHED_CHARS) || ourIsCombiningMark[c]) {
+				++mySlowMeasurements;
+				return getStringWidthInternal(string, offset, length);
+			}
+			float advance = advances[c];
+			if (advance < 0) {
+				advance = getCharWidthInternal(c);
+				advances[c] = advance;
+			}
+			width += advance;
+		}
+		final int result = (int)(width + 0.5f);
+		if ((length > 1) && (table.ChecksLeft > 0)) {
+			--table.ChecksLeft;
+			++mySlowMeasurements;
+			final int exact = getStringWidthInternal(string, offset, length);
+			if (exact != result) {
+				table.IsAdditive = false;
+			}
+			return exact;
+		}
+		++myFastMeasurements;
+		return result;
+	}
+	abstract protected int getStringWidthInternal(char[] string, int offset, int length);
+	protected float getCharWidthInternal(char c) {
+		return getStringWidthInternal(new char[] { c }, 0, 1);
+	}
 
 	private int mySpaceWidth = -1;
 	public final int getSpaceWidth() {
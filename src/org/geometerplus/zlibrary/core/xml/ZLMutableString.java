@@ -44,15 +44,21 @@ final class ZLMutableString {
 		char[] data = myData;
 		final int newLength = len + count;
 		if (data.length < newLength) {
-			data = ZLArrayUtils.createCopy(data, len, newLength);
+			data = ZLArrayUtils.ensureCapacity(data, len, newLength);
 			myData = data;
 		}
 		System.arraycopy(buffer, offset, data, len, count);
 		myLength = newLength;
 	}
 
+	private static final int MAX_RETAINED_CAPACITY = 4096;
+
 	public void clear() {
 		myLength = 0;
+		// do not keep the memory of a single huge value
+		if (myData.length > MAX_RETAINED_CAPACITY) {
+			myData = new char[20];
+		}
 	}
 
 	public boolean equals(Object o) {
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.core.xml;
+
+/*
+ * Bounded cache in front of String.intern(), shared by all parsers.
+ * It is a direct-mapped table: a new string evicts the one in its slot.
+ * Entries are immutable and slots are written without locking; a reader
+ * sees either the old or the new entry, and a miss only costs an intern().
+ */
+final class ZLStringInternTable {
+	private static final class Entry {
+		final char[] Chars;
+		final String Value;
+
+		Entry(char[] chars, String value) {
+			Chars = chars;
+			Value = value;
+		}
+	}
+
+	private final Entry[] myEntries;
+	private final int myMask;
+
+	ZLStringInternTable(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		myEntries = new Entry[size];
+		myMask = size - 1;
+	}
+
+	String intern(ZLMutableString container) {
+		final char[] data = container.myData;
+		final int length = container.myLength;
+		int hash = length;
+		for (int i = 0; i < length; ++i) {
+			hash = 31 * hash + data[i];
+		}
+		hash ^= hash >>> 16;
+		final int index = hash & myMask;
+
+		final Entry entry = myEntries[index];
+		if ((entry != null) && (entry.Chars.length == length)) {
+			final char[] chars = entry.Chars;
+			int i = length - 1;
+			while ((i >= 0) && (chars[i] == data[i])) {
+				--i;
+			}
+			if (i < 0) {
+				return entry.Value;
+			}
+		}
+		final String value = container.toString();
+		myEntries[index] = new Entry(value.toCharArray(), value);
+		return value;
+	}
+}
@@ -57,12 +57,8 @@ final class ZLXMLParser {
 	private static final byte END_OF_CDATA1 = 25;
 	private static final byte END_OF_CDATA2 = 26;
 
-	private static String convertToString(Map<ZLMutableString,String> strings, ZLMutableString container) {
-		String s = strings.get(container);
-		if (s == null) {
-			s = container.toString();
-			strings.put(new ZLMutableString(container), s);
-		}
+	private static String convertToString(ZLStringInternTable strings, ZLMutableString container) {
+		final String s = strings.intern(container);
 		container.clear();
 		return s;
 	}
@@ -71,52 +67,73 @@ final class ZLXMLParser {
 	private final ZLXMLReader myXMLReader;
 	private final boolean myProcessNamespaces;
 
-	private static HashMap<Integer,Queue<char[]>> ourBufferPool = new HashMap<Integer,Queue<char[]>>();
-	private static Queue<ZLMutableString> ourStringPool = new LinkedList<ZLMutableString>();
+	/*
+	 * Buffers and strings are pooled per thread, so parsers running
+	 * on different threads do not contend; a pool keeps enough objects
+	 * for a few nested parsers.
+	 */
+	private static final class Pool {
+		private static final int MAX_BUFFERS_NUMBER = 2;
+		private static final int MAX_STRINGS_NUMBER = 6 * MAX_BUFFERS_NUMBER;
+
+		private final ArrayList<char[]> myBuffers = new ArrayList<char[]>();
+		private final ArrayList<ZLMutableString> myStrings = new ArrayList<ZLMutableString>();
 
-	private static synchronized char[] getBuffer(int bufferSize) {
-		Queue<char[]> queue = ourBufferPool.get(bufferSize);
-		if (queue != null) {
-			char[] buffer = queue.poll();
-			if (buffer != null) {
-				return buffer;
+		char[] getBuffer(int bufferSize) {
+			for (int i = myBuffers.size() - 1; i >= 0; --i) {
+				if (myBuffers.get(i).length == bufferSize) {
+					return myBuffers.remove(i);
+				}
 			}
+			return new char[bufferSize];
 		}
-		return new char[bufferSize];
-	}
 
-	private static synchronized void storeBuffer(char[] buffer) {
-		Queue<char[]> queue = ourBufferPool.get(buffer.length);
-		if (queue == null) {
-			queue = new LinkedList<char[]>();
-			ourBufferPool.put(buffer.length, queue);
+		void storeBuffer(char[] buffer) {
+			if (myBuffers.size() == MAX_BUFFERS_NUMBER) {
+				myBuffers.remove(0);
+			}
+			myBuffers.add(buffer);
 		}
-		queue.add(buffer);
-	}
 
-	private static synchronized ZLMutableString getMutableString() {
-		ZLMutableString string = ourStringPool.poll();
-		return (string != null) ? string : new ZLMutableString();
-	}
+		ZLMutableString getMutableString() {
+			final int size = myStrings.size();
+			return (size > 0) ? myStrings.remove(size - 1) : new ZLMutableString();
+		}
 
-	private static synchronized void storeString(ZLMutableString string) {
-		ourStringPool.add(string);
+		void storeString(ZLMutableString string) {
+			if (myStrings.size() < MAX_STRINGS_NUMBER) {
+				string.clear();
+				myStrings.add(string);
+			}
+		}
 	}
 
+	private static final ThreadLocal<Pool> ourPool = new ThreadLocal<Pool>() {
+		@Override
+		protected Pool initialValue() {
+			return new Pool();
+		}
+	};
+
+	// the parser must be finished on the thread that created it
+	private final Pool myPool = ourPool.get();
+
 	private final char[] myBuffer;
 	private int myBufferDescriptionLength;
-	private final ZLMutableString myTagName = getMutableString();
-	private final ZLMutableString myCData = getMutableString();
-	private final ZLMutableString myAttributeName = getMutableString();
-	private final ZLMutableString myAttributeValue = getMutableString();
-	private final ZLMutableString myEntityName = getMutableString();
+	private final ZLMutableString myTagName = myPool.getMutableString();
+	private final ZLMutableString myCData = myPool.getMutableString();
+	private final ZLMutableString myAttributeName = myPool.getMutableString();
+	private final ZLMutableString myAttributeValue = myPool.getMutableString();
+	private final ZLMutableString myEntityName = myPool.getMutableString();
 
 	void finish() {
-		storeBuffer(myBuffer);
-		storeString(myTagName);
-		storeString(myAttributeName);
-		storeString(myAttributeValue);
-		storeString(myEntityName);
+		final Pool pool = myPool;
+		pool.storeBuffer(myBuffer);
+		pool.storeString(myTagName);
+		pool.storeString(myCData);
+		pool.storeString(myAttributeName);
+		pool.storeString(myAttributeValue);
+		pool.storeString(myEntityName);
 	}
 
 	public ZLXMLParser(ZLXMLReader xmlReader, InputStream stream, int bufferSize) throws IOException {
@@ -124,7 +141,7 @@ final class ZLXMLParser {
 		myProcessNamespaces = xmlReader.processNamespaces();
 
 		String encoding = "utf-8";
-		final char[] buffer = getBuffer(bufferSize);
+		final char[] buffer = myPool.getBuffer(bufferSize);
 		myBuffer = buffer;
 		boolean found = false;
 		int len = 0;
@@ -177,8 +194,12 @@ final class ZLXMLParser {
 		return value;
 	}
 
-	private static ConcurrentHashMap<List<String>,HashMap<String,char[]>> ourDTDMaps = 
-		new ConcurrentHashMap<List<String>,HashMap<String,char[]>>(); // FIXME: concurrency violation
+	/*
+	 * Shared maps are never modified after they are published;
+	 * each parser works with its own copy, see doIt().
+	 */
+	private static final ConcurrentHashMap<List<String>,HashMap<String,char[]>> ourDTDMaps = 
+		new ConcurrentHashMap<List<String>,HashMap<String,char[]>>();
 
 	static HashMap<String,char[]> getDTDMap(List<String> dtdList) throws IOException {
 		HashMap<String,char[]> entityMap = ourDTDMaps.get(dtdList);
@@ -195,17 +216,21 @@ final class ZLXMLParser {
 					new ZLDTDParser().doIt(stream, entityMap);
 				}
 			}
-			ourDTDMaps.put(dtdList, entityMap);
+			// if another thread has built the same map meanwhile, use its one
+			final HashMap<String,char[]> existing = ourDTDMaps.putIfAbsent(dtdList, entityMap);
+			if (existing != null) {
+				entityMap = existing;
+			}
 		}
 		return entityMap;
 	}
 
-	private final static ConcurrentHashMap<ZLMutableString,String> ourStringMap = 
-		new ConcurrentHashMap<ZLMutableString,String>();
+	private static final ZLStringInternTable ourStringTable = new ZLStringInternTable(8192);
 
 	void doIt() throws IOException {
 		final ZLXMLReader xmlReader = myXMLReader;
-		final HashMap<String,char[]> entityMap = getDTDMap(xmlReader.externalDTDs());
+		// readers add their entities and numeric references are cached in this copy
+		final HashMap<String,char[]> entityMap = new HashMap<String,char[]>(getDTDMap(xmlReader.externalDTDs()));
 		xmlReader.addExternalEntities(entityMap);
 		final InputStreamReader streamReader = myStreamReader;
 		final boolean processNamespaces = myProcessNamespaces;
@@ -219,7 +244,7 @@ final class ZLXMLParser {
 		final ZLMutableString attributeValue = myAttributeValue;
 		final boolean dontCacheAttributeValues = xmlReader.dontCacheAttributeValues();
 		final ZLMutableString entityName = myEntityName;
-		final Map<ZLMutableString,String> strings = ourStringMap;//new HashMap();
+		final ZLStringInternTable strings = ourStringTable;
 		final ZLStringMap attributes = new ZLStringMap();
 		String[] tagStack = new String[10];
 		int tagStackSize = 0;
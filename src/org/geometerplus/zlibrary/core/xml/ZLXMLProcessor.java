@@ -27,7 +27,7 @@ import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 public abstract class ZLXMLProcessor {
 	public static Map<String,char[]> getEntityMap(List<String> dtdList) {
 		try {
-			return ZLXMLParser.getDTDMap(dtdList);
+			return Collections.unmodifiableMap(ZLXMLParser.getDTDMap(dtdList));
 		} catch (IOException e) {
 			return Collections.emptyMap();
 		}
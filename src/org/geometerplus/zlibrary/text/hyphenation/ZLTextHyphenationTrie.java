@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.text.hyphenation;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
+
+/*
+ * Packed trie of TeX hyphenation patterns. Nodes are numbered in breadth-first
+ * order, so children of every node are stored contiguously, sorted by symbol.
+ *
+ * Binary form (big-endian), produced by compileHyphenationPatterns.py:
+ *   int magic, int version, int nodesNumber, int valuesLength,
+ *   char[nodesNumber] symbols, int[nodesNumber] firstChild,
+ *   char[nodesNumber] childrenNumber, int[nodesNumber] valuesOffset (-1 = no pattern),
+ *   byte[valuesLength] values
+ * A pattern of depth d owns d + 1 values.
+ */
+final class ZLTextHyphenationTrie {
+	private static final int MAGIC = 0x5A4C4854;
+	private static final int VERSION = 1;
+
+	private final char[] mySymbols;
+	private final int[] myFirstChild;
+	private final char[] myChildrenNumber;
+	private final int[] myValuesOffset;
+	private final byte[] myValues;
+
+	private ZLTextHyphenationTrie(char[] symbols, int[] firstChild, char[] childrenNumber, int[] valuesOffset, byte[] values) {
+		mySymbols = symbols;
+		myFirstChild = firstChild;
+		myChildrenNumber = childrenNumber;
+		myValuesOffset = valuesOffset;
+		myValues = values;
+	}
+
+	static ZLTextHyphenationTrie read(InputStream stream) throws IOException {
+		byte[] data = new byte[8192];
+		int length = 0;
+		while (true) {
+			if (length == data.length) {
+				data = ZLArrayUtils.createCopy(data, length, length << 1);
+			}
+			final int count = stream.read(data, length, data.length - length);
+			if (count <= 0) {
+				break;
+			}
+			length += count;
+		}
+
+		final ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+		if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+			throw new IOException("Invalid hyphenation trie header");
+		}
+		final int nodesNumber = buffer.getInt();
+		final int valuesLength = buffer.getInt();
+		if ((nodesNumber <= 0) || (valuesLength < 0) ||
+			(buffer.remaining() != nodesNumber * 12 + valuesLength)) {
+			throw new IOException("Invalid hyphenation trie size");
+		}
+
+		final char[] symbols = new char[nodesNumber];
+		buffer.asCharBuffer().get(symbols);
+		buffer.position(buffer.position() + 2 * nodesNumber);
+		final int[] firstChild = new int[nodesNumber];
+		buffer.asIntBuffer().get(firstChild);
+		buffer.position(buffer.position() + 4 * nodesNumber);
+		final char[] childrenNumber = new char[nodesNumber];
+		buffer.asCharBuffer().get(childrenNumber);
+		buffer.position(buffer.position() + 2 * nodesNumber);
+		final int[] valuesOffset = new int[nodesNumber];
+		buffer.asIntBuffer().get(valuesOffset);
+		buffer.position(buffer.position() + 4 * nodesNumber);
+		final byte[] values = new byte[valuesLength];
+		buffer.get(values);
+
+		return new ZLTextHyphenationTrie(symbols, firstChild, childrenNumber, valuesOffset, values);
+	}
+
+	private int child(int node, char symbol) {
+		final char[] symbols = mySymbols;
+		int low = myFirstChild[node];
+		int high = low + myChildrenNumber[node] - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final char middleSymbol = symbols[middle];
+			if (middleSymbol < symbol) {
+				low = middle + 1;
+			} else if (middleSymbol > symbol) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	void apply(char[] word, int length, byte[] values) {
+		final int[] valuesOffset = myValuesOffset;
+		final byte[] patternValues = myValues;
+		for (int offset = 0; offset < length - 1; ++offset) {
+			int node = 0;
+			for (int depth = 1; offset + depth <= length; ++depth) {
+				node = child(node, word[offset + depth - 1]);
+				if (node == -1) {
+					break;
+				}
+				final int valueIndex = valuesOffset[node];
+				if (valueIndex != -1) {
+					for (int i = 0; i <= depth; ++i) {
+						final byte val = patternValues[valueIndex + i];
+						if (values[offset + i] < val) {
+							values[offset + i] = val;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Used when no compiled trie is available for the language.
+	 */
+	static final class Builder {
+		private static final class Node {
+			final TreeMap<Character,Node> Children = new TreeMap<Character,Node>();
+			byte[] Values;
+		}
+
+		private final Node myRoot = new Node();
+
+		void addPattern(ZLTextTeXHyphenationPattern pattern) {
+			final char[] symbols = pattern.getSymbols();
+			final int length = pattern.getLength();
+			Node node = myRoot;
+			for (int i = 0; i < length; ++i) {
+				final Character symbol = symbols[i];
+				Node child = node.Children.get(symbol);
+				if (child == null) {
+					child = new Node();
+					node.Children.put(symbol, child);
+				}
+				node = child;
+			}
+			node.Values = pattern.getValues();
+		}
+
+		boolean isEmpty() {
+			return myRoot.Children.isEmpty();
+		}
+
+		ZLTextHyphenationTrie build() {
+			final ArrayList<Node> nodes = new ArrayList<Node>();
+			final ArrayList<Character> symbols = new ArrayList<Character>();
+			nodes.add(myRoot);
+			symbols.add('\0');
+			for (int index = 0; index < nodes.size(); ++index) {
+				for (Map.Entry<Character,Node> entry : nodes.get(index).Children.entrySet()) {
+					symbols.add(entry.getKey());
+					nodes.add(entry.getValue());
+				}
+			}
+
+			final int nodesNumber = nodes.size();
+			final char[] symbolArray = new char[nodesNumber];
+			final int[] firstChild = new int[nodesNumber];
+			final char[] childrenNumber = new char[nodesNumber];
+			final int[] valuesOffset = new int[nodesNumber];
+			int valuesLength = 0;
+			int next = 1;
+			for (int i = 0; i < nodesNumber; ++i) {
+				final Node node = nodes.get(i);
+				symbolArray[i] = symbols.get(i);
+				firstChild[i] = next;
+				childrenNumber[i] = (char)node.Children.size();
+				next += node.Children.size();
+				if (node.Values != null) {
+					valuesOffset[i] = valuesLength;
+					valuesLength += node.Values.length;
+				} else {
+					valuesOffset[i] = -1;
+				}
+			}
+			final byte[] values = new byte[valuesLength];
+			for (int i = 0; i < nodesNumber; ++i) {
+				final byte[] nodeValues = nodes.get(i).Values;
+				if (nodeValues != null) {
+					System.arraycopy(nodeValues, 0, values, valuesOffset[i], nodeValues.length);
+				}
+			}
+			return new ZLTextHyphenationTrie(symbolArray, firstChild, childrenNumber, valuesOffset, values);
+		}
+	}
+}
@@ -19,6 +19,8 @@
 
 package org.geometerplus.zlibrary.text.hyphenation;
 
+import java.util.*;
+
 import org.geometerplus.zlibrary.core.util.*;
 
 import org.geometerplus.zlibrary.text.view.ZLTextWord; 
@@ -46,7 +48,36 @@ public abstract class ZLTextHyphenator {
 	public abstract void load(final String language);
 	public abstract void unload();
 
-	public ZLTextHyphenationInfo getInfo(final ZLTextWord word) {
+	private static final int INFO_CACHE_SIZE = 1024;
+
+	// relayout asks for the same words again and again
+	private final LinkedHashMap<String,ZLTextHyphenationInfo> myInfoCache =
+		new LinkedHashMap<String,ZLTextHyphenationInfo>(INFO_CACHE_SIZE, 0.75f, true) {
+			private static final long serialVersionUID = 3461427311962085426L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,ZLTextHyphenationInfo> eldest) {
+				return size() > INFO_CACHE_SIZE;
+			}
+		};
+
+	// the cache is used by the paginator thread and by the UI thread;
+	// an access-ordered map is changed even by get()
+	protected final synchronized void clearInfoCache() {
+		myInfoCache.clear();
+	}
+
+	public synchronized ZLTextHyphenationInfo getInfo(final ZLTextWord word) {
+		final String key = new String(word.Data, word.Offset, word.Length);
+		ZLTextHyphenationInfo info = myInfoCache.get(key);
+		if (info == null) {
+			info = createInfo(word);
+			myInfoCache.put(key, info);
+		}
+		return info;
+	}
+
+	private ZLTextHyphenationInfo createInfo(final ZLTextWord word) {
 		final int len = word.Length;
 		final boolean[] isLetter = new boolean[len];
 		final char[] pattern = new char[len + 2];
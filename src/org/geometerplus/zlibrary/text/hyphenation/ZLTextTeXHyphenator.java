@@ -19,20 +19,23 @@
 
 package org.geometerplus.zlibrary.text.hyphenation;
 
-import java.util.*;
+import java.io.*;
+
 import org.geometerplus.zlibrary.core.util.ZLMiscUtil;
 import org.geometerplus.zlibrary.core.filesystem.ZLResourceFile;
 
 public final class ZLTextTeXHyphenator extends ZLTextHyphenator {
-	private final HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern> myPatternTable = 
-		new HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern>();
+	private ZLTextHyphenationTrie myTrie;
+	private ZLTextHyphenationTrie.Builder myBuilder;
 	private String myLanguage;
 
 	public ZLTextTeXHyphenator() {
 	}
 
 	void addPattern(ZLTextTeXHyphenationPattern pattern) {
-		myPatternTable.put(pattern, pattern);
+		if (myBuilder != null) {
+			myBuilder.addPattern(pattern);
+		}
 	}
 
 	public void load(final String language) {
@@ -43,18 +46,47 @@ public final class ZLTextTeXHyphenator extends ZLTextHyphenator {
 		unload();
 
 		if (language != null) {
-			new ZLTextHyphenationReader(this).read(ZLResourceFile.createResourceFile(
-		  		"data/hyphenationPatterns/" + language + ".pattern"
-			)); 
+			myTrie = readCompiledPatterns(language);
+			if (myTrie == null) {
+				myBuilder = new ZLTextHyphenationTrie.Builder();
+				new ZLTextHyphenationReader(this).read(ZLResourceFile.createResourceFile(
+					"data/hyphenationPatterns/" + language + ".pattern"
+				));
+				if (!myBuilder.isEmpty()) {
+					myTrie = myBuilder.build();
+				}
+				myBuilder = null;
+			}
 		}
 	}	
 
+	private static ZLTextHyphenationTrie readCompiledPatterns(String language) {
+		final ZLResourceFile file = ZLResourceFile.createResourceFile(
+			"data/hyphenationPatterns/" + language + ".trie"
+		);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			final InputStream stream = file.getInputStream();
+			try {
+				return ZLTextHyphenationTrie.read(stream);
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	public void unload() {
-		myPatternTable.clear();
+		myTrie = null;
+		clearInfoCache();
 	}
 
 	public void hyphenate(char[] stringToHyphenate, boolean[] mask, int length) {
-		if (myPatternTable.isEmpty()) {
+		final ZLTextHyphenationTrie trie = myTrie;
+		if (trie == null) {
 			for (int i = 0; i < length - 1; i++) {
 				mask[i] = false;
 			}
@@ -62,23 +94,7 @@ public final class ZLTextTeXHyphenator extends ZLTextHyphenator {
 		}
 
 		byte[] values = new byte[length + 1];
-
-		final HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern> table = myPatternTable;
-		ZLTextTeXHyphenationPattern pattern =
-			new ZLTextTeXHyphenationPattern(stringToHyphenate, 0, length, false);
-		for (int offset = 0; offset < length - 1; offset++) {
-			int len = length - offset + 1;
-			pattern.update(stringToHyphenate, offset, len - 1);
-			while (--len > 0) {
-				pattern.myLength = len;
-				pattern.myHashCode = 0;
-				ZLTextTeXHyphenationPattern toApply =
-					(ZLTextTeXHyphenationPattern)table.get(pattern);
-				if (toApply != null) {
-					toApply.apply(values, offset);
-				}
-			}
-		}
+		trie.apply(stringToHyphenate, length, values);
  	
 		for (int i = 0; i < length - 1; i++) {
 			mask[i] = (values[i + 1] % 2) == 1;
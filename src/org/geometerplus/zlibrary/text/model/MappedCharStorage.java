@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.lang.ref.WeakReference;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.util.ZLArrayUtils;
+
+final class CharStorageException extends RuntimeException {
+	private static final long serialVersionUID = -6373408730045821053L;
+
+	public CharStorageException(String message) {
+		super(message);
+	}
+}
+
+/*
+ * All blocks are stored in a single file:
+ *   header: int magic, int version
+ *   block:  int length (in chars), length UTF-16LE chars
+ * Blocks are appended through one FileChannel and read back from
+ * a memory-mapped view of the file, so no charset decoding is done.
+ */
+public final class MappedCharStorage implements CharStorage {
+	private static final int MAGIC = 0x5A4C4353;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	private final int myBlockSize;
+	private final ArrayList<WeakReference<char[]>> myArray = new ArrayList<WeakReference<char[]>>();
+	private final String myFileName;
+
+	private int[] myBlockOffsets = new int[16];
+	private int[] myBlockLengths = new int[16];
+	private int myFrozenBlocksNumber;
+
+	private RandomAccessFile myFile;
+	private FileChannel myChannel;
+	private int myFileSize;
+	private MappedByteBuffer myMappedBuffer;
+
+	public MappedCharStorage(int blockSize, String directoryName, String fileExtension) {
+		myBlockSize = blockSize;
+		myFileName = directoryName + "/blocks." + fileExtension;
+		new File(directoryName).mkdirs();
+	}
+
+	/*
+	 * Opens blocks stored earlier in the same directory (see freezeLastBlock);
+	 * such a storage is read-only.
+	 */
+	public static MappedCharStorage open(int blockSize, String directoryName, String fileExtension) throws IOException {
+		final MappedCharStorage storage = new MappedCharStorage(blockSize, directoryName, fileExtension);
+		try {
+			storage.load();
+		} catch (IOException e) {
+			storage.clear();
+			throw e;
+		}
+		return storage;
+	}
+
+	private void load() throws IOException {
+		myFile = new RandomAccessFile(myFileName, "r");
+		myChannel = myFile.getChannel();
+		final long fileSize = myChannel.size();
+		if ((fileSize < HEADER_SIZE) || (fileSize > Integer.MAX_VALUE)) {
+			throw new IOException("Invalid size of " + myFileName);
+		}
+		myFileSize = (int)fileSize;
+		myMappedBuffer = myChannel.map(FileChannel.MapMode.READ_ONLY, 0, myFileSize);
+		final ByteBuffer buffer = myMappedBuffer.duplicate();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+			throw new IOException("Invalid header of " + myFileName);
+		}
+		int offset = HEADER_SIZE;
+		while (offset < myFileSize) {
+			final int length = (offset + 4 <= myFileSize) ? buffer.getInt(offset) : -1;
+			if ((length < 0) || (offset + 4 + 2L * length > myFileSize)) {
+				throw new IOException("Truncated block in " + myFileName);
+			}
+			addBlockRecord(offset + 4, length);
+			myArray.add(new WeakReference<char[]>(null));
+			offset += 4 + 2 * length;
+		}
+	}
+
+	private void addBlockRecord(int offset, int length) {
+		final int index = myFrozenBlocksNumber;
+		if (index == myBlockOffsets.length) {
+			myBlockOffsets = ZLArrayUtils.createCopy(myBlockOffsets, index, index << 1);
+			myBlockLengths = ZLArrayUtils.createCopy(myBlockLengths, index, index << 1);
+		}
+		myBlockOffsets[index] = offset;
+		myBlockLengths[index] = length;
+		myFrozenBlocksNumber = index + 1;
+	}
+
+	public synchronized int size() {
+		return myArray.size();
+	}
+
+	// blocks are read by background threads (prefetcher, paginator, search
+	// indexer) as well as by the UI thread
+	public synchronized char[] block(int index) {
+		char[] block = myArray.get(index).get();
+		if (block == null) {
+			block = readBlock(index);
+			myArray.set(index, new WeakReference<char[]>(block));
+		}
+		return block;
+	}
+
+	private synchronized char[] readBlock(int index) {
+		if (index >= myFrozenBlocksNumber) {
+			throw new CharStorageException("Block " + index + " is not stored in " + myFileName);
+		}
+		final int offset = myBlockOffsets[index];
+		final int length = myBlockLengths[index];
+		try {
+			if ((myMappedBuffer == null) || (myMappedBuffer.capacity() < offset + 2 * length)) {
+				myMappedBuffer = myChannel.map(FileChannel.MapMode.READ_ONLY, 0, myFileSize);
+			}
+		} catch (IOException e) {
+			throw new CharStorageException("Error during reading " + myFileName);
+		}
+		final ByteBuffer buffer = myMappedBuffer.duplicate();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(offset);
+		final char[] block = new char[length];
+		buffer.asCharBuffer().get(block);
+		return block;
+	}
+
+	public synchronized char[] createNewBlock(int minimumLength) {
+		int blockSize = myBlockSize;
+		if (minimumLength > blockSize) {
+			blockSize = minimumLength;
+		}
+		char[] block = new char[blockSize];
+		myArray.add(new WeakReference<char[]>(block));
+		return block;
+	}
+
+	private void openFile() throws IOException {
+		// unlinking (instead of truncating) keeps a file mapped by a previous model valid
+		new File(myFileName).delete();
+		myFile = new RandomAccessFile(myFileName, "rw");
+		myChannel = myFile.getChannel();
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.flip();
+		writeFully(header, 0);
+		myFileSize = HEADER_SIZE;
+	}
+
+	private void writeFully(ByteBuffer buffer, int position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += myChannel.write(buffer, position);
+		}
+	}
+
+	public synchronized void freezeLastBlock() {
+		final int index = myArray.size() - 1;
+		try {
+			if (myChannel == null) {
+				openFile();
+			}
+			if (index < myFrozenBlocksNumber) {
+				return;
+			}
+			final char[] block = myArray.get(index).get();
+			if (block == null) {
+				throw new CharStorageException("Block reference in null during freeze");
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate(4 + 2 * block.length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(block.length);
+			buffer.asCharBuffer().put(block);
+			buffer.clear();
+			writeFully(buffer, myFileSize);
+			addBlockRecord(myFileSize + 4, block.length);
+			myFileSize += 4 + 2 * block.length;
+		} catch (IOException e) {
+			throw new CharStorageException("Error during writing " + myFileName);
+		}
+	}
+
+	public synchronized void clear() {
+		myArray.clear();
+		myFrozenBlocksNumber = 0;
+		myMappedBuffer = null;
+		if (myFile != null) {
+			try {
+				myFile.close();
+			} catch (IOException e) {
+			}
+			myFile = null;
+			myChannel = null;
+		}
+	}
+}
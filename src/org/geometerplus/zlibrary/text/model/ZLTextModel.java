@@ -40,5 +40,11 @@ public interface ZLTextModel {
 	int getTextLength(int index);
 	int findParagraphByTextLength(int length);
 	
+	// replaces all the marks by occurrences of text in paragraphs [startIndex, endIndex)
 	int search(final String text, int startIndex, int endIndex, boolean ignoreCase);
+	// adds occurrences of text in paragraphs [startIndex, endIndex) to the marks;
+	// safe to call from any thread
+	int extendSearch(final String text, int startIndex, int endIndex, boolean ignoreCase);
+	// same, for occurrences of any of the terms, e.g. to highlight several words at once
+	int extendSearch(final String[] terms, int startIndex, int endIndex, boolean ignoreCase);
 }
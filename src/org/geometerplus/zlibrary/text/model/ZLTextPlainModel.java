@@ -19,6 +19,7 @@
 
 package org.geometerplus.zlibrary.text.model;
 
+import java.io.*;
 import java.util.*;
 import org.geometerplus.zlibrary.core.util.*;
 
@@ -37,7 +38,8 @@ public class ZLTextPlainModel implements ZLTextModel {
 	protected int myParagraphsNumber;
 
 	protected final CharStorage myStorage;
-	private ArrayList<ZLTextMark> myMarks;
+	// never modified once set, so it can be read without locking
+	private volatile List<ZLTextMark> myMarks;
 
 	protected final ZLImageMap myImageMap;
 
@@ -48,6 +50,7 @@ public class ZLTextPlainModel implements ZLTextModel {
 
 		int myDataIndex;
 		int myDataOffset;
+		private char[] myDataBlock;
 
 		private char[] myTextData;
 		private int myTextOffset;
@@ -74,6 +77,7 @@ public class ZLTextPlainModel implements ZLTextModel {
 			myLength = myParagraphLengths[index];
 			myDataIndex = myStartEntryIndices[index];
 			myDataOffset = myStartEntryOffsets[index];
+			myDataBlock = null;
 		}
 
 		public byte getType() {
@@ -121,7 +125,10 @@ public class ZLTextPlainModel implements ZLTextModel {
 
 		public void next() {
 			int dataOffset = myDataOffset;
-			char[] data = myStorage.block(myDataIndex);
+			char[] data = myDataBlock;
+			if (data == null) {
+				data = myStorage.block(myDataIndex);
+			}
 			if (dataOffset == data.length) {
 				data = myStorage.block(++myDataIndex);
 				dataOffset = 0;
@@ -132,6 +139,7 @@ public class ZLTextPlainModel implements ZLTextModel {
 				dataOffset = 0;
 				type = (byte)data[0];
 			}
+			myDataBlock = data;
 			myType = type;
 			++dataOffset;
 			switch (type) {
@@ -200,10 +208,67 @@ public class ZLTextPlainModel implements ZLTextModel {
 		myParagraphLengths = new int[arraySize];
 		myTextSizes = new int[arraySize];
 		myParagraphKinds = new byte[arraySize];
-		myStorage = new CachedCharStorage(dataBlockSize, directoryName, extension);
+		myStorage = new MappedCharStorage(dataBlockSize, directoryName, extension);
 		myImageMap = imageMap;
 	}
 
+	public ZLTextPlainModel(DataInputStream stream, int dataBlockSize, String directoryName, String extension, ZLImageMap imageMap) throws IOException {
+		myId = readString(stream);
+		myLanguage = readString(stream);
+		final int size = stream.readInt();
+		final int arraySize = Math.max(size, 1);
+		myStartEntryIndices = new int[arraySize];
+		myStartEntryOffsets = new int[arraySize];
+		myParagraphLengths = new int[arraySize];
+		myTextSizes = new int[arraySize];
+		myParagraphKinds = new byte[arraySize];
+		for (int i = 0; i < size; ++i) {
+			myStartEntryIndices[i] = stream.readInt();
+			myStartEntryOffsets[i] = stream.readInt();
+			myParagraphLengths[i] = stream.readInt();
+			myTextSizes[i] = stream.readInt();
+			myParagraphKinds[i] = stream.readByte();
+		}
+		myParagraphsNumber = size;
+		myStorage = MappedCharStorage.open(dataBlockSize, directoryName, extension);
+		myImageMap = imageMap;
+	}
+
+	// releases the storage file; the model must not be used afterwards
+	public void close() {
+		myStorage.clear();
+	}
+
+	/*
+	 * Writes paragraph index; text blocks are already in the storage file,
+	 * so the model can be reopened with the constructor above.
+	 */
+	public void writeIndex(DataOutputStream stream) throws IOException {
+		myStorage.freezeLastBlock();
+		writeString(stream, myId);
+		writeString(stream, myLanguage);
+		final int size = myParagraphsNumber;
+		stream.writeInt(size);
+		for (int i = 0; i < size; ++i) {
+			stream.writeInt(myStartEntryIndices[i]);
+			stream.writeInt(myStartEntryOffsets[i]);
+			stream.writeInt(myParagraphLengths[i]);
+			stream.writeInt(myTextSizes[i]);
+			stream.writeByte(myParagraphKinds[i]);
+		}
+	}
+
+	private static String readString(DataInputStream stream) throws IOException {
+		return stream.readBoolean() ? stream.readUTF() : null;
+	}
+
+	private static void writeString(DataOutputStream stream, String str) throws IOException {
+		stream.writeBoolean(str != null);
+		if (str != null) {
+			stream.writeUTF(str);
+		}
+	}
+
 	public final String getId() {
 		return myId;
 	}
@@ -213,20 +278,23 @@ public class ZLTextPlainModel implements ZLTextModel {
 	}
 
 	public final ZLTextMark getFirstMark() {
-		return ((myMarks == null) || myMarks.isEmpty()) ? null : myMarks.get(0);
+		final List<ZLTextMark> marks = myMarks;
+		return ((marks == null) || marks.isEmpty()) ? null : marks.get(0);
 	}
 	
 	public final ZLTextMark getLastMark() {
-		return ((myMarks == null) || myMarks.isEmpty()) ? null : myMarks.get(myMarks.size() - 1);
+		final List<ZLTextMark> marks = myMarks;
+		return ((marks == null) || marks.isEmpty()) ? null : marks.get(marks.size() - 1);
 	}
 
 	public final ZLTextMark getNextMark(ZLTextMark position) {
-		if ((position == null) || (myMarks == null)) {
+		final List<ZLTextMark> marks = myMarks;
+		if ((position == null) || (marks == null)) {
 			return null;
 		}
 
 		ZLTextMark mark = null;
-		for (ZLTextMark current : myMarks) {
+		for (ZLTextMark current : marks) {
 			if (current.compareTo(position) >= 0) {
 				if ((mark == null) || (mark.compareTo(current) > 0)) {
 					mark = current;
@@ -237,12 +305,13 @@ public class ZLTextPlainModel implements ZLTextModel {
 	}
 
 	public final ZLTextMark getPreviousMark(ZLTextMark position) {
-		if ((position == null) || (myMarks == null)) {
+		final List<ZLTextMark> marks = myMarks;
+		if ((position == null) || (marks == null)) {
 			return null;
 		}
 
 		ZLTextMark mark = null;
-		for (ZLTextMark current : myMarks) {
+		for (ZLTextMark current : marks) {
 			if (current.compareTo(position) < 0) {
 				if ((mark == null) || (mark.compareTo(current) < 0)) {
 					mark = current;
@@ -252,39 +321,157 @@ public class ZLTextPlainModel implements ZLTextModel {
 		return mark;
 	}
 
-	public final int search(final String text, int startIndex, int endIndex, boolean ignoreCase) {
-		int count = 0;
-		ZLSearchPattern pattern = new ZLSearchPattern(text, ignoreCase);
-		myMarks = new ArrayList<ZLTextMark>();
+	private volatile ZLTextSearchIndex mySearchIndex;
+
+	/*
+	 * Index used by search to skip paragraphs; it can be set from any thread.
+	 */
+	public final void setSearchIndex(ZLTextSearchIndex index) {
+		mySearchIndex = index;
+	}
+
+	public final synchronized int search(final String text, int startIndex, int endIndex, boolean ignoreCase) {
+		myMarks = null;
+		return extendSearch(text, startIndex, endIndex, ignoreCase);
+	}
+
+	public final int extendSearch(final String text, int startIndex, int endIndex, boolean ignoreCase) {
+		return extendSearch(new String[] { text }, startIndex, endIndex, ignoreCase);
+	}
+
+	public final synchronized int extendSearch(final String[] terms, int startIndex, int endIndex, boolean ignoreCase) {
 		if (startIndex > myParagraphsNumber) {
                 	startIndex = myParagraphsNumber;				
 		}
 		if (endIndex > myParagraphsNumber) {
 			endIndex = myParagraphsNumber;
 		}				
-		int index = startIndex;
-		for (EntryIteratorImpl it = new EntryIteratorImpl(index); index < endIndex; it.reset(++index)) {
-			int offset = 0;
-			while (it.hasNext()) {
-				it.next();
-				if (it.getType() == ZLTextParagraph.Entry.TEXT) {
-					char[] textData = it.getTextData();
-					int textOffset = it.getTextOffset();
-					int textLength = it.getTextLength();
-					for (int pos = ZLSearchUtil.find(textData, textOffset, textLength, pattern); pos != -1; 
-						pos = ZLSearchUtil.find(textData, textOffset, textLength, pattern, pos + 1)) {
-						myMarks.add(new ZLTextMark(index, offset + pos, pattern.getLength()));
-						++count;
-					}
-					offset += textLength;						
-				}				
-			} 
+		// one term is searched by the skip table matcher; several terms
+		// are all found in one pass over the paragraph
+		final ZLSearchPattern pattern =
+			(terms.length == 1) ? new ZLSearchPattern(terms[0], ignoreCase) : null;
+		final ZLMultiSearchMatcher matcher =
+			(terms.length == 1) ? null : new ZLMultiSearchMatcher(terms, ignoreCase);
+		final ArrayList<ZLTextMark> found = new ArrayList<ZLTextMark>();
+		final int[] candidates = findCandidates(terms);
+		final EntryIteratorImpl it = new EntryIteratorImpl(0);
+		if (candidates != null) {
+			int i = Arrays.binarySearch(candidates, startIndex);
+			for (i = (i >= 0) ? i : -i - 1; i < candidates.length && candidates[i] < endIndex; ++i) {
+				searchInParagraph(it, candidates[i], pattern, matcher, found);
+			}
+		} else {
+			for (int paragraphIndex = startIndex; paragraphIndex < endIndex; ++paragraphIndex) {
+				searchInParagraph(it, paragraphIndex, pattern, matcher, found);
+			}
+		}
+		if (!found.isEmpty()) {
+			myMarks = merge(myMarks, found);
+		}
+		return found.size();
+	}
+
+	private String[] myCandidatesTerms;
+	private ZLTextSearchIndex myCandidatesIndex;
+	private int[] myCandidates;
+
+	// an extended search asks for the same candidates many times
+	private int[] findCandidates(String[] terms) {
+		final ZLTextSearchIndex index = mySearchIndex;
+		if (index == null) {
+			return null;
+		}
+		if (index != myCandidatesIndex || !Arrays.equals(terms, myCandidatesTerms)) {
+			myCandidates = findCandidates(index, terms);
+			myCandidatesIndex = index;
+			myCandidatesTerms = terms;
+		}
+		return myCandidates;
+	}
+
+	// paragraphs that may contain any of the terms
+	private int[] findCandidates(ZLTextSearchIndex index, String[] terms) {
+		final boolean[] found = new boolean[myParagraphsNumber];
+		int count = 0;
+		for (String term : terms) {
+			final int[] candidates = index.findCandidates(term);
+			if (candidates == null) {
+				return null;
+			}
+			for (int paragraphIndex : candidates) {
+				if (!found[paragraphIndex]) {
+					found[paragraphIndex] = true;
+					++count;
+				}
+			}
+		}
+		final int[] candidates = new int[count];
+		count = 0;
+		for (int i = 0; i < found.length; ++i) {
+			if (found[i]) {
+				candidates[count++] = i;
+			}
+		}
+		return candidates;
+	}
+
+	private static List<ZLTextMark> merge(List<ZLTextMark> marks, List<ZLTextMark> added) {
+		if (marks == null || marks.isEmpty()) {
+			return added;
+		}
+		final ArrayList<ZLTextMark> merged = new ArrayList<ZLTextMark>(marks.size() + added.size());
+		int i = 0;
+		int j = 0;
+		while (i < marks.size() && j < added.size()) {
+			merged.add((marks.get(i).compareTo(added.get(j)) <= 0) ? marks.get(i++) : added.get(j++));
+		}
+		merged.addAll(marks.subList(i, marks.size()));
+		merged.addAll(added.subList(j, added.size()));
+		return merged;
+	}
+
+	private char[] mySearchBuffer = new char[1024];
+
+	/*
+	 * Text entries of the paragraph are joined before matching,
+	 * so the pattern is found across control entries too.
+	 */
+	private void searchInParagraph(EntryIteratorImpl it, final int paragraphIndex, ZLSearchPattern pattern, final ZLMultiSearchMatcher matcher, final List<ZLTextMark> found) {
+		int length = 0;
+		for (it.reset(paragraphIndex); it.hasNext(); ) {
+			it.next();
+			if (it.getType() == ZLTextParagraph.Entry.TEXT) {
+				final int textLength = it.getTextLength();
+				if (length + textLength > mySearchBuffer.length) {
+					final char[] buffer = new char[Math.max(2 * mySearchBuffer.length, length + textLength)];
+					System.arraycopy(mySearchBuffer, 0, buffer, 0, length);
+					mySearchBuffer = buffer;
+				}
+				System.arraycopy(it.getTextData(), it.getTextOffset(), mySearchBuffer, length, textLength);
+				length += textLength;
+			}
+		}
+		final char[] buffer = mySearchBuffer;
+		if (matcher != null) {
+			final int first = found.size();
+			matcher.findAll(buffer, 0, length, new ZLMultiSearchMatcher.Handler() {
+				public void onMatch(int start, int patternIndex) {
+					found.add(new ZLTextMark(paragraphIndex, start, matcher.getLength(patternIndex)));
+				}
+			});
+			// matches come in order of their ends
+			Collections.sort(found.subList(first, found.size()));
+			return;
+		}
+		for (int pos = ZLSearchUtil.find(buffer, 0, length, pattern); pos != -1; 
+			pos = ZLSearchUtil.find(buffer, 0, length, pattern, pos + 1)) {
+			found.add(new ZLTextMark(paragraphIndex, pos, pattern.getLength()));
 		}
-		return count;
 	}
 
 	public final List<ZLTextMark> getMarks() {
-		return (myMarks != null) ? myMarks : Collections.<ZLTextMark>emptyList();
+		final List<ZLTextMark> marks = myMarks;
+		return (marks != null) ? marks : Collections.<ZLTextMark>emptyList();
 	}	
 
 	public final void removeAllMarks() {
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.io.*;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.util.ZLCharacterUtil;
+
+/**
+ * Word postings of a text model: for every case folded word (a maximal run
+ * of letters and digits, with text entries of a paragraph joined, so words
+ * split by controls are whole) the sorted list of paragraphs containing it.
+ * The index only narrows a search down to candidate paragraphs;
+ * matches are then verified against the paragraph text.
+ */
+public final class ZLTextSearchIndex {
+	private static final int MAGIC = 0x46425358;
+	private static final int VERSION = 2;
+
+	private final int myParagraphsNumber;
+	private final int myTextLength;
+	private final HashMap<String,int[]> myPostings;
+
+	private ZLTextSearchIndex(int paragraphsNumber, int textLength, HashMap<String,int[]> postings) {
+		myParagraphsNumber = paragraphsNumber;
+		myTextLength = textLength;
+		myPostings = postings;
+	}
+
+	private static int textLength(ZLTextModel model) {
+		final int paragraphsNumber = model.getParagraphsNumber();
+		return (paragraphsNumber > 0) ? model.getTextLength(paragraphsNumber - 1) : 0;
+	}
+
+	private static final class IntList {
+		int[] Data = new int[4];
+		int Size;
+
+		void add(int value) {
+			if (Size == Data.length) {
+				final int[] data = new int[2 * Size];
+				System.arraycopy(Data, 0, data, 0, Size);
+				Data = data;
+			}
+			Data[Size++] = value;
+		}
+
+		int[] toArray() {
+			final int[] array = new int[Size];
+			System.arraycopy(Data, 0, array, 0, Size);
+			return array;
+		}
+	}
+
+	/*
+	 * Indexes paragraphs one by one, so the caller can stop at any paragraph.
+	 */
+	public static final class Builder {
+		private final ZLTextModel myModel;
+		private final int myParagraphsNumber;
+		private final HashMap<String,IntList> myLists = new HashMap<String,IntList>();
+		private final StringBuilder myWord = new StringBuilder();
+		private int myNextIndex;
+
+		public Builder(ZLTextModel model) {
+			myModel = model;
+			myParagraphsNumber = model.getParagraphsNumber();
+		}
+
+		public boolean isComplete() {
+			return myNextIndex == myParagraphsNumber;
+		}
+
+		public void addNextParagraph() {
+			final int index = myNextIndex++;
+			final ZLTextParagraph paragraph = myModel.getParagraph(index);
+			if (paragraph.getKind() != ZLTextParagraph.Kind.TEXT_PARAGRAPH) {
+				return;
+			}
+			final StringBuilder word = myWord;
+			for (ZLTextParagraph.EntryIterator it = paragraph.iterator(); it.hasNext(); ) {
+				it.next();
+				if (it.getType() != ZLTextParagraph.Entry.TEXT) {
+					continue;
+				}
+				final char[] data = it.getTextData();
+				final int end = it.getTextOffset() + it.getTextLength();
+				for (int i = it.getTextOffset(); i < end; ++i) {
+					final char ch = data[i];
+					if (Character.isLetterOrDigit(ch)) {
+						word.append(ZLCharacterUtil.foldCase(ch));
+					} else if (word.length() > 0) {
+						addWord(myLists, word, index);
+					}
+				}
+			}
+			if (word.length() > 0) {
+				addWord(myLists, word, index);
+			}
+		}
+
+		public ZLTextSearchIndex build() {
+			final HashMap<String,int[]> postings = new HashMap<String,int[]>(2 * myLists.size());
+			for (Map.Entry<String,IntList> entry : myLists.entrySet()) {
+				postings.put(entry.getKey(), entry.getValue().toArray());
+			}
+			return new ZLTextSearchIndex(myParagraphsNumber, textLength(myModel), postings);
+		}
+	}
+
+	public static ZLTextSearchIndex build(ZLTextModel model) {
+		final Builder builder = new Builder(model);
+		while (!builder.isComplete()) {
+			builder.addNextParagraph();
+		}
+		return builder.build();
+	}
+
+	private static void addWord(HashMap<String,IntList> lists, StringBuilder word, int paragraphIndex) {
+		final String key = word.toString();
+		word.setLength(0);
+		IntList list = lists.get(key);
+		if (list == null) {
+			list = new IntList();
+			lists.put(key, list);
+		}
+		if (list.Size == 0 || list.Data[list.Size - 1] != paragraphIndex) {
+			list.add(paragraphIndex);
+		}
+	}
+
+	/*
+	 * Returns sorted indices of paragraphs that may contain text (in any case),
+	 * or null if the text has no letters or digits and the index cannot help.
+	 */
+	public int[] findCandidates(String text) {
+		final ArrayList<String> tokens = new ArrayList<String>();
+		final StringBuilder token = new StringBuilder();
+		for (int i = 0; i < text.length(); ++i) {
+			final char ch = text.charAt(i);
+			if (Character.isLetterOrDigit(ch)) {
+				token.append(ZLCharacterUtil.foldCase(ch));
+			} else if (token.length() > 0) {
+				tokens.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		if (token.length() > 0) {
+			tokens.add(token.toString());
+		}
+		if (tokens.isEmpty()) {
+			return null;
+		}
+
+		// the first and the last token may be parts of longer words
+		final boolean openStart = Character.isLetterOrDigit(text.charAt(0));
+		final boolean openEnd = Character.isLetterOrDigit(text.charAt(text.length() - 1));
+		final int last = tokens.size() - 1;
+		boolean[] result = null;
+		for (int i = 0; i <= last; ++i) {
+			final String t = tokens.get(i);
+			final boolean suffix = (i == 0) && openStart;
+			final boolean prefix = (i == last) && openEnd;
+			final boolean[] found = new boolean[myParagraphsNumber];
+			if (!suffix && !prefix) {
+				mark(found, myPostings.get(t));
+			} else {
+				for (Map.Entry<String,int[]> entry : myPostings.entrySet()) {
+					final String w = entry.getKey();
+					final boolean matches =
+						(suffix && prefix) ? (w.indexOf(t) != -1) :
+						suffix ? w.endsWith(t) : w.startsWith(t);
+					if (matches) {
+						mark(found, entry.getValue());
+					}
+				}
+			}
+			if (result == null) {
+				result = found;
+			} else {
+				for (int j = 0; j < myParagraphsNumber; ++j) {
+					result[j] &= found[j];
+				}
+			}
+		}
+
+		int count = 0;
+		for (boolean r : result) {
+			if (r) {
+				++count;
+			}
+		}
+		final int[] candidates = new int[count];
+		for (int j = 0, k = 0; j < myParagraphsNumber; ++j) {
+			if (result[j]) {
+				candidates[k++] = j;
+			}
+		}
+		return candidates;
+	}
+
+	private static void mark(boolean[] found, int[] paragraphs) {
+		if (paragraphs != null) {
+			for (int p : paragraphs) {
+				found[p] = true;
+			}
+		}
+	}
+
+	public void write(DataOutputStream stream) throws IOException {
+		stream.writeInt(MAGIC);
+		stream.writeInt(VERSION);
+		stream.writeInt(myParagraphsNumber);
+		stream.writeInt(myTextLength);
+		stream.writeInt(myPostings.size());
+		for (Map.Entry<String,int[]> entry : myPostings.entrySet()) {
+			final int[] paragraphs = entry.getValue();
+			stream.writeUTF(entry.getKey());
+			stream.writeInt(paragraphs.length);
+			for (int p : paragraphs) {
+				stream.writeInt(p);
+			}
+		}
+	}
+
+	/*
+	 * Returns null if the stream does not contain an index of this model.
+	 */
+	public static ZLTextSearchIndex read(DataInputStream stream, ZLTextModel model) throws IOException {
+		if (stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+			return null;
+		}
+		final int paragraphsNumber = stream.readInt();
+		final int textLength = stream.readInt();
+		if (paragraphsNumber != model.getParagraphsNumber() || textLength != textLength(model)) {
+			return null;
+		}
+		final int size = stream.readInt();
+		final HashMap<String,int[]> postings = new HashMap<String,int[]>(2 * size);
+		for (int i = 0; i < size; ++i) {
+			final String word = stream.readUTF();
+			final int[] paragraphs = new int[stream.readInt()];
+			for (int j = 0; j < paragraphs.length; ++j) {
+				paragraphs[j] = stream.readInt();
+			}
+			postings.put(word, paragraphs);
+		}
+		return new ZLTextSearchIndex(paragraphsNumber, textLength, postings);
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+/*
+ * Runs tasks one by one on a lazily started low-priority daemon thread.
+ * A new task replaces the pending one; submit and cancel make the running
+ * task obsolete, which the task checks through isCancelled.
+ */
+abstract class ZLTextBackgroundWorker<T> implements Runnable {
+	private final String myName;
+
+	private Thread myThread;
+	private int myGeneration;
+	private T myTask;
+
+	ZLTextBackgroundWorker(String name) {
+		myName = name;
+	}
+
+	final synchronized void submit(T task) {
+		++myGeneration;
+		myTask = task;
+		if (myThread == null) {
+			myThread = new Thread(this, myName);
+			myThread.setDaemon(true);
+			myThread.setPriority(Thread.MIN_PRIORITY);
+			myThread.start();
+		}
+		notify();
+	}
+
+	final synchronized void cancel() {
+		++myGeneration;
+		myTask = null;
+	}
+
+	final synchronized boolean isCancelled(int generation) {
+		return generation != myGeneration;
+	}
+
+	public final void run() {
+		while (true) {
+			final T task;
+			final int generation;
+			synchronized (this) {
+				while (myTask == null) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				task = myTask;
+				generation = myGeneration;
+				myTask = null;
+			}
+			process(task, generation);
+		}
+	}
+
+	abstract void process(T task, int generation);
+}
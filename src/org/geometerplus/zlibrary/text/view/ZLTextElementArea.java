@@ -29,6 +29,7 @@ final class ZLTextElementArea extends ZLTextFixedPosition {
 	final boolean AddHyphenationSign;
 	final boolean ChangeStyle;
 	final ZLTextStyle Style;
+	// null for words, which are kept in the paragraph cursor only
 	final ZLTextElement Element;
 
 	ZLTextElementArea(int paragraphIndex, int elementIndex, int charIndex, int length, boolean addHyphenationSign, boolean changeStyle, ZLTextStyle style, ZLTextElement element, int xStart, int xEnd, int yStart, int yEnd) {
@@ -46,6 +47,10 @@ final class ZLTextElementArea extends ZLTextFixedPosition {
 		Element = element;
 	}
 
+	boolean isWord() {
+		return Element == null;
+	}
+
 	boolean contains(int x, int y) {
 		return (y >= YStart) && (y <= YEnd) && (x >= XStart) && (x <= XEnd);
 	}
@@ -53,6 +53,27 @@ final class ZLTextLineInfo {
 		StartStyle = style;
 	}
 
+	ZLTextLineInfo(ZLTextLineInfo info, ZLTextParagraphCursor paragraphCursor) {
+		ParagraphCursor = paragraphCursor;
+		ParagraphCursorLength = info.ParagraphCursorLength;
+
+		StartElementIndex = info.StartElementIndex;
+		StartCharIndex = info.StartCharIndex;
+		RealStartElementIndex = info.RealStartElementIndex;
+		RealStartCharIndex = info.RealStartCharIndex;
+		EndElementIndex = info.EndElementIndex;
+		EndCharIndex = info.EndCharIndex;
+
+		IsVisible = info.IsVisible;
+		LeftIndent = info.LeftIndent;
+		Width = info.Width;
+		Height = info.Height;
+		Descent = info.Descent;
+		VSpaceAfter = info.VSpaceAfter;
+		SpaceCounter = info.SpaceCounter;
+		StartStyle = info.StartStyle;
+	}
+
 	boolean isEndOfParagraph() {
 		return EndElementIndex == ParagraphCursorLength;
 	}
@@ -60,12 +81,12 @@ final class ZLTextLineInfo {
 	public boolean equals(Object o) {
 		ZLTextLineInfo info = (ZLTextLineInfo)o;
 		return
-			(ParagraphCursor == info.ParagraphCursor) &&
+			(ParagraphCursor.Index == info.ParagraphCursor.Index) &&
 			(StartElementIndex == info.StartElementIndex) &&
 			(StartCharIndex == info.StartCharIndex);
 	}
 
 	public int hashCode() {
-		return ParagraphCursor.hashCode() + StartElementIndex + 239 * StartCharIndex;
+		return ParagraphCursor.Index + 31 * StartElementIndex + 239 * StartCharIndex;
 	}
 }
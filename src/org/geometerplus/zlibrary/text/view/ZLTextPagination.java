@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.io.*;
+
+/**
+ * Exact page boundaries of a text model laid out with a fixed
+ * text area size and style set; the Key identifies that layout.
+ * Pages are appended by ZLTextPaginator while the layout runs.
+ */
+public final class ZLTextPagination {
+	private static final int MAGIC = 0x46425047;
+	private static final int VERSION = 1;
+
+	public final String Key;
+
+	private final int myParagraphsNumber;
+	private int[] myStarts = new int[3 * 64];
+	private int myPagesNumber;
+	private boolean myIsComplete;
+
+	ZLTextPagination(String key, int paragraphsNumber) {
+		Key = key;
+		myParagraphsNumber = paragraphsNumber;
+	}
+
+	synchronized void addPage(ZLTextPosition start) {
+		final int index = 3 * myPagesNumber;
+		if (index == myStarts.length) {
+			final int[] starts = new int[2 * index];
+			System.arraycopy(myStarts, 0, starts, 0, index);
+			myStarts = starts;
+		}
+		myStarts[index] = start.getParagraphIndex();
+		myStarts[index + 1] = start.getElementIndex();
+		myStarts[index + 2] = start.getCharIndex();
+		++myPagesNumber;
+	}
+
+	synchronized void complete() {
+		myIsComplete = true;
+	}
+
+	public synchronized boolean isComplete() {
+		return myIsComplete;
+	}
+
+	public synchronized int getPagesNumber() {
+		return myPagesNumber;
+	}
+
+	/*
+	 * Percent of paragraphs already paginated.
+	 */
+	public synchronized int getProgress() {
+		if (myIsComplete) {
+			return 100;
+		}
+		if (myPagesNumber == 0 || myParagraphsNumber == 0) {
+			return 0;
+		}
+		return (int)(100L * myStarts[3 * (myPagesNumber - 1)] / myParagraphsNumber);
+	}
+
+	/*
+	 * Start of page number pageIndex (0-based).
+	 */
+	public synchronized ZLTextFixedPosition getPageStart(int pageIndex) {
+		final int index = 3 * pageIndex;
+		return new ZLTextFixedPosition(myStarts[index], myStarts[index + 1], myStarts[index + 2]);
+	}
+
+	/*
+	 * 0-based index of the page containing position; -1 if the page is not paginated yet.
+	 */
+	public synchronized int findPage(ZLTextPosition position) {
+		int left = 0;
+		int right = myPagesNumber - 1;
+		int result = -1;
+		while (left <= right) {
+			final int middle = (left + right) >>> 1;
+			if (compare(middle, position) <= 0) {
+				result = middle;
+				left = middle + 1;
+			} else {
+				right = middle - 1;
+			}
+		}
+		return result;
+	}
+
+	private int compare(int pageIndex, ZLTextPosition position) {
+		final int index = 3 * pageIndex;
+		int diff = myStarts[index] - position.getParagraphIndex();
+		if (diff == 0) {
+			diff = myStarts[index + 1] - position.getElementIndex();
+			if (diff == 0) {
+				diff = myStarts[index + 2] - position.getCharIndex();
+			}
+		}
+		return diff;
+	}
+
+	synchronized void write(DataOutputStream stream) throws IOException {
+		stream.writeInt(MAGIC);
+		stream.writeInt(VERSION);
+		stream.writeUTF(Key);
+		stream.writeInt(myPagesNumber);
+		for (int i = 0; i < 3 * myPagesNumber; ++i) {
+			stream.writeInt(myStarts[i]);
+		}
+	}
+
+	/*
+	 * Returns a complete pagination, or null if the stream does not contain one for this key.
+	 */
+	static ZLTextPagination read(DataInputStream stream, String key, int paragraphsNumber) throws IOException {
+		if (stream.readInt() != MAGIC || stream.readInt() != VERSION || !key.equals(stream.readUTF())) {
+			return null;
+		}
+		final ZLTextPagination pagination = new ZLTextPagination(key, paragraphsNumber);
+		final int pagesNumber = stream.readInt();
+		final int[] starts = new int[Math.max(3 * pagesNumber, 3)];
+		for (int i = 0; i < 3 * pagesNumber; ++i) {
+			starts[i] = stream.readInt();
+		}
+		pagination.myStarts = starts;
+		pagination.myPagesNumber = pagesNumber;
+		pagination.myIsComplete = true;
+		return pagination;
+	}
+}
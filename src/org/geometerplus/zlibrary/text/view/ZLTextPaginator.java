@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+/*
+ * Lays out the whole text page by page on a background thread
+ * and records exact page starts in a ZLTextPagination.
+ * Every page is built under the view lock, since layout uses the text
+ * style of the view, and under the paint context lock, since the context
+ * is shared with other views painted on the UI thread.
+ */
+final class ZLTextPaginator extends ZLTextBackgroundWorker<ZLTextPagination> {
+	private final ZLTextView myView;
+
+	ZLTextPaginator(ZLTextView view) {
+		super("ZLTextPaginator");
+		myView = view;
+	}
+
+	void start(ZLTextPagination pagination) {
+		submit(pagination);
+	}
+
+	void process(ZLTextPagination pagination, int generation) {
+		final ZLTextWordCursor cursor = new ZLTextWordCursor();
+		while (!isCancelled(generation) && myView.paginateNextPage(pagination, cursor)) {
+			Thread.yield();
+		}
+		if (pagination.isComplete() && !isCancelled(generation)) {
+			myView.onPaginationComplete(pagination);
+		}
+	}
+}
@@ -23,22 +23,23 @@ import java.util.*;
 import org.vimgadgets.linebreak.LineBreaker;
 
 import org.geometerplus.zlibrary.core.image.*;
+import org.geometerplus.zlibrary.core.view.ZLPaintContext;
 import org.geometerplus.zlibrary.text.model.*;
 
 public final class ZLTextParagraphCursor {
 	private static final class Processor {
+		private final ZLTextParagraphCursor myCursor;
 		private final ZLTextParagraph myParagraph;
 		private final LineBreaker myLineBreaker;
-		private final ArrayList<ZLTextElement> myElements;
 		private int myOffset;
 		private int myFirstMark;
 		private int myLastMark;
 		private final List<ZLTextMark> myMarks;
 		
-		private Processor(ZLTextParagraph paragraph, LineBreaker lineBreaker, List<ZLTextMark> marks, int paragraphIndex, ArrayList<ZLTextElement> elements) {
+		private Processor(ZLTextParagraphCursor cursor, ZLTextParagraph paragraph, LineBreaker lineBreaker, List<ZLTextMark> marks, int paragraphIndex) {
+			myCursor = cursor;
 			myParagraph = paragraph;
 			myLineBreaker = lineBreaker;
-			myElements = elements;
 			myMarks = marks;
 			final ZLTextMark mark = new ZLTextMark(paragraphIndex, 0, 0);
 			int i;
@@ -54,7 +55,7 @@ public final class ZLTextParagraphCursor {
 		}
 
 		void fill() {
-			final ArrayList<ZLTextElement> elements = myElements;
+			final ZLTextParagraphCursor cursor = myCursor;
 			for (ZLTextParagraph.EntryIterator it = myParagraph.iterator(); it.hasNext(); ) {
 				it.next();
 				switch (it.getType()) {
@@ -65,13 +66,13 @@ public final class ZLTextParagraphCursor {
 						if (it.getControlIsStart()) {
 							final byte hyperlinkType = it.getHyperlinkType();
 							if (hyperlinkType != 0) {
-								elements.add(new ZLTextHyperlinkControlElement(
+								cursor.addElement(new ZLTextHyperlinkControlElement(
 									it.getControlKind(), hyperlinkType, it.getHyperlinkId()
 								));
 								break;
 							}
 						}
-						elements.add(ZLTextControlElement.get(it.getControlKind(), it.getControlIsStart()));
+						cursor.addElement(ZLTextControlElement.get(it.getControlKind(), it.getControlIsStart()));
 						break;
 					case ZLTextParagraph.Entry.IMAGE:
 						final ZLImageEntry imageEntry = it.getImageEntry();
@@ -79,7 +80,7 @@ public final class ZLTextParagraphCursor {
 						if (image != null) {
 							ZLImageData data = ZLImageManager.Instance().getImageData(image);
 							if (data != null) {
-								elements.add(new ZLTextImageElement(imageEntry.Id, data));
+								cursor.addElement(new ZLTextImageElement(imageEntry.Id, data));
 							}
 						}
 						break;
@@ -87,26 +88,34 @@ public final class ZLTextParagraphCursor {
 						// TODO: implement
 						break;
 					case ZLTextParagraph.Entry.FIXED_HSPACE:
-						elements.add(ZLTextFixedHSpaceElement.getElement(it.getFixedHSpaceLength()));
+						cursor.addElement(ZLTextFixedHSpaceElement.getElement(it.getFixedHSpaceLength()));
 						break;
 				}
 			}
 		}
 		
-		private static byte[] ourBreaks = new byte[1024];
+		// paragraphs are tokenized concurrently, so each thread has its own buffer
+		private static final ThreadLocal<byte[]> ourBreaks = new ThreadLocal<byte[]>() {
+			@Override
+			protected byte[] initialValue() {
+				return new byte[1024];
+			}
+		};
 		private static final int NO_SPACE = 0;
 		private static final int SPACE = 1;
 		//private static final int NON_BREAKABLE_SPACE = 2;
 		private void processTextEntry(final char[] data, final int offset, final int length) {
 			if (length != 0) {
-				if (ourBreaks.length < length) {
-					ourBreaks = new byte[length];
+				byte[] breaks = ourBreaks.get();
+				if (breaks.length < length) {
+					breaks = new byte[length];
+					ourBreaks.set(breaks);
 				}
-				final byte[] breaks = ourBreaks;
 				myLineBreaker.setLineBreaks(data, offset, length, breaks);
+				myCursor.appendText(data, offset, length);
 
 				final ZLTextElement hSpace = ZLTextElement.HSpace;
-				final ArrayList<ZLTextElement> elements = myElements;
+				final ZLTextParagraphCursor cursor = myCursor;
 				char ch = 0;
 				char previousChar = 0;
 				int spaceState = NO_SPACE;
@@ -116,7 +125,7 @@ public final class ZLTextParagraphCursor {
 					ch = data[offset + index];
 					if (Character.isSpace(ch)) {
 						if (index > 0 && spaceState == NO_SPACE) {
-							addWord(data, offset + wordStart, index - wordStart, myOffset + wordStart);
+							addWord(myOffset + wordStart, index - wordStart);
 						}
 						spaceState = SPACE;
 					} else {
@@ -124,7 +133,7 @@ public final class ZLTextParagraphCursor {
 							case SPACE:
 								//if (breaks[index - 1] == LineBreak.NOBREAK || previousChar == '-') {
 								//}
-								elements.add(hSpace);
+								cursor.addElement(hSpace);
 								wordStart = index;
 								break;
 							//case NON_BREAKABLE_SPACE:
@@ -134,7 +143,7 @@ public final class ZLTextParagraphCursor {
 									breaks[index - 1] != LineBreaker.NOBREAK &&
 									previousChar != '-' &&
 									index != wordStart) {
-									addWord(data, offset + wordStart, index - wordStart, myOffset + wordStart);
+									addWord(myOffset + wordStart, index - wordStart);
 									wordStart = index;
 								}
 								break;
@@ -144,47 +153,84 @@ public final class ZLTextParagraphCursor {
 				}
 				switch (spaceState) {
 					case SPACE:
-						elements.add(hSpace);
+						cursor.addElement(hSpace);
 						break;
 					//case NON_BREAKABLE_SPACE:
 						//break;
 					case NO_SPACE:
-						addWord(data, offset + wordStart, length - wordStart, myOffset + wordStart);
+						addWord(myOffset + wordStart, length - wordStart);
 						break;
 				}
 				myOffset += length;
 			}
 		}
 
-		private final void addWord(char[] data, int offset, int len, int paragraphOffset) {
-			ZLTextWord word = new ZLTextWord(data, offset, len, paragraphOffset);
+		private final void addWord(int paragraphOffset, int len) {
+			ZLTextWord.Mark wordMark = null;
 			for (int i = myFirstMark; i < myLastMark; ++i) {
 				final ZLTextMark mark = (ZLTextMark)myMarks.get(i);
 				if ((mark.Offset < paragraphOffset + len) && (mark.Offset + mark.Length > paragraphOffset)) {
-					word.addMark(mark.Offset - paragraphOffset, mark.Length);
+					wordMark = ZLTextWord.Mark.add(wordMark, mark.Offset - paragraphOffset, mark.Length);
 				}
 			}
-			myElements.add(word);		
+			myCursor.addWord(paragraphOffset, len, wordMark);
 		}
 	}
 		
 	public final int Index;
 	public final ZLTextModel Model;
-	private final ArrayList<ZLTextElement> myElements = new ArrayList<ZLTextElement>();
 
-	private ZLTextParagraphCursor(ZLTextModel model, int index) {
+	/*
+	 * Elements are stored as parallel arrays: myElements holds non-word elements
+	 * (mostly shared singletons) and null for words; words are ranges of myText,
+	 * a copy of the paragraph text, so no object is kept per word.
+	 * ZLTextWord objects are created on demand by getElement.
+	 */
+	private int myLength;
+	private ZLTextElement[] myElements = EMPTY_ELEMENTS;
+	private int[] myWordOffsets = EMPTY_INTS;
+	private int[] myWordLengths = EMPTY_INTS;
+	private int[] myWordWidths = EMPTY_INTS;
+	private int[] myWordFontIds = EMPTY_INTS;
+	// null if no word of the paragraph is marked
+	private ZLTextWord.Mark[] myWordMarks;
+	private char[] myText = EMPTY_TEXT;
+	private int myTextLength;
+
+	private static final ZLTextElement[] EMPTY_ELEMENTS = new ZLTextElement[0];
+	private static final int[] EMPTY_INTS = new int[0];
+	private static final char[] EMPTY_TEXT = new char[0];
+
+	/*
+	 * Cursors of background passes over the whole text (pagination) are not
+	 * cached: they would evict the paragraphs around the reading position;
+	 * their neighbours are not cached either.
+	 */
+	private final boolean myIsCached;
+
+	ZLTextParagraphCursor(ZLTextModel model, int index) {
+		this(model, index, true);
+	}
+
+	private ZLTextParagraphCursor(ZLTextModel model, int index, boolean isCached) {
 		Model = model;
 		Index = Math.min(index, Model.getParagraphsNumber() - 1);
+		myIsCached = isCached;
 		fill();
 	}
 	
+	// paragraphs are tokenized both by the view and by ZLTextParagraphPrefetcher;
+	// a cursor is only filled by the thread that has created it
 	static ZLTextParagraphCursor cursor(ZLTextModel model, int index) {
-		ZLTextParagraphCursor result = ZLTextParagraphCursorCache.get(model, index);
-		if (result == null) {
-			result = new ZLTextParagraphCursor(model, index);
-			ZLTextParagraphCursorCache.put(model, index, result);
-		}
-		return result;
+		return ZLTextParagraphCursorCache.cursor(model, index);
+	}
+
+	static ZLTextParagraphCursor cursor(ZLTextModel model, int index, boolean isCached) {
+		return isCached ? cursor(model, index) : new ZLTextParagraphCursor(model, index, false);
+	}
+
+	boolean isCached() {
+		return myIsCached;
 	}
 
 	private static final char[] SPACE_ARRAY = { ' ' };
@@ -192,18 +238,101 @@ public final class ZLTextParagraphCursor {
 		ZLTextParagraph	paragraph = Model.getParagraph(Index);
 		switch (paragraph.getKind()) {
 			case ZLTextParagraph.Kind.TEXT_PARAGRAPH:
-				new Processor(paragraph, new LineBreaker(Model.getLanguage()), Model.getMarks(), Index, myElements).fill();
+				new Processor(this, paragraph, new LineBreaker(Model.getLanguage()), Model.getMarks(), Index).fill();
 				break;
 			case ZLTextParagraph.Kind.EMPTY_LINE_PARAGRAPH:
-				myElements.add(new ZLTextWord(SPACE_ARRAY, 0, 1, 0));
+				appendText(SPACE_ARRAY, 0, 1);
+				addWord(0, 1, null);
 				break;
 			default:
 				break;
 		}
+		trim();
 	}
 	
 	void clear() {
-		myElements.clear();
+		myLength = 0;
+		myElements = EMPTY_ELEMENTS;
+		myWordOffsets = EMPTY_INTS;
+		myWordLengths = EMPTY_INTS;
+		myWordWidths = EMPTY_INTS;
+		myWordFontIds = EMPTY_INTS;
+		myWordMarks = null;
+		myText = EMPTY_TEXT;
+		myTextLength = 0;
+	}
+
+	private void appendText(char[] data, int offset, int length) {
+		if (myTextLength + length > myText.length) {
+			final char[] text = new char[Math.max(2 * myText.length, myTextLength + length)];
+			System.arraycopy(myText, 0, text, 0, myTextLength);
+			myText = text;
+		}
+		System.arraycopy(data, offset, myText, myTextLength, length);
+		myTextLength += length;
+	}
+
+	private void ensureCapacity() {
+		if (myLength == myElements.length) {
+			final int capacity = Math.max(2 * myLength, 16);
+			final ZLTextElement[] elements = new ZLTextElement[capacity];
+			System.arraycopy(myElements, 0, elements, 0, myLength);
+			myElements = elements;
+			myWordOffsets = grow(myWordOffsets, capacity);
+			myWordLengths = grow(myWordLengths, capacity);
+			if (myWordMarks != null) {
+				final ZLTextWord.Mark[] marks = new ZLTextWord.Mark[capacity];
+				System.arraycopy(myWordMarks, 0, marks, 0, myLength);
+				myWordMarks = marks;
+			}
+		}
+	}
+
+	private int[] grow(int[] array, int capacity) {
+		final int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, myLength);
+		return result;
+	}
+
+	private void addElement(ZLTextElement element) {
+		ensureCapacity();
+		myElements[myLength++] = element;
+	}
+
+	private void addWord(int offset, int length, ZLTextWord.Mark mark) {
+		ensureCapacity();
+		myWordOffsets[myLength] = offset;
+		myWordLengths[myLength] = length;
+		if (mark != null) {
+			if (myWordMarks == null) {
+				myWordMarks = new ZLTextWord.Mark[myElements.length];
+			}
+			myWordMarks[myLength] = mark;
+		}
+		myElements[myLength++] = null;
+	}
+
+	private void trim() {
+		if (myLength < myElements.length) {
+			final ZLTextElement[] elements = new ZLTextElement[myLength];
+			System.arraycopy(myElements, 0, elements, 0, myLength);
+			myElements = elements;
+			myWordOffsets = grow(myWordOffsets, myLength);
+			myWordLengths = grow(myWordLengths, myLength);
+			if (myWordMarks != null) {
+				final ZLTextWord.Mark[] marks = new ZLTextWord.Mark[myLength];
+				System.arraycopy(myWordMarks, 0, marks, 0, myLength);
+				myWordMarks = marks;
+			}
+		}
+		if (myTextLength < myText.length) {
+			final char[] text = new char[myTextLength];
+			System.arraycopy(myText, 0, text, 0, myTextLength);
+			myText = text;
+		}
+		myWordWidths = new int[myLength];
+		Arrays.fill(myWordWidths, -1);
+		myWordFontIds = new int[myLength];
 	}
 
 	public boolean isFirst() {
@@ -219,23 +348,66 @@ public final class ZLTextParagraphCursor {
 	}
 	
 	int getParagraphLength() {
-		return myElements.size();
+		return myLength;
 	}
 
 	public ZLTextParagraphCursor previous() {
-		return isFirst() ? null : cursor(Model, Index - 1);
+		return isFirst() ? null : cursor(Model, Index - 1, myIsCached);
 	}
 
 	public ZLTextParagraphCursor next() {
-		return isLast() ? null : cursor(Model, Index + 1);
+		return isLast() ? null : cursor(Model, Index + 1, myIsCached);
 	}
 	
 	ZLTextElement getElement(int index) {
-		try {
-			return myElements.get(index);
-		} catch (IndexOutOfBoundsException e) {
+		if (index < 0 || index >= myLength) {
 			return null;
 		}
+		final ZLTextElement element = myElements[index];
+		if (element != null) {
+			return element;
+		}
+		final int offset = myWordOffsets[index];
+		final ZLTextWord word = new ZLTextWord(myText, offset, myWordLengths[index], offset);
+		if (myWordMarks != null) {
+			word.setMark(myWordMarks[index]);
+		}
+		return word;
+	}
+
+	boolean isWord(int index) {
+		return (index >= 0) && (index < myLength) && (myElements[index] == null);
+	}
+
+	/*
+	 * Text of the paragraph; word number index occupies
+	 * getWordLength(index) chars starting at getWordOffset(index).
+	 */
+	char[] getText() {
+		return myText;
+	}
+
+	int getWordOffset(int index) {
+		return myWordOffsets[index];
+	}
+
+	int getWordLength(int index) {
+		return myWordLengths[index];
+	}
+
+	ZLTextWord.Mark getWordMark(int index) {
+		return (myWordMarks != null) ? myWordMarks[index] : null;
+	}
+
+	int getWordWidth(int index, ZLPaintContext context) {
+		final int fontId = context.getFontId();
+		int width = myWordWidths[index];
+		if (width == -1 || myWordFontIds[index] != fontId) {
+			width = context.getStringWidth(myText, myWordOffsets[index], myWordLengths[index]);
+			myWordWidths[index] = width;
+			myWordFontIds[index] = fontId;
+		}
+		return width;
 	}
 
 	ZLTextParagraph getParagraph() {
@@ -244,6 +416,6 @@ public final class ZLTextParagraphCursor {
 
 	@Override
 	public String toString() {
-		return "ZLTextParagraphCursor [" + Index + " (0.." + myElements.size() + ")]";
+		return "ZLTextParagraphCursor [" + Index + " (0.." + myLength + ")]";
 	}
 }
@@ -17,14 +17,19 @@
  * 02110-1301, USA.
  */
 
+
 package org.geometerplus.zlibrary.text.view;
 
-import java.lang.ref.WeakReference;
 import java.util.*;
 
 import org.geometerplus.zlibrary.text.model.ZLTextModel;
 
-class ZLTextParagraphCursorCache {
+/*
+ * LRU of tokenized paragraphs. Cursors are referenced strongly; the cache
+ * is bounded both by number of cursors and by total number of elements
+ * (an element costs roughly the same memory as a word object).
+ */
+public final class ZLTextParagraphCursorCache {
 	private final static class Key {
 		private final ZLTextModel myModel;
 		private final int myIndex;
@@ -44,18 +49,203 @@ class ZLTextParagraphCursorCache {
 		}
 	}
 
-	private static final HashMap<Key,WeakReference<ZLTextParagraphCursor>> ourMap = new HashMap<Key,WeakReference<ZLTextParagraphCursor>>();
+	private final static class Entry {
+		final ZLTextParagraphCursor Cursor;
+		// element number at the moment of insertion; cursor can be refilled later
+		final int Weight;
+
+		Entry(ZLTextParagraphCursor cursor) {
+			Cursor = cursor;
+			Weight = cursor.getParagraphLength();
+		}
+	}
+
+	private static int ourMaxCursorsNumber = 200;
+	private static int ourMaxElementsNumber = 100000;
+	private static int ourElementsNumber;
+
+	private static int ourHits;
+	private static int ourMisses;
+	private static int ourEvictions;
+
+	private static final LinkedHashMap<Key,Entry> ourMap =
+		new LinkedHashMap<Key,Entry>(256, 0.75f, true);
+
+	/*
+	 * Paragraph being tokenized: the first thread that misses it does the
+	 * work outside the cache lock, other threads asking for the same
+	 * paragraph wait for the result.
+	 */
+	private final static class Loading {
+		final int Generation;
+		ZLTextParagraphCursor Cursor;
+		boolean IsStored;
+		boolean IsDone;
+
+		Loading(int generation) {
+			Generation = generation;
+		}
+	}
+
+	private static final HashMap<Key,Loading> ourLoadings = new HashMap<Key,Loading>();
+	// incremented by clear(); cursors tokenized before a clear are not put back
+	private static int ourGeneration;
+
+	public static synchronized void setCapacity(int maxCursorsNumber, int maxElementsNumber) {
+		ourMaxCursorsNumber = Math.max(maxCursorsNumber, 1);
+		ourMaxElementsNumber = Math.max(maxElementsNumber, 1);
+		trim();
+	}
+
+	static ZLTextParagraphCursor cursor(ZLTextModel model, int index) {
+		final Key key = new Key(model, index);
+		while (true) {
+			Loading loading;
+			boolean isOwner = false;
+			synchronized (ZLTextParagraphCursorCache.class) {
+				final Entry entry = ourMap.get(key);
+				if (entry != null) {
+					++ourHits;
+					return entry.Cursor;
+				}
+				loading = ourLoadings.get(key);
+				if (loading == null) {
+					++ourMisses;
+					loading = new Loading(ourGeneration);
+					ourLoadings.put(key, loading);
+					isOwner = true;
+				}
+			}
+
+			if (isOwner) {
+				ZLTextParagraphCursor cursor = null;
+				try {
+					cursor = new ZLTextParagraphCursor(model, index);
+				} finally {
+					finish(key, loading, cursor);
+				}
+				return cursor;
+			}
 
-	public static void put(ZLTextModel model, int index, ZLTextParagraphCursor cursor) {
-		ourMap.put(new Key(model, index), new WeakReference<ZLTextParagraphCursor>(cursor));
+			synchronized (loading) {
+				while (!loading.IsDone) {
+					try {
+						loading.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return new ZLTextParagraphCursor(model, index);
+					}
+				}
+			}
+			if (loading.IsStored) {
+				return loading.Cursor;
+			}
+			// the cache was cleared meanwhile: tokenize again
+		}
+	}
+
+	private static void finish(Key key, Loading loading, ZLTextParagraphCursor cursor) {
+		synchronized (ZLTextParagraphCursorCache.class) {
+			if (ourLoadings.get(key) == loading) {
+				ourLoadings.remove(key);
+			}
+			if ((cursor != null) && (loading.Generation == ourGeneration)) {
+				put(key, cursor);
+				loading.IsStored = true;
+			}
+		}
+		synchronized (loading) {
+			loading.Cursor = cursor;
+			loading.IsDone = true;
+			loading.notifyAll();
+		}
 	}
 
-	public static ZLTextParagraphCursor get(ZLTextModel model, int index) {
-		WeakReference<ZLTextParagraphCursor> ref = ourMap.get(new Key(model, index));
-		return (ref != null) ? ref.get() : null;
+	private static void put(Key key, ZLTextParagraphCursor cursor) {
+		final Entry entry = new Entry(cursor);
+		final Entry old = ourMap.put(key, entry);
+		if (old != null) {
+			ourElementsNumber -= old.Weight;
+		}
+		ourElementsNumber += entry.Weight;
+		trim();
 	}
 
-	public static void clear() {
+	private static void trim() {
+		// the most recently used cursor is always kept, even if it alone exceeds the limits
+		final Iterator<Entry> it = ourMap.values().iterator();
+		while ((ourMap.size() > 1) &&
+			   ((ourMap.size() > ourMaxCursorsNumber) || (ourElementsNumber > ourMaxElementsNumber))) {
+			ourElementsNumber -= it.next().Weight;
+			it.remove();
+			++ourEvictions;
+		}
+	}
+
+	public static synchronized void clear(ZLTextModel model) {
+		++ourGeneration;
+		for (Iterator<Key> it = ourLoadings.keySet().iterator(); it.hasNext(); ) {
+			if (it.next().myModel == model) {
+				it.remove();
+			}
+		}
+		for (Iterator<Entry> it = ourMap.values().iterator(); it.hasNext(); ) {
+			final Entry entry = it.next();
+			if (entry.Cursor.Model == model) {
+				ourElementsNumber -= entry.Weight;
+				it.remove();
+			}
+		}
+	}
+
+	static synchronized void clear(ZLTextModel model, int startIndex, int endIndex) {
+		++ourGeneration;
+		for (Iterator<Key> it = ourLoadings.keySet().iterator(); it.hasNext(); ) {
+			final Key key = it.next();
+			if (key.myModel == model && key.myIndex >= startIndex && key.myIndex < endIndex) {
+				it.remove();
+			}
+		}
+		for (Iterator<Entry> it = ourMap.values().iterator(); it.hasNext(); ) {
+			final Entry entry = it.next();
+			if (entry.Cursor.Model == model &&
+				entry.Cursor.Index >= startIndex && entry.Cursor.Index < endIndex) {
+				ourElementsNumber -= entry.Weight;
+				it.remove();
+			}
+		}
+	}
+
+	public static synchronized void clear() {
+		++ourGeneration;
+		ourLoadings.clear();
 		ourMap.clear();
+		ourElementsNumber = 0;
+	}
+
+	public static synchronized int size() {
+		return ourMap.size();
+	}
+
+	public static synchronized int elementsNumber() {
+		return ourElementsNumber;
+	}
+
+	public static synchronized int hits() {
+		return ourHits;
+	}
+
+	public static synchronized int misses() {
+		return ourMisses;
+	}
+
+	public static synchronized int evictions() {
+		return ourEvictions;
+	}
+
+	public static synchronized void resetStatistics() {
+		ourHits = 0;
+		ourMisses = 0;
+		ourEvictions = 0;
 	}
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+
+/*
+ * Tokenizes paragraphs around the current page on a background thread,
+ * so the next page turn finds ready cursors in ZLTextParagraphCursorCache.
+ */
+final class ZLTextParagraphPrefetcher extends ZLTextBackgroundWorker<ZLTextParagraphPrefetcher.Range> {
+	static final class Range {
+		final ZLTextModel Model;
+		final int StartIndex;
+		final int EndIndex;
+
+		Range(ZLTextModel model, int startIndex, int endIndex) {
+			Model = model;
+			StartIndex = startIndex;
+			EndIndex = endIndex;
+		}
+	}
+
+	private final int myDepth;
+
+	ZLTextParagraphPrefetcher(int depth) {
+		super("ZLTextParagraphPrefetcher");
+		myDepth = depth;
+	}
+
+	void schedule(ZLTextModel model, int startIndex, int endIndex) {
+		submit(new Range(model, startIndex, endIndex));
+	}
+
+	void process(Range range, int generation) {
+		final ZLTextModel model = range.Model;
+		final int paragraphsNumber = model.getParagraphsNumber();
+		for (int i = 1; i <= myDepth; ++i) {
+			if (isCancelled(generation)) {
+				break;
+			}
+			if (range.EndIndex + i < paragraphsNumber) {
+				ZLTextParagraphCursor.cursor(model, range.EndIndex + i);
+			}
+			if (isCancelled(generation)) {
+				break;
+			}
+			if (range.StartIndex - i >= 0) {
+				ZLTextParagraphCursor.cursor(model, range.StartIndex - i);
+			}
+		}
+	}
+}
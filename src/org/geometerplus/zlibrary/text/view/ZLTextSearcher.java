@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2007-2010 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+
+/*
+ * Searches the paragraphs a search has not covered yet on a background
+ * thread, block by block, and streams the found marks to the view.
+ */
+final class ZLTextSearcher extends ZLTextBackgroundWorker<ZLTextSearcher.Query> {
+	static final int BLOCK_SIZE = 128;
+
+	static final class Query {
+		final ZLTextModel Model;
+		final String[] Terms;
+		final boolean IgnoreCase;
+		// paragraphs [SearchedStart, SearchedEnd) have been searched already
+		final int SearchedStart;
+		final int SearchedEnd;
+
+		Query(ZLTextModel model, String[] terms, boolean ignoreCase, int searchedStart, int searchedEnd) {
+			Model = model;
+			Terms = terms;
+			IgnoreCase = ignoreCase;
+			SearchedStart = searchedStart;
+			SearchedEnd = searchedEnd;
+		}
+	}
+
+	private final ZLTextView myView;
+
+	ZLTextSearcher(ZLTextView view) {
+		super("ZLTextSearcher");
+		myView = view;
+	}
+
+	void process(Query query, int generation) {
+		final int paragraphsNumber = query.Model.getParagraphsNumber();
+		if (searchRange(query, query.SearchedEnd, paragraphsNumber, generation)) {
+			searchRange(query, 0, query.SearchedStart, generation);
+		}
+	}
+
+	private boolean searchRange(Query query, int startIndex, int endIndex, int generation) {
+		for (int index = startIndex; index < endIndex; index += BLOCK_SIZE) {
+			final int blockEnd = Math.min(index + BLOCK_SIZE, endIndex);
+			int count;
+			// cancel waits for the block, so a cancelled query never adds marks
+			synchronized (this) {
+				if (isCancelled(generation)) {
+					return false;
+				}
+				count = query.Model.extendSearch(query.Terms, index, blockEnd, query.IgnoreCase);
+			}
+			if (count > 0) {
+				myView.onMarksAdded(query.Model, index, blockEnd);
+			}
+			Thread.yield();
+		}
+		return true;
+	}
+}
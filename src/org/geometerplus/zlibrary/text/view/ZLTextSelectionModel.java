@@ -203,19 +203,16 @@ final class ZLTextSelectionModel {
 
 				for (int wordIndex = 0; wordIndex < para.getParagraphLength(); wordIndex++) {
 					if (paraIndex > range.Left.ParagraphIndex || wordIndex >= range.Left.ElementIndex) {
-						ZLTextElement element = para.getElement(wordIndex);
-						if (element == ZLTextElement.HSpace) {
-							myText.append(" ");
-						}
-						if (element instanceof ZLTextWord) {
-							ZLTextWord word = (ZLTextWord)element;
+						if (para.isWord(wordIndex)) {
 							int from = (wordIndex == range.Left.ElementIndex && 
 										paraIndex == range.Left.ParagraphIndex ?
 											range.Left.CharIndex : 0);
 							int to = (wordIndex == range.Right.ElementIndex &&
 										paraIndex == range.Right.ParagraphIndex ?
-											range.Right.CharIndex : word.Length);
-							myText.append(word.Data, word.Offset + from, to - from);
+											range.Right.CharIndex : para.getWordLength(wordIndex));
+							myText.append(para.getText(), para.getWordOffset(wordIndex) + from, to - from);
+						} else if (para.getElement(wordIndex) == ZLTextElement.HSpace) {
+							myText.append(" ");
 						}
 						if (paraIndex == range.Right.ParagraphIndex &&
 							wordIndex == range.Right.ElementIndex) {
@@ -263,24 +260,29 @@ final class ZLTextSelectionModel {
 				bound.Before.ParagraphIndex = bound.After.ParagraphIndex;
 				bound.Before.ElementIndex = bound.After.ElementIndex;
 				bound.Before.Exists = true;
-				if (elementArea.Element instanceof ZLTextWord) {
-					myView.setTextStyle(elementArea.Style);
-					final ZLTextWord word = (ZLTextWord)elementArea.Element;
-					final int deltaX = x - elementArea.XStart;
-					final int start = elementArea.CharIndex;
-					final int len = elementArea.Length;
-					int diff = deltaX;
-					int previousDiff = diff;
-					int index;
-					for (index = 0; (index < len) && (diff > 0); ++index) {
-						previousDiff = diff;
-						diff = deltaX - myView.getWordWidth(word, start, index + 1);
-					}
-					if (previousDiff + diff < 0) {
-						--index;
+				if (elementArea.isWord()) {
+					// measures with the paint context shared with the paginator thread
+					synchronized (myView.Context) {
+						myView.setTextStyle(elementArea.Style);
+						final ZLTextParagraphCursor paragraph = ZLTextParagraphCursor.cursor(
+							myView.getModel(), elementArea.ParagraphIndex
+						);
+						final int deltaX = x - elementArea.XStart;
+						final int start = elementArea.CharIndex;
+						final int len = elementArea.Length;
+						int diff = deltaX;
+						int previousDiff = diff;
+						int index;
+						for (index = 0; (index < len) && (diff > 0); ++index) {
+							previousDiff = diff;
+							diff = deltaX - myView.getWordWidth(paragraph, elementArea.ElementIndex, start, index + 1, false);
+						}
+						if (previousDiff + diff < 0) {
+							--index;
+						}
+						bound.After.CharIndex = start + index;
+						bound.Before.CharIndex = bound.After.CharIndex;
 					}
-					bound.After.CharIndex = start + index;
-					bound.Before.CharIndex = bound.After.CharIndex;
 				}
 			} else if (areaIndex == 0) {
 				bound.Before.Exists = false;
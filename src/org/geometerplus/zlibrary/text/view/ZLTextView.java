@@ -19,6 +19,7 @@
 
 package org.geometerplus.zlibrary.text.view;
 
+import java.io.*;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.application.ZLApplication;
@@ -57,7 +58,30 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	ZLTextPage myCurrentPage = new ZLTextPage();
 	private ZLTextPage myNextPage = new ZLTextPage();
 
-	private final HashMap<ZLTextLineInfo,ZLTextLineInfo> myLineInfoCache = new HashMap<ZLTextLineInfo,ZLTextLineInfo>();
+	/*
+	 * Line breaks retained across page turns, keyed by paragraph index and line start.
+	 * Valid while the text area size and layout style options stay the same.
+	 */
+	private static final int LINE_INFO_CACHE_SIZE = 2048;
+	private final LinkedHashMap<ZLTextLineInfo,ZLTextLineInfo> myLineInfoCache =
+		new LinkedHashMap<ZLTextLineInfo,ZLTextLineInfo>(256, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ZLTextLineInfo,ZLTextLineInfo> eldest) {
+				return size() > LINE_INFO_CACHE_SIZE;
+			}
+		};
+	private int myLineInfoCacheWidth = -1;
+	private int myLineInfoCacheHeight = -1;
+	private int myLineInfoCacheStyleHash;
+	private boolean myLineInfoCacheIsEnabled = true;
+
+	private static final int PREFETCH_DEPTH = 8;
+	private final ZLTextParagraphPrefetcher myPrefetcher = new ZLTextParagraphPrefetcher(PREFETCH_DEPTH);
+
+	private final ZLTextPaginator myPaginator = new ZLTextPaginator(this);
+	private final ZLTextSearcher mySearcher = new ZLTextSearcher(this);
+	private final ZLTextPage myPaginationPage = new ZLTextPage();
+	private ZLTextPagination myPagination;
 
 	public ZLTextView(ZLPaintContext context) {
 		super(context);
@@ -65,10 +89,17 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public synchronized void setModel(ZLTextModel model) {
-		ZLTextParagraphCursorCache.clear();
+		mySearcher.cancel();
+		myPrefetcher.cancel();
+		myPaginator.cancel();
+		myPagination = null;
+		if (myModel != null) {
+			ZLTextParagraphCursorCache.clear(myModel);
+		}
 		mySelectionModel.clear();
 
 		myModel = model;
+		myLineInfoCache.clear();
 		myCurrentPage.reset();
 		myPreviousPage.reset();
 		myNextPage.reset();
@@ -136,31 +167,104 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		}
 	}
 
-	public synchronized int search(final String text, boolean ignoreCase, boolean wholeText, boolean backward, boolean thisSectionOnly) {
-		if (text.length() == 0) {
+	/*
+	 * Paragraphs are searched block by block in the search direction, starting
+	 * from the current page (or from the text start or end for wholeText),
+	 * until the mark to go to is found; the remaining paragraphs are searched
+	 * in background, and their marks appear as they are found. If there is
+	 * no mark to go to, the whole text is searched at once. Returns the
+	 * number of marks found so far.
+	 */
+	public int search(final String text, boolean ignoreCase, boolean wholeText, boolean backward, boolean thisSectionOnly) {
+		return search(new String[] { text }, ignoreCase, wholeText, backward, thisSectionOnly);
+	}
+
+	// marks occurrences of any of the terms, e.g. to highlight several words at once
+	public synchronized int search(final String[] terms, boolean ignoreCase, boolean wholeText, boolean backward, boolean thisSectionOnly) {
+		mySearcher.cancel();
+		final ArrayList<String> list = new ArrayList<String>(terms.length);
+		for (String term : terms) {
+			if (term.length() != 0) {
+				list.add(term);
+			}
+		}
+		if (list.isEmpty()) {
 			return 0;
 		}
+		final String[] nonEmptyTerms = list.toArray(new String[list.size()]);
 		int startIndex = 0;
 		int endIndex = myModel.getParagraphsNumber();
 		if (thisSectionOnly) {
 			// TODO: implement
 		}
-		int count = myModel.search(text, startIndex, endIndex, ignoreCase);
+		final ZLTextMark position =
+			myCurrentPage.StartCursor.isNull() ? null : myCurrentPage.StartCursor.getMark();
+		int anchor;
+		if (wholeText || position == null) {
+			anchor = backward ? endIndex : startIndex;
+		} else {
+			anchor = Math.min(position.ParagraphIndex + (backward ? 1 : 0), endIndex);
+		}
+
+		myModel.removeAllMarks();
+		int count = 0;
+		int searchedStart = anchor;
+		int searchedEnd = anchor;
+		ZLTextMark mark = null;
+		while (mark == null && (backward ? searchedStart > startIndex : searchedEnd < endIndex)) {
+			if (backward) {
+				final int blockStart = Math.max(searchedStart - ZLTextSearcher.BLOCK_SIZE, startIndex);
+				count += myModel.extendSearch(nonEmptyTerms, blockStart, searchedStart, ignoreCase);
+				searchedStart = blockStart;
+			} else {
+				final int blockEnd = Math.min(searchedEnd + ZLTextSearcher.BLOCK_SIZE, endIndex);
+				count += myModel.extendSearch(nonEmptyTerms, searchedEnd, blockEnd, ignoreCase);
+				searchedEnd = blockEnd;
+			}
+			if (count > 0) {
+				mark = (wholeText || position == null) ?
+					(backward ? myModel.getLastMark() : myModel.getFirstMark()) :
+					(backward ? myModel.getPreviousMark(position) : myModel.getNextMark(position));
+			}
+		}
+		if (mark == null) {
+			count += myModel.extendSearch(nonEmptyTerms, startIndex, searchedStart, ignoreCase);
+			count += myModel.extendSearch(nonEmptyTerms, searchedEnd, endIndex, ignoreCase);
+		} else if (searchedStart > startIndex || searchedEnd < endIndex) {
+			mySearcher.submit(new ZLTextSearcher.Query(myModel, nonEmptyTerms, ignoreCase, searchedStart, searchedEnd));
+		}
+
 		myPreviousPage.reset();
 		myNextPage.reset();
 		if (!myCurrentPage.StartCursor.isNull()) {
 			rebuildPaintInfo();
-			if (count > 0) {
-				ZLTextMark mark = myCurrentPage.StartCursor.getMark();
-				gotoMark(wholeText ? 
-					(backward ? myModel.getLastMark() : myModel.getFirstMark()) :
-					(backward ? myModel.getPreviousMark(mark) : myModel.getNextMark(mark)));
+			if (mark != null) {
+				gotoMark(mark);
 			}
 			ZLApplication.Instance().repaintView();
 		}
 		return count;
 	}
 
+	/*
+	 * Called by the searcher when it has added marks to paragraphs [startIndex, endIndex).
+	 */
+	synchronized void onMarksAdded(ZLTextModel model, int startIndex, int endIndex) {
+		if (model != myModel) {
+			return;
+		}
+		ZLTextParagraphCursorCache.clear(model, startIndex, endIndex);
+		myPreviousPage.reset();
+		myNextPage.reset();
+		final ZLTextWordCursor start = myCurrentPage.StartCursor;
+		final ZLTextWordCursor end = myCurrentPage.EndCursor;
+		if (!start.isNull() && !end.isNull() &&
+			start.getParagraphIndex() < endIndex && end.getParagraphIndex() >= startIndex) {
+			rebuildPaintInfo();
+			ZLApplication.Instance().repaintView();
+		}
+	}
+
 	public boolean canFindNext() {
 		final ZLTextWordCursor end = myCurrentPage.EndCursor;
 		return !end.isNull() && (myModel != null) && (myModel.getNextMark(end.getMark()) != null);
@@ -186,6 +290,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public void clearFindResults() {
+		mySearcher.cancel();
 		if (!findResultsAreEmpty()) {
 			myModel.removeAllMarks();
 			rebuildPaintInfo();
@@ -256,73 +361,88 @@ public abstract class ZLTextView extends ZLTextViewBase {
 				break;
 			}
 		}
+		schedulePrefetch();
 	}
 
-	public synchronized void paint(int viewPage) {
-		Context.clear(getBackgroundColor());
-
-		if ((myModel == null) || (myModel.getParagraphsNumber() == 0)) {
+	private void schedulePrefetch() {
+		final ZLTextWordCursor start = myCurrentPage.StartCursor;
+		final ZLTextWordCursor end = myCurrentPage.EndCursor;
+		if ((myModel == null) || (start.isNull() && end.isNull())) {
 			return;
 		}
+		final int startIndex = start.isNull() ? end.getParagraphCursor().Index : start.getParagraphCursor().Index;
+		final int endIndex = end.isNull() ? startIndex : end.getParagraphCursor().Index;
+		myPrefetcher.schedule(myModel, startIndex, endIndex);
+	}
 
-		ZLTextPage page;
-		switch (viewPage) {
-			default:
-			case PAGE_CENTRAL:
-				page = myCurrentPage;
-				break;
-			case PAGE_TOP:
-			case PAGE_LEFT:
-				page = myPreviousPage;
-				if (myPreviousPage.PaintState == PaintStateEnum.NOTHING_TO_PAINT) {
-					preparePaintInfo(myCurrentPage);
-					myPreviousPage.EndCursor.setCursor(myCurrentPage.StartCursor);
-					myPreviousPage.PaintState = PaintStateEnum.END_IS_KNOWN;
-				}
-				break;
-			case PAGE_BOTTOM:
-			case PAGE_RIGHT:
-				page = myNextPage;
-				if (myNextPage.PaintState == PaintStateEnum.NOTHING_TO_PAINT) {
-					preparePaintInfo(myCurrentPage);
-					myNextPage.StartCursor.setCursor(myCurrentPage.EndCursor);
-					myNextPage.PaintState = PaintStateEnum.START_IS_KNOWN;
-				}
-		}
+	public synchronized void paint(int viewPage) {
+		// the paint context is shared by all views and the paginator thread
+		synchronized (Context) {
+			Context.clear(getBackgroundColor());
 
-		page.TextElementMap.clear();
+			if ((myModel == null) || (myModel.getParagraphsNumber() == 0)) {
+				return;
+			}
 
-		preparePaintInfo(page);
+			ZLTextPage page;
+			switch (viewPage) {
+				default:
+				case PAGE_CENTRAL:
+					page = myCurrentPage;
+					break;
+				case PAGE_TOP:
+				case PAGE_LEFT:
+					page = myPreviousPage;
+					if (myPreviousPage.PaintState == PaintStateEnum.NOTHING_TO_PAINT) {
+						preparePaintInfo(myCurrentPage);
+						myPreviousPage.EndCursor.setCursor(myCurrentPage.StartCursor);
+						myPreviousPage.PaintState = PaintStateEnum.END_IS_KNOWN;
+					}
+					break;
+				case PAGE_BOTTOM:
+				case PAGE_RIGHT:
+					page = myNextPage;
+					if (myNextPage.PaintState == PaintStateEnum.NOTHING_TO_PAINT) {
+						preparePaintInfo(myCurrentPage);
+						myNextPage.StartCursor.setCursor(myCurrentPage.EndCursor);
+						myNextPage.PaintState = PaintStateEnum.START_IS_KNOWN;
+					}
+			}
 
-		if (page.StartCursor.isNull() || page.EndCursor.isNull()) {
-			return;
-		}
+			page.TextElementMap.clear();
 
-		final ArrayList<ZLTextLineInfo> lineInfos = page.LineInfos;
-		final int[] labels = new int[lineInfos.size() + 1];
-		int y = getTopMargin();
-		int index = 0;
-		for (ZLTextLineInfo info : lineInfos) {
-			prepareTextLine(page, info, y);
-			y += info.Height + info.Descent + info.VSpaceAfter;
-			labels[++index] = page.TextElementMap.size();
-		}
+			preparePaintInfo(page);
 
-		if (page == myCurrentPage) {
-			mySelectionModel.update();
-		}
+			if (page.StartCursor.isNull() || page.EndCursor.isNull()) {
+				return;
+			}
 
-		y = getTopMargin();
-		index = 0;
-		for (ZLTextLineInfo info : lineInfos) {
-			drawTextLine(page, info, labels[index], labels[index + 1], y);
-			y += info.Height + info.Descent + info.VSpaceAfter;
-			++index;
-		}
+			final ArrayList<ZLTextLineInfo> lineInfos = page.LineInfos;
+			final int[] labels = new int[lineInfos.size() + 1];
+			int y = getTopMargin();
+			int index = 0;
+			for (ZLTextLineInfo info : lineInfos) {
+				prepareTextLine(page, info, y);
+				y += info.Height + info.Descent + info.VSpaceAfter;
+				labels[++index] = page.TextElementMap.size();
+			}
 
-		final ZLTextHyperlinkArea hyperlinkArea = getCurrentHyperlinkArea(page);
-		if (hyperlinkArea != null) {
-			hyperlinkArea.draw(Context);
+			if (page == myCurrentPage) {
+				mySelectionModel.update();
+			}
+
+			y = getTopMargin();
+			index = 0;
+			for (ZLTextLineInfo info : lineInfos) {
+				drawTextLine(page, info, labels[index], labels[index + 1], y);
+				y += info.Height + info.Descent + info.VSpaceAfter;
+				++index;
+			}
+
+			final ZLTextHyperlinkArea hyperlinkArea = getCurrentHyperlinkArea(page);
+			if (hyperlinkArea != null) {
+				hyperlinkArea.draw(Context);
+			}
 		}
 	}
 
@@ -400,40 +520,42 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
 	// Can be called only when (myModel.getParagraphsNumber() != 0)
 	private synchronized float computeCharsPerPage() {
-		setTextStyle(ZLTextStyleCollection.Instance().getBaseStyle());
+		synchronized (Context) {
+			setTextStyle(ZLTextStyleCollection.Instance().getBaseStyle());
 
-		final int textWidth = getTextAreaWidth();
-		final int textHeight = getTextAreaHeight();
+			final int textWidth = getTextAreaWidth();
+			final int textHeight = getTextAreaHeight();
 
-		final int num = myModel.getParagraphsNumber();
-		final int totalTextSize = myModel.getTextLength(num - 1);
-		final float charsPerParagraph = ((float) totalTextSize) / num;
+			final int num = myModel.getParagraphsNumber();
+			final int totalTextSize = myModel.getTextLength(num - 1);
+			final float charsPerParagraph = ((float) totalTextSize) / num;
 
-		final float charWidth = computeCharWidth();
+			final float charWidth = computeCharWidth();
 
-		final int indentWidth = getElementWidth(ZLTextElement.IndentElement, 0);
-		final float effectiveWidth = textWidth - (indentWidth + 0.5f * textWidth) / charsPerParagraph;
-		float charsPerLine = Math.min(effectiveWidth / charWidth,
-				charsPerParagraph * 1.2f);
+			final int indentWidth = getElementWidth(ZLTextElement.IndentElement, 0);
+			final float effectiveWidth = textWidth - (indentWidth + 0.5f * textWidth) / charsPerParagraph;
+			float charsPerLine = Math.min(effectiveWidth / charWidth,
+					charsPerParagraph * 1.2f);
 
-		final int strHeight = getWordHeight() + Context.getDescent();
-		final int effectiveHeight = (int) (textHeight - (getTextStyle().getSpaceBefore() 
-				+ getTextStyle().getSpaceAfter()) / charsPerParagraph);
-		final int linesPerPage = effectiveHeight / strHeight;
+			final int strHeight = getWordHeight() + Context.getDescent();
+			final int effectiveHeight = (int) (textHeight - (getTextStyle().getSpaceBefore() 
+					+ getTextStyle().getSpaceAfter()) / charsPerParagraph);
+			final int linesPerPage = effectiveHeight / strHeight;
 
-		/*System.err.println("PAGE: textWidth = " + textWidth);
-		System.err.println("PAGE: textHeight = " + textHeight);
-		System.err.println("PAGE: indentWidth = " + indentWidth);
-		System.err.println("PAGE: strHeight = " + strHeight);
-		System.err.println("PAGE: lang = " + getLanguage());
-		System.err.println("PAGE: charWidth = " + charWidth);
-		System.err.println("PAGE: effectiveWidth = " + effectiveWidth);
-		System.err.println("PAGE: effectiveHeight = " + effectiveHeight);
-		System.err.println("PAGE: linesPerPage = " + linesPerPage);
-		System.err.println("PAGE: charsPerParagraph = " + charsPerParagraph + " (factor = " + 1.0f / charsPerParagraph + ")");
-		System.err.println("PAGE: charsPerLine = " + charsPerLine);*/
+			/*System.err.println("PAGE: textWidth = " + textWidth);
+			System.err.println("PAGE: textHeight = " + textHeight);
+			System.err.println("PAGE: indentWidth = " + indentWidth);
+			System.err.println("PAGE: strHeight = " + strHeight);
+			System.err.println("PAGE: lang = " + getLanguage());
+			System.err.println("PAGE: charWidth = " + charWidth);
+			System.err.println("PAGE: effectiveWidth = " + effectiveWidth);
+			System.err.println("PAGE: effectiveHeight = " + effectiveHeight);
+			System.err.println("PAGE: linesPerPage = " + linesPerPage);
+			System.err.println("PAGE: charsPerParagraph = " + charsPerParagraph + " (factor = " + 1.0f / charsPerParagraph + ")");
+			System.err.println("PAGE: charsPerLine = " + charsPerLine);*/
 
-		return charsPerLine * linesPerPage;
+			return charsPerLine * linesPerPage;
+		}
 	}
 
 	private synchronized int computeTextPageNumber(int textSize) {
@@ -501,11 +623,142 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		return Context.getStringWidth(pattern, 0, length) / ((float) length);
 	}
 
+	/*
+	 * Directory for storing complete paginations, or null if they should not be stored.
+	 */
+	protected String getPaginationDirectory() {
+		return null;
+	}
+
+	private String paginationKey() {
+		return
+			myModel.getId() + ":" + myModel.getLanguage() + ":" +
+			myModel.getParagraphsNumber() + ":" +
+			myModel.getTextLength(myModel.getParagraphsNumber() - 1) + ":" +
+			getTextAreaWidth() + "x" + getTextAreaHeight() + ":" +
+			ZLTextStyleCollection.Instance().layoutHashCode();
+	}
+
+	private File paginationFile(String key) {
+		final String directory = getPaginationDirectory();
+		return (directory != null) ?
+			new File(directory, "pages-" + Integer.toHexString(key.hashCode())) : null;
+	}
+
+	/*
+	 * Returns the pagination for the current model and layout,
+	 * loading a stored one or starting the paginator if needed.
+	 */
+	private ZLTextPagination getPagination() {
+		if (myModel == null || myModel.getParagraphsNumber() == 0) {
+			return null;
+		}
+		final String key = paginationKey();
+		if (myPagination == null || !myPagination.Key.equals(key)) {
+			myPaginator.cancel();
+			myPagination = loadPagination(key);
+			if (myPagination == null) {
+				myPagination = new ZLTextPagination(key, myModel.getParagraphsNumber());
+				myPaginator.start(myPagination);
+			}
+		}
+		return myPagination;
+	}
+
+	private ZLTextPagination loadPagination(String key) {
+		final File file = paginationFile(key);
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		try {
+			final DataInputStream stream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file))
+			);
+			try {
+				return ZLTextPagination.read(stream, key, myModel.getParagraphsNumber());
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	void onPaginationComplete(ZLTextPagination pagination) {
+		final File file = paginationFile(pagination.Key);
+		if (file == null) {
+			return;
+		}
+		try {
+			final DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file))
+			);
+			try {
+				pagination.write(stream);
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			file.delete();
+		}
+	}
+
+	/*
+	 * Lays out the page starting at cursor and moves cursor to the next page start;
+	 * returns false when the text is over or pagination is obsolete.
+	 */
+	synchronized boolean paginateNextPage(ZLTextPagination pagination, ZLTextWordCursor cursor) {
+		// a layout change makes getPagination() start anew, it is not waited for here
+		if (pagination != myPagination || myModel == null || !pagination.Key.equals(paginationKey())) {
+			return false;
+		}
+		if (cursor.isNull()) {
+			// private cursors: the pass over the whole text must not evict the
+			// paragraphs around the reading position from the cursor cache
+			cursor.setCursor(ZLTextParagraphCursor.cursor(myModel, 0, false));
+		}
+		pagination.addPage(cursor);
+
+		final ZLTextWordCursor end = new ZLTextWordCursor();
+		// pagination runs through the whole text and would evict the lines around the reader
+		myLineInfoCacheIsEnabled = false;
+		buildInfos(myPaginationPage, cursor, end);
+		myLineInfoCacheIsEnabled = true;
+		myPaginationPage.LineInfos.clear();
+
+		if (end.samePositionAs(cursor) ||
+			(end.isEndOfParagraph() && end.getParagraphCursor().isLast())) {
+			pagination.complete();
+			return false;
+		}
+		cursor.setCursor(end);
+		return true;
+	}
+
+	/*
+	 * Percent of the text already paginated exactly; page numbers are estimated until 100.
+	 */
+	public final synchronized int getPaginationProgress() {
+		final ZLTextPagination pagination = getPagination();
+		return (pagination != null) ? pagination.getProgress() : 100;
+	}
+
 	public final synchronized int computePageNumber() {
+		final ZLTextPagination pagination = getPagination();
+		if (pagination != null && pagination.isComplete()) {
+			return pagination.getPagesNumber();
+		}
 		return computeTextPageNumber(getScrollbarFullSize());
 	}
 
 	public final synchronized int computeCurrentPage() {
+		final ZLTextPagination pagination = getPagination();
+		if (pagination != null && pagination.isComplete()) {
+			final ZLTextWordCursor start = getStartCursor();
+			if (!start.isNull()) {
+				return Math.max(pagination.findPage(start), 0) + 1;
+			}
+		}
 		return computeTextPageNumber(
 			getScrollbarThumbPosition(PAGE_CENTRAL) 
 			+ getScrollbarThumbLength(PAGE_CENTRAL)
@@ -513,10 +766,18 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	public final synchronized void gotoPage(int page) {
+		myPrefetcher.cancel();
 		if (myModel == null || myModel.getParagraphsNumber() == 0) {
 			return;
 		}
 
+		final ZLTextPagination pagination = getPagination();
+		if (pagination != null && pagination.isComplete()) {
+			final int index = Math.max(Math.min(page, pagination.getPagesNumber()), 1) - 1;
+			gotoPosition(pagination.getPageStart(index));
+			return;
+		}
+
 		final float factor = computeCharsPerPage();
 		final float textSize = page * factor;
 
@@ -597,7 +858,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 										(info.EndCharIndex >= lBound.CharIndex))) {
 					final ZLTextElementArea elementArea = page.findLast(from, to, lBound);
 					left = elementArea.XStart;
-					if (elementArea.Element instanceof ZLTextWord) {
+					if (elementArea.isWord()) {
 						left += getAreaLength(paragraph, elementArea, lBound.CharIndex);
 					}
 				}
@@ -620,7 +881,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 									 ((info.StartElementIndex == boundElementIndex) &&
 										(info.StartCharIndex <= rBound.CharIndex))) {
 					final ZLTextElementArea elementArea = page.findLast(from, to, rBound);
-					if (elementArea.Element instanceof ZLTextWord) {
+					if (elementArea.isWord()) {
 						right = elementArea.XStart + getAreaLength(paragraph, elementArea, rBound.CharIndex) - 1;
 					} else {
 						right = elementArea.XEnd;
@@ -638,18 +899,17 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		final int endElementIndex = info.EndElementIndex;
 		int charIndex = info.RealStartCharIndex;
 		for (int wordIndex = info.RealStartElementIndex; (wordIndex != endElementIndex) && (index < to); ++wordIndex, charIndex = 0) {
-			final ZLTextElement element = paragraph.getElement(wordIndex);
 			final ZLTextElementArea area = page.TextElementMap.get(index);
-			//if ((element instanceof ZLTextWord) || (element instanceof ZLTextImageElement)) {
-			if (element == area.Element) {
+			if (area.ElementIndex == wordIndex) {
 				index++;
 				if (area.ChangeStyle) {
 					setTextStyle(area.Style);
 				}
+				final ZLTextElement element = area.Element;
 				final int areaX = area.XStart;
-				final int areaY = area.YEnd - getElementDescent(element) - getTextStyle().getVerticalShift();
-				if (element instanceof ZLTextWord) {
-					drawWord(areaX, areaY, (ZLTextWord)element, charIndex, -1, false);
+				final int areaY = area.YEnd - getElementDescent(paragraph, wordIndex) - getTextStyle().getVerticalShift();
+				if (area.isWord()) {
+					drawWord(areaX, areaY, paragraph, wordIndex, charIndex);
 				} else if (element instanceof ZLTextImageElement) {
 					context.drawImage(areaX, areaY, ((ZLTextImageElement)element).ImageData);
 				} else if (element == ZLTextElement.HSpace) {
@@ -673,50 +933,57 @@ public abstract class ZLTextView extends ZLTextViewBase {
 				setTextStyle(area.Style);
 			}
 			int len = info.EndCharIndex;
-			final ZLTextWord word = (ZLTextWord)paragraph.getElement(info.EndElementIndex);
 			drawWord(
 				area.XStart, area.YEnd - context.getDescent() - getTextStyle().getVerticalShift(),
-				word, 0, len, area.AddHyphenationSign
+				paragraph, info.EndElementIndex, 0, len, area.AddHyphenationSign
 			);
 		}
 	}
 
 	private void buildInfos(ZLTextPage page, ZLTextWordCursor start, ZLTextWordCursor result) {
-		result.setCursor(start);
-		int textAreaHeight = getTextAreaHeight();
-		page.LineInfos.clear();
-		int counter = 0;
-		do {
-			resetTextStyle();
-			final ZLTextParagraphCursor paragraphCursor = result.getParagraphCursor();
-			final int wordIndex = result.getElementIndex();
-			applyControls(paragraphCursor, 0, wordIndex);	
-			ZLTextLineInfo info = new ZLTextLineInfo(paragraphCursor, wordIndex, result.getCharIndex(), getTextStyle());
-			final int endIndex = info.ParagraphCursorLength;
-			while (info.EndElementIndex != endIndex) {
-				info = processTextLine(paragraphCursor, info.EndElementIndex, info.EndCharIndex, endIndex);
-				textAreaHeight -= info.Height + info.Descent;
-				if ((textAreaHeight < 0) && (counter > 0)) {
-					break;
-				}
-				textAreaHeight -= info.VSpaceAfter;
-				result.moveTo(info.EndElementIndex, info.EndCharIndex);
-				page.LineInfos.add(info);
-				if (textAreaHeight < 0) {
-					break;
+		// the paint context is shared by all views and the paginator thread
+		synchronized (Context) {
+			result.setCursor(start);
+			int textAreaHeight = getTextAreaHeight();
+			page.LineInfos.clear();
+			int counter = 0;
+			do {
+				resetTextStyle();
+				final ZLTextParagraphCursor paragraphCursor = result.getParagraphCursor();
+				final int wordIndex = result.getElementIndex();
+				applyControls(paragraphCursor, 0, wordIndex);	
+				ZLTextLineInfo info = new ZLTextLineInfo(paragraphCursor, wordIndex, result.getCharIndex(), getTextStyle());
+				final int endIndex = info.ParagraphCursorLength;
+				while (info.EndElementIndex != endIndex) {
+					info = processTextLine(paragraphCursor, info.EndElementIndex, info.EndCharIndex, endIndex);
+					textAreaHeight -= info.Height + info.Descent;
+					if ((textAreaHeight < 0) && (counter > 0)) {
+						break;
+					}
+					textAreaHeight -= info.VSpaceAfter;
+					result.moveTo(info.EndElementIndex, info.EndCharIndex);
+					page.LineInfos.add(info);
+					if (textAreaHeight < 0) {
+						break;
+					}
+					counter++;
 				}
-				counter++;
-			}
-		} while (result.isEndOfParagraph() && result.nextParagraph() && !result.getParagraphCursor().isEndOfSection() && (textAreaHeight >= 0));
-		resetTextStyle();
+			} while (result.isEndOfParagraph() && result.nextParagraph() && !result.getParagraphCursor().isEndOfSection() && (textAreaHeight >= 0));
+			resetTextStyle();
+		}
 	}
 
 	private ZLTextLineInfo processTextLine(ZLTextParagraphCursor paragraphCursor, 
 		final int startIndex, final int startCharIndex, final int endIndex) {
 		final ZLPaintContext context = Context;
 		final ZLTextLineInfo info = new ZLTextLineInfo(paragraphCursor, startIndex, startCharIndex, getTextStyle());
-		final ZLTextLineInfo cachedInfo = myLineInfoCache.get(info);
+		ZLTextLineInfo cachedInfo = myLineInfoCacheIsEnabled ? myLineInfoCache.get(info) : null;
 		if (cachedInfo != null) {
+			if (cachedInfo.ParagraphCursor != paragraphCursor) {
+				// the paragraph has been tokenized again since the line was cached
+				cachedInfo = new ZLTextLineInfo(cachedInfo, paragraphCursor);
+				myLineInfoCache.put(cachedInfo, cachedInfo);
+			}
 			applyControls(paragraphCursor, startIndex, cachedInfo.EndElementIndex);
 			return cachedInfo;
 		}
@@ -767,30 +1034,32 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		boolean removeLastSpace = false;
 
 		do {
-			ZLTextElement element = paragraphCursor.getElement(currentElementIndex); 
-			newWidth += getElementWidth(element, currentCharIndex);
+			final boolean isWord = paragraphCursor.isWord(currentElementIndex);
+			// words are not materialized: they are measured by index
+			final ZLTextElement element = isWord ? null : paragraphCursor.getElement(currentElementIndex); 
+			newWidth += getElementWidth(paragraphCursor, currentElementIndex, currentCharIndex);
 			{
-				final int eltHeight = getElementHeight(element);
+				final int eltHeight = isWord ? getWordHeight() : getElementHeight(element);
 				if (newHeight < eltHeight) {
 					newHeight = eltHeight;
 				}
 			}
 			{
-				final int eltDescent = getElementDescent(element);
+				final int eltDescent = isWord ? context.getDescent() : 0;
 				if (newDescent < eltDescent) {
 					newDescent = eltDescent;
 				}
 			}
-			if (element == ZLTextElement.HSpace) {
+			if (isWord) {
+				wordOccurred = true;
+				isVisible = true;
+			} else if (element == ZLTextElement.HSpace) {
 				if (wordOccurred) {
 					wordOccurred = false;
 					internalSpaceCounter++;
 					lastSpaceWidth = context.getSpaceWidth();
 					newWidth += lastSpaceWidth;
 				}
-			} else if (element instanceof ZLTextWord) {
-				wordOccurred = true;
-				isVisible = true;
 			} else if (element instanceof ZLTextControlElement) {
 				applyControl((ZLTextControlElement)element);
 			} else if (element instanceof ZLTextImageElement) {
@@ -800,15 +1069,18 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			if ((newWidth > maxWidth) && (info.EndElementIndex != startIndex)) {
 				break;
 			}
-			ZLTextElement previousElement = element;
 			++currentElementIndex;
 			currentCharIndex = 0;
 			boolean allowBreak = currentElementIndex == endIndex;
 			if (!allowBreak) {
-				element = paragraphCursor.getElement(currentElementIndex); 
-				allowBreak = (((!(element instanceof ZLTextWord)) || (previousElement instanceof ZLTextWord)) && 
-						!(element instanceof ZLTextImageElement) && 
-						!(element instanceof ZLTextControlElement));
+				if (paragraphCursor.isWord(currentElementIndex)) {
+					allowBreak = isWord;
+				} else {
+					final ZLTextElement nextElement = paragraphCursor.getElement(currentElementIndex); 
+					allowBreak =
+						!(nextElement instanceof ZLTextImageElement) && 
+						!(nextElement instanceof ZLTextControlElement);
+				}
 			}
 			if (allowBreak) {
 				info.IsVisible = isVisible;
@@ -830,10 +1102,9 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		if ((currentElementIndex != endIndex) 
 			&& (ZLTextStyleCollection.Instance().getBaseStyle().AutoHyphenationOption.getValue()) 
 			&& (getTextStyle().allowHyphenations())) {
-			ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
-			if (element instanceof ZLTextWord) { 
-				final ZLTextWord word = (ZLTextWord)element;
-				newWidth -= getWordWidth(word, currentCharIndex);
+			if (paragraphCursor.isWord(currentElementIndex)) { 
+				final ZLTextWord word = (ZLTextWord)paragraphCursor.getElement(currentElementIndex);
+				newWidth -= getElementWidth(paragraphCursor, currentElementIndex, currentCharIndex);
 				int spaceLeft = maxWidth - newWidth;
 				if ((word.Length > 3) && (spaceLeft > 2 * Context.getSpaceWidth())) {
 					ZLTextHyphenationInfo hyphenationInfo = ZLTextHyphenator.Instance().getInfo(word);
@@ -841,7 +1112,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 					int subwordWidth = 0;
 					for(; hyphenationPosition > 0; hyphenationPosition--) {
 						if (hyphenationInfo.isHyphenationPossible(hyphenationPosition)) {
-							subwordWidth = getWordWidth(word, 0, hyphenationPosition, 
+							subwordWidth = getWordWidth(paragraphCursor, currentElementIndex, 0, hyphenationPosition,
 								word.Data[word.Offset + hyphenationPosition - 1] != '-');
 							if (subwordWidth <= spaceLeft) {
 								break;
@@ -881,7 +1152,8 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			info.VSpaceAfter = getTextStyle().getSpaceAfter();
 		}		
 
-		if ((info.EndElementIndex != endIndex) || (endIndex == info.ParagraphCursorLength)) {
+		if (myLineInfoCacheIsEnabled &&
+			((info.EndElementIndex != endIndex) || (endIndex == info.ParagraphCursorLength))) {
 			myLineInfoCache.put(info, info);
 		}
 
@@ -926,8 +1198,9 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		int charIndex = info.RealStartCharIndex;
 		ZLTextElementArea spaceElement = null;
 		for (int wordIndex = info.RealStartElementIndex; wordIndex != endElementIndex; ++wordIndex, charIndex = 0) {
-			final ZLTextElement element = paragraph.getElement(wordIndex);
-			final int width = getElementWidth(element, charIndex);
+			final boolean isWord = paragraph.isWord(wordIndex);
+			final ZLTextElement element = isWord ? null : paragraph.getElement(wordIndex);
+			final int width = getElementWidth(paragraph, wordIndex, charIndex);
 			if (element == ZLTextElement.HSpace) {
 				if (wordOccurred && (spaceCounter > 0)) {
 					final int correction = fullCorrection / spaceCounter;
@@ -945,10 +1218,10 @@ public abstract class ZLTextView extends ZLTextViewBase {
 					wordOccurred = false;
 					--spaceCounter;
 				}	
-			} else if ((element instanceof ZLTextWord) || (element instanceof ZLTextImageElement)) {
-				final int height = getElementHeight(element);
-				final int descent = getElementDescent(element);
-				final int length = (element instanceof ZLTextWord) ? ((ZLTextWord)element).Length : 0;
+			} else if (isWord || (element instanceof ZLTextImageElement)) {
+				final int height = getElementHeight(paragraph, wordIndex);
+				final int descent = getElementDescent(paragraph, wordIndex);
+				final int length = isWord ? paragraph.getWordLength(wordIndex) : 0;
 				if (spaceElement != null) {
 					page.TextElementMap.add(spaceElement);
 					spaceElement = null;
@@ -967,16 +1240,16 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			final int len = info.EndCharIndex;
 			if (len > 0) {
 				final int wordIndex = info.EndElementIndex;
-				final ZLTextWord word = (ZLTextWord)paragraph.getElement(wordIndex);
-				final boolean addHyphenationSign = word.Data[word.Offset + len - 1] != '-';
-				final int width = getWordWidth(word, 0, len, addHyphenationSign);
-				final int height = getElementHeight(word);
+				final boolean addHyphenationSign =
+					paragraph.getText()[paragraph.getWordOffset(wordIndex) + len - 1] != '-';
+				final int width = getWordWidth(paragraph, wordIndex, 0, len, addHyphenationSign);
+				final int height = getWordHeight();
 				final int descent = context.getDescent();
 				page.TextElementMap.add(
 					new ZLTextElementArea(
 						paragraphIndex, wordIndex, 0,
 						len, addHyphenationSign,
-						changeStyle, getTextStyle(), word,
+						changeStyle, getTextStyle(), null,
 						x, x + width - 1, y - height + 1, y + descent
 					)
 				);
@@ -1006,6 +1279,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 	
 	public final synchronized void gotoPosition(int paragraphIndex, int wordIndex, int charIndex) {
+		myPrefetcher.cancel();
 		if (myModel != null && myModel.getParagraphsNumber() > 0) {
 			myCurrentPage.moveStartCursor(paragraphIndex, wordIndex, charIndex);
 			myPreviousPage.reset();
@@ -1035,12 +1309,40 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		preparePaintInfo(myCurrentPage);
 	}
 
+	private long myLayoutTime;
+	private int myLayoutsNumber;
+
+	/*
+	 * Average time (in microseconds) of building a page for painting,
+	 * with the widths measured by the paint context during it.
+	 */
+	public final synchronized long averageLayoutTime() {
+		return (myLayoutsNumber > 0) ? myLayoutTime / myLayoutsNumber / 1000 : 0;
+	}
+
+	public final synchronized void resetLayoutStatistics() {
+		myLayoutTime = 0;
+		myLayoutsNumber = 0;
+		Context.resetStatistics();
+	}
+
 	private synchronized void preparePaintInfo(ZLTextPage page) {
+		final int paintState = page.PaintState;
+		final long startTime = System.nanoTime();
+		preparePaintInfoInternal(page);
+		if (page.PaintState != paintState) {
+			myLayoutTime += System.nanoTime() - startTime;
+			++myLayoutsNumber;
+		}
+	}
+
+	private void preparePaintInfoInternal(ZLTextPage page) {
 		int newWidth = getTextAreaWidth();
 		int newHeight = getTextAreaHeight();
 		if ((newWidth != page.OldWidth) || (newHeight != page.OldHeight)) {
 			page.OldWidth = newWidth;
 			page.OldHeight = newHeight;
+			validateLineInfoCache();
 			if (page.PaintState != PaintStateEnum.NOTHING_TO_PAINT) {
 				page.LineInfos.clear();
 				if (page == myPreviousPage) {
@@ -1067,7 +1369,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			return;
 		}
 
-		final HashMap<ZLTextLineInfo,ZLTextLineInfo> cache = myLineInfoCache;
+		final LinkedHashMap<ZLTextLineInfo,ZLTextLineInfo> cache = myLineInfoCache;
 		for (ZLTextLineInfo info : page.LineInfos) {
 			cache.put(info, info);
 		}
@@ -1161,8 +1463,6 @@ public abstract class ZLTextView extends ZLTextViewBase {
 				break;
 		}
 		page.PaintState = PaintStateEnum.READY;
-		// TODO: cache?
-		myLineInfoCache.clear();
 
 		if (page == myCurrentPage) {
 			myPreviousPage.reset();
@@ -1175,6 +1475,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	protected void rebuildPaintInfo() {
+		myPrefetcher.cancel();
 		myPreviousPage.reset();
 		myNextPage.reset();
 		ZLTextParagraphCursorCache.clear();
@@ -1192,7 +1493,24 @@ public abstract class ZLTextView extends ZLTextViewBase {
 			}
 		}
 
-		myLineInfoCache.clear();
+		validateLineInfoCache();
+	}
+
+	/*
+	 * Drops the retained line breaks if the text area size or layout style options have changed.
+	 */
+	private void validateLineInfoCache() {
+		final int width = getTextAreaWidth();
+		final int height = getTextAreaHeight();
+		final int styleHash = ZLTextStyleCollection.Instance().layoutHashCode();
+		if (width != myLineInfoCacheWidth ||
+			height != myLineInfoCacheHeight ||
+			styleHash != myLineInfoCacheStyleHash) {
+			myLineInfoCache.clear();
+			myLineInfoCacheWidth = width;
+			myLineInfoCacheHeight = height;
+			myLineInfoCacheStyleHash = styleHash;
+		}
 	}
 
 	private int infoSize(ZLTextLineInfo info, int unit) {
@@ -1241,37 +1559,39 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	}
 
 	private ZLTextWordCursor findStart(ZLTextWordCursor end, int unit, int size) {
-		final ZLTextWordCursor start = new ZLTextWordCursor(end);
-		size -= paragraphSize(start, true, unit);
-		boolean positionChanged = !start.isStartOfParagraph();
-		start.moveToParagraphStart();
-		while (size > 0) {
-			if (positionChanged && start.getParagraphCursor().isEndOfSection()) {
-				break;
-			}
-			if (!start.previousParagraph()) {
-				break;
+		synchronized (Context) {
+			final ZLTextWordCursor start = new ZLTextWordCursor(end);
+			size -= paragraphSize(start, true, unit);
+			boolean positionChanged = !start.isStartOfParagraph();
+			start.moveToParagraphStart();
+			while (size > 0) {
+				if (positionChanged && start.getParagraphCursor().isEndOfSection()) {
+					break;
+				}
+				if (!start.previousParagraph()) {
+					break;
+				}
+				if (!start.getParagraphCursor().isEndOfSection()) {
+					positionChanged = true;
+				}
+				size -= paragraphSize(start, false, unit);
 			}
-			if (!start.getParagraphCursor().isEndOfSection()) {
-				positionChanged = true;
+			skip(start, unit, -size);
+
+			if (unit == SizeUnit.PIXEL_UNIT) {
+				boolean sameStart = start.samePositionAs(end);
+				if (!sameStart && start.isEndOfParagraph() && end.isStartOfParagraph()) {
+					ZLTextWordCursor startCopy = start;
+					startCopy.nextParagraph();
+					sameStart = startCopy.samePositionAs(end);
+				}
+				if (sameStart) {
+					start.setCursor(findStart(end, SizeUnit.LINE_UNIT, 1));
+				}
 			}
-			size -= paragraphSize(start, false, unit);
-		}
-		skip(start, unit, -size);
 
-		if (unit == SizeUnit.PIXEL_UNIT) {
-			boolean sameStart = start.samePositionAs(end);
-			if (!sameStart && start.isEndOfParagraph() && end.isStartOfParagraph()) {
-				ZLTextWordCursor startCopy = start;
-				startCopy.nextParagraph();
-				sameStart = startCopy.samePositionAs(end);
-			}
-			if (sameStart) {
-				start.setCursor(findStart(end, SizeUnit.LINE_UNIT, 1));
-			}
+			return start;
 		}
-
-		return start;
 	}
 
 	/*
@@ -1451,11 +1771,11 @@ public abstract class ZLTextView extends ZLTextViewBase {
 		int wordIndex = 0;
 		int charIndex = 0;
 		for (; wordIndex < para.getParagraphLength(); wordIndex++) {
-			if (para.getElement(wordIndex) instanceof ZLTextWord) {
-				ZLTextWord word = (ZLTextWord)para.getElement(wordIndex);
-				if (word.getParagraphOffset() + word.Length > paraPos) {
-					if (word.getParagraphOffset() < paraPos) {
-						charIndex = paraPos - word.getParagraphOffset();
+			if (para.isWord(wordIndex)) {
+				final int wordOffset = para.getWordOffset(wordIndex);
+				if (wordOffset + para.getWordLength(wordIndex) > paraPos) {
+					if (wordOffset < paraPos) {
+						charIndex = paraPos - wordOffset;
 					}
 					break;
 				}
@@ -1471,8 +1791,11 @@ public abstract class ZLTextView extends ZLTextViewBase {
 	public String getWordUnderPosition(int x, int y) {
 		String word = "";
 		ZLTextElementArea element = getElementByCoordinates(x, y);
-		if (element != null && element.Element instanceof ZLTextWord) {
-			word = ((ZLTextWord)element.Element).toString();
+		if (element != null && element.isWord()) {
+			final ZLTextParagraphCursor paragraph = ZLTextParagraphCursor.cursor(myModel, element.ParagraphIndex);
+			word = new String(
+				paragraph.getText(), paragraph.getWordOffset(element.ElementIndex), paragraph.getWordLength(element.ElementIndex)
+			);
 			word = word.replaceAll("\\W+$", "");
 			word = word.replaceAll("^\\W+", "");
 		}
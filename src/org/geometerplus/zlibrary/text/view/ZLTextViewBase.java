@@ -100,9 +100,11 @@ abstract class ZLTextViewBase extends ZLView {
 
 	void applyControls(ZLTextParagraphCursor cursor, int index, int end) {
 		for (; index != end; ++index) {
-			final ZLTextElement element = cursor.getElement(index);
-			if (element instanceof ZLTextControlElement) {
-				applyControl((ZLTextControlElement)element);
+			if (!cursor.isWord(index)) {
+				final ZLTextElement element = cursor.getElement(index);
+				if (element instanceof ZLTextControlElement) {
+					applyControl((ZLTextControlElement)element);
+				}
 			}
 		}
 	}
@@ -135,6 +137,28 @@ abstract class ZLTextViewBase extends ZLView {
 		return (element instanceof ZLTextWord) ? Context.getDescent() : 0;
 	}
 
+	/*
+	 * Index based variants of the methods above; words are measured
+	 * in place, without creating ZLTextWord objects.
+	 */
+	final int getElementWidth(ZLTextParagraphCursor cursor, int index, int charIndex) {
+		if (cursor.isWord(index)) {
+			return
+				(charIndex == 0) ?
+					cursor.getWordWidth(index, Context) :
+					Context.getStringWidth(cursor.getText(), cursor.getWordOffset(index) + charIndex, cursor.getWordLength(index) - charIndex);
+		}
+		return getElementWidth(cursor.getElement(index), charIndex);
+	}
+
+	final int getElementHeight(ZLTextParagraphCursor cursor, int index) {
+		return cursor.isWord(index) ? getWordHeight() : getElementHeight(cursor.getElement(index));
+	}
+
+	final int getElementDescent(ZLTextParagraphCursor cursor, int index) {
+		return cursor.isWord(index) ? Context.getDescent() : 0;
+	}
+
 	final int getWordWidth(ZLTextWord word, int start) {
 		return
 			(start == 0) ?
@@ -155,22 +179,40 @@ abstract class ZLTextViewBase extends ZLView {
 			}
 			length = word.Length - start;
 		}
+		return getWordPartWidth(word.Data, word.Offset + start, length, addHyphenationSign);
+	}
+
+	final int getWordWidth(ZLTextParagraphCursor cursor, int index, int start, int length, boolean addHyphenationSign) {
+		if (length == -1) {
+			if (start == 0) {
+				return cursor.getWordWidth(index, Context);
+			}
+			length = cursor.getWordLength(index) - start;
+		}
+		return getWordPartWidth(cursor.getText(), cursor.getWordOffset(index) + start, length, addHyphenationSign);
+	}
+
+	private int getWordPartWidth(char[] data, int offset, int length, boolean addHyphenationSign) {
 		if (!addHyphenationSign) {
-			return Context.getStringWidth(word.Data, word.Offset + start, length);
+			return Context.getStringWidth(data, offset, length);
 		}
+		final char[] part = hyphenatedPart(data, offset, length);
+		return Context.getStringWidth(part, 0, length + 1);
+	}
+
+	private char[] hyphenatedPart(char[] data, int offset, int length) {
 		char[] part = myWordPartArray;
 		if (length + 1 > part.length) {
 			part = new char[length + 1];
 			myWordPartArray = part;
 		}
-		System.arraycopy(word.Data, word.Offset + start, part, 0, length);
+		System.arraycopy(data, offset, part, 0, length);
 		part[length] = '-';
-		return Context.getStringWidth(part, 0, length + 1);
+		return part;
 	}
 
 	int getAreaLength(ZLTextParagraphCursor paragraph, ZLTextElementArea area, int toCharIndex) {
 		setTextStyle(area.Style);
-		final ZLTextWord word = (ZLTextWord)paragraph.getElement(area.ElementIndex);
 		int length = toCharIndex - area.CharIndex;
 		boolean selectHyphenationSign = false;
 		if (length >= area.Length) {
@@ -178,32 +220,38 @@ abstract class ZLTextViewBase extends ZLView {
 			length = area.Length;
 		}
 		if (length > 0) {
-			return getWordWidth(word, area.CharIndex, length, selectHyphenationSign);
+			return getWordWidth(paragraph, area.ElementIndex, area.CharIndex, length, selectHyphenationSign);
 		}
 		return 0;
 	}
 
 	final void drawWord(int x, int y, ZLTextWord word, int start, int length, boolean addHyphenationSign) {
-		final ZLPaintContext context = Context;
-		context.setTextColor(getTextColor(myTextStyle.Hyperlink.Type));
-		if ((start == 0) && (length == -1)) {
-			drawString(x, y, word.Data, word.Offset, word.Length, word.getMark(), 0);
+		if (length == -1) {
+			length = word.Length - start;
+		}
+		drawWordPart(x, y, word.Data, word.Offset + start, length, word.getMark(), start, addHyphenationSign);
+	}
+
+	final void drawWord(int x, int y, ZLTextParagraphCursor cursor, int index, int start) {
+		drawWord(x, y, cursor, index, start, -1, false);
+	}
+
+	final void drawWord(int x, int y, ZLTextParagraphCursor cursor, int index, int start, int length, boolean addHyphenationSign) {
+		if (length == -1) {
+			length = cursor.getWordLength(index) - start;
+		}
+		drawWordPart(
+			x, y, cursor.getText(), cursor.getWordOffset(index) + start, length,
+			cursor.getWordMark(index), start, addHyphenationSign
+		);
+	}
+
+	private void drawWordPart(int x, int y, char[] data, int offset, int length, ZLTextWord.Mark mark, int start, boolean addHyphenationSign) {
+		Context.setTextColor(getTextColor(myTextStyle.Hyperlink.Type));
+		if (!addHyphenationSign) {
+			drawString(x, y, data, offset, length, mark, start);
 		} else {
-			if (length == -1) {
-				length = word.Length - start;
-			}
-			if (!addHyphenationSign) {
-				drawString(x, y, word.Data, word.Offset + start, length, word.getMark(), start);
-			} else {
-				char[] part = myWordPartArray;
-				if (length + 1 > part.length) {
-					part = new char[length + 1];
-					myWordPartArray = part;
-				}
-				System.arraycopy(word.Data, word.Offset + start, part, 0, length);
-				part[length] = '-';
-				drawString(x, y, part, 0, length + 1, word.getMark(), start);
-			}
+			drawString(x, y, hyphenatedPart(data, offset, length), 0, length + 1, mark, start);
 		}
 	}
 
@@ -26,10 +26,11 @@ public final class ZLTextWord extends ZLTextElement {
 	public final int Offset;
 	public final int Length;
 	private int myWidth = -1;
+	private int myWidthFontId;
 	private Mark myMark;
 	private int myParagraphOffset;
 
-	class Mark {
+	static final class Mark {
 		public final int Start;
 		public final int Length;
 		private Mark myNext;
@@ -47,6 +48,24 @@ public final class ZLTextWord extends ZLTextElement {
 		private void setNext(Mark mark) {
 			myNext = mark;
 		}
+
+		/*
+		 * Inserts a new mark into the list sorted by Start; returns the new list head.
+		 */
+		static Mark add(Mark head, int start, int length) {
+			Mark existingMark = head;
+			Mark mark = new Mark(start, length);
+			if ((existingMark == null) || (existingMark.Start > start)) {
+				mark.setNext(existingMark);
+				return mark;
+			}
+			while ((existingMark.getNext() != null) && (existingMark.getNext().Start < start)) {
+				existingMark = existingMark.getNext();
+			}
+			mark.setNext(existingMark.getNext());
+			existingMark.setNext(mark);
+			return head;
+		}
 	}
 	
 	public ZLTextWord(char[] data, int offset, int length, int paragraphOffset) {
@@ -64,26 +83,21 @@ public final class ZLTextWord extends ZLTextElement {
 		return myParagraphOffset;
 	}
 	
+	void setMark(Mark mark) {
+		myMark = mark;
+	}
+
 	public void addMark(int start, int length) {
-		Mark existingMark = myMark;
-		Mark mark = new Mark(start, length);
-		if ((existingMark == null) || (existingMark.Start > start)) {
-			mark.setNext(existingMark);
-			myMark = mark;
-		} else {
-			while ((existingMark.getNext() != null) && (existingMark.getNext().Start < start)) {
-				existingMark = existingMark.getNext();
-			}
-			mark.setNext(existingMark.getNext());
-			existingMark.setNext(mark);
-		}		
+		myMark = Mark.add(myMark, start, length);
 	}
 	
 	public int getWidth(ZLPaintContext context) {
 		int width = myWidth;
-		if (width == -1) {
+		final int fontId = context.getFontId();
+		if (width == -1 || myWidthFontId != fontId) {
 			width = context.getStringWidth(Data, Offset, Length);	
 			myWidth = width;
+			myWidthFontId = fontId;
 		}
 		return width;
 	}
@@ -94,11 +94,11 @@ public final class ZLTextWordCursor extends ZLTextPosition {
 		final ZLTextParagraphCursor paragraph = myParagraphCursor;
 		int paragraphLength = paragraph.getParagraphLength();
 		int wordIndex = myElementIndex;
-		while ((wordIndex < paragraphLength) && (!(paragraph.getElement(wordIndex) instanceof ZLTextWord))) {
+		while ((wordIndex < paragraphLength) && !paragraph.isWord(wordIndex)) {
 			wordIndex++;
 		}
 		if (wordIndex < paragraphLength) {
-			return new ZLTextMark(paragraph.Index, ((ZLTextWord)paragraph.getElement(wordIndex)).getParagraphOffset(), 0);
+			return new ZLTextMark(paragraph.Index, paragraph.getWordOffset(wordIndex), 0);
 		}
 		return new ZLTextMark(paragraph.Index + 1, 0, 0);
 	}
@@ -153,7 +153,7 @@ public final class ZLTextWordCursor extends ZLTextPosition {
 		if (!isNull() && (paragraphIndex != myParagraphCursor.Index)) {
 			final ZLTextModel model = myParagraphCursor.Model;
 			paragraphIndex = Math.max(0, Math.min(paragraphIndex, model.getParagraphsNumber() - 1));
-			myParagraphCursor = ZLTextParagraphCursor.cursor(model, paragraphIndex);
+			myParagraphCursor = ZLTextParagraphCursor.cursor(model, paragraphIndex, myParagraphCursor.isCached());
 			moveToParagraphStart();
 		}		
 	}
@@ -181,9 +181,8 @@ public final class ZLTextWordCursor extends ZLTextPosition {
 		charIndex = Math.max(0, charIndex);
 		myCharIndex = 0;
 		if (charIndex > 0) {
-			ZLTextElement element = myParagraphCursor.getElement(myElementIndex);
-			if (element instanceof ZLTextWord) {
-				if (charIndex <= ((ZLTextWord)element).Length) {
+			if (myParagraphCursor.isWord(myElementIndex)) {
+				if (charIndex <= myParagraphCursor.getWordLength(myElementIndex)) {
 					myCharIndex = charIndex;
 				}
 			}
@@ -121,4 +121,15 @@ public class ZLTextBaseStyle extends ZLTextStyle {
 	public boolean allowHyphenations() {
 		return true;
 	}
+
+	int layoutHashCode() {
+		int hash = FontFamilyOption.getValue().hashCode();
+		hash = 31 * hash + FontSizeOption.getValue();
+		hash = 31 * hash + (BoldOption.getValue() ? 1 : 0);
+		hash = 31 * hash + (ItalicOption.getValue() ? 1 : 0);
+		hash = 31 * hash + AlignmentOption.getValue();
+		hash = 31 * hash + LineSpacePercentOption.getValue();
+		hash = 31 * hash + (AutoHyphenationOption.getValue() ? 1 : 0);
+		return hash;
+	}
 }
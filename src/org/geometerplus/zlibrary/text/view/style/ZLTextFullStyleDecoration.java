@@ -51,6 +51,19 @@ public class ZLTextFullStyleDecoration extends ZLTextStyleDecoration {
 		return true;
 	}
 
+	@Override
+	int layoutHashCode() {
+		int hash = super.layoutHashCode();
+		hash = 31 * hash + SpaceBeforeOption.getValue();
+		hash = 31 * hash + SpaceAfterOption.getValue();
+		hash = 31 * hash + LeftIndentOption.getValue();
+		hash = 31 * hash + RightIndentOption.getValue();
+		hash = 31 * hash + FirstLineIndentDeltaOption.getValue();
+		hash = 31 * hash + AlignmentOption.getValue();
+		hash = 31 * hash + LineSpacePercentOption.getValue();
+		return hash;
+	}
+
 	public ZLTextStyle createDecoratedStyle(ZLTextStyle base, ZLTextHyperlink hyperlink) {
 		return new ZLTextFullDecoratedStyle(base, this, hyperlink);
 	}
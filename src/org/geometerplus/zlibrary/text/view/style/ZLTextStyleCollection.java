@@ -53,6 +53,18 @@ public class ZLTextStyleCollection {
 		return myDecorationMap[kind & 0xFF];
 	}
 
+	/*
+	 * Hash of every option value that affects line breaking;
+	 * a layout computed under one hash is not valid under another.
+	 */
+	public int layoutHashCode() {
+		int hash = myBaseStyle.layoutHashCode();
+		for (ZLTextStyleDecoration decoration : myDecorationMap) {
+			hash = 31 * hash + ((decoration != null) ? decoration.layoutHashCode() : 0);
+		}
+		return hash;
+	}
+
 	private static class TextStyleReader extends ZLXMLReaderAdapter {
 		private ZLTextStyleCollection myCollection;
 
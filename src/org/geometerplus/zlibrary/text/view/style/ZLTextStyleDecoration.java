@@ -63,4 +63,14 @@ public class ZLTextStyleDecoration {
 	public String getName() {
 		return myName;
 	}
+
+	int layoutHashCode() {
+		int hash = FontFamilyOption.getValue().hashCode();
+		hash = 31 * hash + FontSizeDeltaOption.getValue();
+		hash = 31 * hash + BoldOption.getValue();
+		hash = 31 * hash + ItalicOption.getValue();
+		hash = 31 * hash + VerticalShiftOption.getValue();
+		hash = 31 * hash + AllowHyphenationsOption.getValue();
+		return hash;
+	}
 }
@@ -19,55 +19,109 @@
 
 package org.geometerplus.zlibrary.ui.android.image;
 
+import java.lang.ref.WeakReference;
+
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
-import org.geometerplus.zlibrary.core.image.ZLImageData;
+import org.geometerplus.zlibrary.core.image.*;
 
+/*
+ * Keeps only the bounds of the image, read from the image header when
+ * they are needed first; the bytes are re-read from the image when a bitmap
+ * of a new size is decoded, and decoded bitmaps live in the image manager cache.
+ */
 public final class ZLAndroidImageData implements ZLImageData {
-	private byte[] myArray;
-	private Bitmap myBitmap;
+	// weak: the data is the value of a weak map keyed by the image
+	private final WeakReference<ZLSingleImage> myImage;
+	// headers of usual images fit; otherwise the whole image is read
+	private static final int HEADER_LENGTH = 16384;
+
+	private boolean myBoundsAreKnown;
 	private int myRealWidth;
 	private int myRealHeight;
-	private int myLastRequestedWidth;
-	private int myLastRequestedHeight;
 
-	ZLAndroidImageData(byte[] array) {
-		myArray = array;
+	ZLAndroidImageData(ZLSingleImage image) {
+		myImage = new WeakReference<ZLSingleImage>(image);
 	}
 
-	public synchronized Bitmap getBitmap(int maxWidth, int maxHeight) {
-		if ((maxWidth == 0) || (maxHeight == 0)) {
-			return null;
+	private synchronized void readBounds() {
+		if (myBoundsAreKnown) {
+			return;
 		}
-		if ((maxWidth != myLastRequestedWidth) || (maxHeight != myLastRequestedHeight)) {
-			if (myBitmap != null) {
-				myBitmap.recycle();
-				myBitmap = null;
-			}
-			try {
-				final BitmapFactory.Options options = new BitmapFactory.Options();
-				if (myRealWidth <= 0) {
-					options.inJustDecodeBounds = true;
-					BitmapFactory.decodeByteArray(myArray, 0, myArray.length, options);
-					myRealWidth = options.outWidth;
-					myRealHeight = options.outHeight;
-				}
-				options.inJustDecodeBounds = false;
-				int coefficient = 1;
-				while ((myRealHeight > maxHeight * coefficient) ||
-					   (myRealWidth > maxWidth *coefficient)) {
-					coefficient *= 2;
-				}
-				options.inSampleSize = coefficient;
-				myBitmap = BitmapFactory.decodeByteArray(myArray, 0, myArray.length, options);
-				if (myBitmap != null) {
-					myLastRequestedWidth = maxWidth;
-					myLastRequestedHeight = maxHeight;
-				}
-			} catch (OutOfMemoryError e) {
+		myBoundsAreKnown = true;
+		final ZLSingleImage image = myImage.get();
+		if (image == null) {
+			return;
+		}
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		byte[] array = image.headerData(HEADER_LENGTH);
+		if (array != null) {
+			BitmapFactory.decodeByteArray(array, 0, array.length, options);
+		}
+		if ((options.outWidth <= 0) && (array != null) && (array.length == HEADER_LENGTH)) {
+			array = image.byteData();
+			if (array != null) {
+				BitmapFactory.decodeByteArray(array, 0, array.length, options);
 			}
 		}
-		return myBitmap;
+		myRealWidth = options.outWidth;
+		myRealHeight = options.outHeight;
+	}
+
+	private int sampleSize(int maxWidth, int maxHeight) {
+		int coefficient = 1;
+		while ((myRealHeight > maxHeight * coefficient) ||
+			   (myRealWidth > maxWidth * coefficient)) {
+			coefficient *= 2;
+		}
+		return coefficient;
+	}
+
+	/*
+	 * Size of the bitmap for the given bounds, known without decoding it,
+	 * so the layout does not wait for the decoder.
+	 */
+	public int getWidth(int maxWidth, int maxHeight) {
+		readBounds();
+		if ((maxWidth <= 0) || (maxHeight <= 0) || (myRealWidth <= 0) || (myRealHeight <= 0)) {
+			return 0;
+		}
+		final int coefficient = sampleSize(maxWidth, maxHeight);
+		return (myRealWidth + coefficient - 1) / coefficient;
+	}
+
+	public int getHeight(int maxWidth, int maxHeight) {
+		readBounds();
+		if ((maxWidth <= 0) || (maxHeight <= 0) || (myRealWidth <= 0) || (myRealHeight <= 0)) {
+			return 0;
+		}
+		final int coefficient = sampleSize(maxWidth, maxHeight);
+		return (myRealHeight + coefficient - 1) / coefficient;
+	}
+
+	Bitmap decode(int maxWidth, int maxHeight) {
+		if ((maxWidth <= 0) || (maxHeight <= 0)) {
+			return null;
+		}
+		final ZLSingleImage image = myImage.get();
+		final byte[] array = (image != null) ? image.byteData() : null;
+		if (array == null) {
+			return null;
+		}
+		readBounds();
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize(maxWidth, maxHeight);
+		return BitmapFactory.decodeByteArray(array, 0, array.length, options);
+	}
+
+	public Bitmap getBitmap(int maxWidth, int maxHeight) {
+		return ZLAndroidImageManager.bitmapCache().get(this, maxWidth, maxHeight);
+	}
+
+	// null if the bitmap is not decoded yet; the view is repainted when it is
+	public Bitmap getBitmapAsync(int maxWidth, int maxHeight) {
+		return ZLAndroidImageManager.bitmapCache().getAsync(this, maxWidth, maxHeight);
 	}
 }
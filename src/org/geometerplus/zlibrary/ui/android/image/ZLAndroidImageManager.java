@@ -19,20 +19,51 @@
 
 package org.geometerplus.zlibrary.ui.android.image;
 
+import android.graphics.Bitmap;
+
 import org.geometerplus.zlibrary.core.image.*;
 
+import org.geometerplus.zlibrary.ui.android.library.ZLAndroidLibrary;
+import org.geometerplus.zlibrary.ui.android.view.ZLAndroidWidget;
+
 public final class ZLAndroidImageManager extends ZLImageManager {
+	private static final ZLImageCache<Bitmap> ourBitmapCache =
+		new ZLImageCache<Bitmap>(Runtime.getRuntime().maxMemory() / 8) {
+			protected Bitmap decode(ZLImageData data, int width, int height) {
+				return ((ZLAndroidImageData)data).decode(width, height);
+			}
+
+			protected int sizeOf(Bitmap bitmap) {
+				return bitmap.getRowBytes() * bitmap.getHeight();
+			}
+
+			// the pages cached for scrolling were drawn with a placeholder
+			protected void onDecoded() {
+				final ZLAndroidWidget widget = ((ZLAndroidLibrary)ZLAndroidLibrary.Instance()).getWidget();
+				if (widget != null) {
+					widget.invalidatePages();
+				}
+			}
+		};
+
+	static ZLImageCache<Bitmap> bitmapCache() {
+		return ourBitmapCache;
+	}
+
+	@Override
 	public ZLAndroidImageData getImageData(ZLImage image) {
+		return (ZLAndroidImageData)super.getImageData(image);
+	}
+
+	@Override
+	protected ZLAndroidImageData createImageData(ZLImage image) {
 		if (image instanceof ZLSingleImage) {
 			ZLSingleImage singleImage = (ZLSingleImage)image;
 			if ("image/palm".equals(singleImage.mimeType())) {
 				return null;
 			}
-			byte[] array = singleImage.byteData();
-			if (array == null) {
-				return null;
-			}
-			return new ZLAndroidImageData(array);
+			// the bytes are not read here: this is called while paragraphs are tokenized
+			return new ZLAndroidImageData(singleImage);
 		} else {
 			//TODO
 			return null;
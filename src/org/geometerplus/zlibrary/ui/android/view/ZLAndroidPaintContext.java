@@ -37,6 +37,7 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 	private final Paint myLinePaint = new Paint();
 	private final Paint myFillPaint = new Paint();
 	private final Paint myOutlinePaint = new Paint();
+	private final Paint myPlaceholderPaint = new Paint();
 
 	private int myWidth;
 	private int myHeight;
@@ -65,6 +66,9 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 		myOutlinePaint.setStyle(Paint.Style.STROKE);
 		myOutlinePaint.setPathEffect(new CornerPathEffect(5));
 		myOutlinePaint.setMaskFilter(new EmbossMaskFilter(new float[] {1, 1, 1}, .4f, 6f, 3.5f));
+
+		myPlaceholderPaint.setColor(Color.LTGRAY);
+		myPlaceholderPaint.setStyle(Paint.Style.STROKE);
 	}
 
 	void setSize(int width, int height, int scrollbarWidth) {
@@ -158,9 +162,14 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 		return myHeight;
 	}
 	
-	public int getStringWidth(char[] string, int offset, int length) {
+	protected int getStringWidthInternal(char[] string, int offset, int length) {
 		return (int)(myTextPaint.measureText(string, offset, length) + 0.5f);
 	}
+	private final char[] myCharBuffer = new char[1];
+	protected float getCharWidthInternal(char c) {
+		myCharBuffer[0] = c;
+		return myTextPaint.measureText(myCharBuffer, 0, 1);
+	}
 	protected int getSpaceWidthInternal() {
 		return (int)(myTextPaint.measureText(" ", 0, 1) + 0.5f);
 	}
@@ -175,19 +184,29 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 	}
 
 	public int imageWidth(ZLImageData imageData) {
-		Bitmap bitmap = ((ZLAndroidImageData)imageData).getBitmap(myWidth, myHeight);
-		return ((bitmap != null) && !bitmap.isRecycled()) ? bitmap.getWidth() : 0;
+		return ((ZLAndroidImageData)imageData).getWidth(myWidth, myHeight);
 	}
 
 	public int imageHeight(ZLImageData imageData) {
-		Bitmap bitmap = ((ZLAndroidImageData)imageData).getBitmap(myWidth, myHeight);
-		return ((bitmap != null) && !bitmap.isRecycled())  ? bitmap.getHeight() : 0;
+		return ((ZLAndroidImageData)imageData).getHeight(myWidth, myHeight);
 	}
 
+	private final Rect myImageRect = new Rect();
+
+	/*
+	 * Bitmaps are decoded in background; until the bitmap is ready,
+	 * its frame is drawn in place of it.
+	 */
 	public void drawImage(int x, int y, ZLImageData imageData) {
-		Bitmap bitmap = ((ZLAndroidImageData)imageData).getBitmap(myWidth, myHeight);
+		final ZLAndroidImageData data = (ZLAndroidImageData)imageData;
+		final int width = data.getWidth(myWidth, myHeight);
+		final int height = data.getHeight(myWidth, myHeight);
+		myImageRect.set(x, y - height, x + width, y);
+		final Bitmap bitmap = data.getBitmapAsync(myWidth, myHeight);
 		if ((bitmap != null) && !bitmap.isRecycled()) {
-			myCanvas.drawBitmap(bitmap, x, y - bitmap.getHeight(), myFillPaint);
+			myCanvas.drawBitmap(bitmap, null, myImageRect, myFillPaint);
+		} else {
+			myCanvas.drawRect(myImageRect, myPlaceholderPaint);
 		}
 	}
 
@@ -304,6 +304,19 @@ public class ZLAndroidWidget extends View {
 		postInvalidate();
 	}
 
+	/*
+	 * Redraws both the shown page and the page cached for scrolling;
+	 * can be called from any thread.
+	 */
+	public void invalidatePages() {
+		post(new Runnable() {
+			public void run() {
+				mySecondaryBitmapIsUpToDate = false;
+				invalidate();
+			}
+		});
+	}
+
 	private void drawOnBitmap(Bitmap bitmap) {
 		final ZLView view = ZLApplication.Instance().getCurrentView();
 		if (view == null) {